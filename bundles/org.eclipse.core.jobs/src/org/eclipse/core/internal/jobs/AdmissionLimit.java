@@ -0,0 +1,145 @@
+/*******************************************************************************
+ * Copyright (c) 2012 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.core.internal.jobs;
+
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import org.eclipse.core.runtime.jobs.Job;
+
+/**
+ * A limit on the number of queued jobs, either of all jobs or of the jobs of
+ * one family. A job is queued from the time it is scheduled until it starts
+ * running or is canceled, that is while it is about to be scheduled, pending,
+ * sleeping, waiting or blocked. The policy decides what happens to a job that
+ * is scheduled while the limit is reached.
+ * <p>
+ * Implementation note: this class is not thread safe. All access must be
+ * synchronized on the job manager lock.
+ * </p>
+ */
+final class AdmissionLimit {
+	/**
+	 * Policy that refuses to schedule a job while the limit is reached.
+	 */
+	static final int REJECT = 0;
+
+	/**
+	 * Policy that blocks the scheduling thread until the queue has room.
+	 * Threads that cannot block safely have their jobs rejected instead.
+	 */
+	static final int BLOCK = 1;
+
+	/**
+	 * Policy that cancels the job that was queued first to make room.
+	 */
+	static final int DROP_OLDEST = 2;
+
+	/**
+	 * Policy that merges a job into a queued job of the same class and name,
+	 * and rejects it if there is no such job.
+	 */
+	static final int COALESCE = 3;
+
+	private static final String[] POLICY_NAMES = {"reject", "block", "dropOldest", "coalesce"}; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+
+	private final int maxDepth;
+	private final int policy;
+
+	/**
+	 * The jobs that are queued, in the order they were scheduled.
+	 */
+	private final LinkedHashSet queued = new LinkedHashSet();
+
+	/**
+	 * Returns the policy with the given name, or the reject policy if there
+	 * is no such policy.
+	 */
+	static int policyForName(String name) {
+		for (int i = 0; i < POLICY_NAMES.length; i++)
+			if (POLICY_NAMES[i].equalsIgnoreCase(name))
+				return i;
+		return REJECT;
+	}
+
+	/**
+	 * Returns whether jobs in the given internal state count against limits.
+	 */
+	static boolean isQueued(int state) {
+		switch (state) {
+			case InternalJob.ABOUT_TO_SCHEDULE :
+			case InternalJob.PENDING :
+			case InternalJob.BLOCKED :
+			case Job.SLEEPING :
+			case Job.WAITING :
+				return true;
+		}
+		return false;
+	}
+
+	AdmissionLimit(int maxDepth, int policy) {
+		this.maxDepth = maxDepth;
+		this.policy = policy;
+	}
+
+	void add(InternalJob job) {
+		queued.add(job);
+	}
+
+	/**
+	 * Returns a queued job that the given job can be merged into, or null if
+	 * there is none. Jobs that are still being scheduled are not considered.
+	 */
+	InternalJob findEquivalent(InternalJob job) {
+		for (Iterator it = queued.iterator(); it.hasNext();) {
+			InternalJob other = (InternalJob) it.next();
+			if (other.internalGetState() != InternalJob.ABOUT_TO_SCHEDULE && other.getClass() == job.getClass() && other.getName().equals(job.getName()))
+				return other;
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the job that was queued first, or null if there is none. Jobs
+	 * that are still being scheduled are not considered. The job counts
+	 * against this limit until the caller cancels it.
+	 */
+	InternalJob findOldest() {
+		for (Iterator it = queued.iterator(); it.hasNext();) {
+			InternalJob job = (InternalJob) it.next();
+			if (job.internalGetState() != InternalJob.ABOUT_TO_SCHEDULE)
+				return job;
+		}
+		return null;
+	}
+
+	int getPolicy() {
+		return policy;
+	}
+
+	/**
+	 * Returns whether the limit is reached.
+	 */
+	boolean isFull() {
+		return queued.size() >= maxDepth;
+	}
+
+	/**
+	 * Removes the given job, and returns whether the limit was reached before.
+	 */
+	boolean remove(InternalJob job) {
+		boolean full = isFull();
+		return queued.remove(job) && full;
+	}
+
+	public String toString() {
+		return POLICY_NAMES[policy] + '(' + queued.size() + '/' + maxDepth + ')';
+	}
+}
@@ -0,0 +1,215 @@
+/*******************************************************************************
+ * Copyright (c) 2012 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.core.internal.jobs;
+
+import java.util.*;
+import org.eclipse.core.runtime.jobs.IKeyedSchedulingRule;
+import org.eclipse.core.runtime.jobs.ISchedulingRule;
+
+/**
+ * Indexes the running and blocked jobs that own a scheduling rule, so that
+ * the job manager can find a job conflicting with a waiting job without
+ * scanning every running job and every chain of blocked jobs.
+ *
+ * Jobs whose rule is an {@link IKeyedSchedulingRule} are stored in a tree
+ * keyed by the segments of their conflict key.  All other jobs with a rule are
+ * kept in a flat list, and are always considered as candidates.
+ *
+ * Implementation note: this class is not thread safe. All access must be
+ * synchronized on the job manager lock.
+ */
+class ConflictIndex {
+	/**
+	 * A node in the key tree. A node holds the jobs whose key ends at this
+	 * node, and the number of jobs stored in the subtree rooted at this node.
+	 */
+	private static final class Node {
+		final Node parent;
+		final Object segment;
+		/**
+		 * Maps key segment (Object) -> child node (Node), or null if there are no children.
+		 */
+		HashMap children;
+		/**
+		 * Jobs whose key ends at this node, or null if there are none.
+		 */
+		ArrayList jobs;
+		int size;
+
+		Node(Node parent, Object segment) {
+			this.parent = parent;
+			this.segment = segment;
+		}
+
+		Node child(Object childSegment, boolean create) {
+			Node child = children == null ? null : (Node) children.get(childSegment);
+			if (child == null && create) {
+				if (children == null)
+					children = new HashMap(4);
+				child = new Node(this, childSegment);
+				children.put(childSegment, child);
+			}
+			return child;
+		}
+	}
+
+	/**
+	 * Root of the key tree.
+	 */
+	private final Node root = new Node(null, null);
+
+	/**
+	 * Maps InternalJob -> Node for all jobs stored in the key tree.
+	 */
+	private final HashMap keyed = new HashMap();
+
+	/**
+	 * The indexed jobs whose rules do not expose a conflict key.
+	 */
+	private final ArrayList unkeyed = new ArrayList();
+
+	/**
+	 * The first blocked job found to conflict during the current search.
+	 */
+	private InternalJob firstBlocked;
+
+	/**
+	 * Returns the conflict key of the given rule, or null if the rule
+	 * cannot be indexed.
+	 */
+	static Object[] keyOf(ISchedulingRule rule) {
+		if (rule instanceof IKeyedSchedulingRule)
+			return ((IKeyedSchedulingRule) rule).getConflictKey();
+		return null;
+	}
+
+	/**
+	 * Adds a running or blocked job to the index. Jobs without a scheduling
+	 * rule can never conflict, and are ignored.
+	 */
+	void add(InternalJob job) {
+		ISchedulingRule rule = job.getRule();
+		if (rule == null)
+			return;
+		Object[] key = keyOf(rule);
+		if (key == null) {
+			unkeyed.add(job);
+			return;
+		}
+		Node node = root;
+		node.size++;
+		for (int i = 0; i < key.length; i++) {
+			node = node.child(key[i], true);
+			node.size++;
+		}
+		if (node.jobs == null)
+			node.jobs = new ArrayList(2);
+		node.jobs.add(job);
+		keyed.put(job, node);
+	}
+
+	/**
+	 * Removes all jobs from the index.
+	 */
+	void clear() {
+		root.children = null;
+		root.jobs = null;
+		root.size = 0;
+		keyed.clear();
+		unkeyed.clear();
+	}
+
+	/**
+	 * Returns an indexed job that conflicts with the given job, or null if
+	 * no indexed job conflicts with it. As with the linear search in the job
+	 * manager, a running job is preferred over a blocked one. The given job
+	 * must have a rule with the given conflict key.
+	 */
+	InternalJob findConflicting(InternalJob waitingJob, Object[] key) {
+		firstBlocked = null;
+		try {
+			//rules without a key may conflict with anything
+			InternalJob found = findConflicting(waitingJob, unkeyed);
+			//jobs whose keys are a prefix of the waiting job's key
+			Node node = root;
+			if (found == null)
+				found = findConflicting(waitingJob, node.jobs);
+			for (int i = 0; found == null && node != null && i < key.length; i++) {
+				node = node.child(key[i], false);
+				if (node != null)
+					found = findConflicting(waitingJob, node.jobs);
+			}
+			//jobs whose keys have the waiting job's key as a prefix
+			if (found == null && node != null)
+				found = findConflictingBelow(waitingJob, node);
+			return found == null ? firstBlocked : found;
+		} finally {
+			firstBlocked = null;
+		}
+	}
+
+	/**
+	 * Returns the first running candidate that conflicts with the given job.
+	 * Records the first conflicting blocked candidate in firstBlocked.
+	 */
+	private InternalJob findConflicting(InternalJob waitingJob, ArrayList candidates) {
+		if (candidates == null)
+			return null;
+		for (int i = 0, size = candidates.size(); i < size; i++) {
+			InternalJob job = (InternalJob) candidates.get(i);
+			if (waitingJob.isConflicting(job)) {
+				if (job.internalGetState() != InternalJob.BLOCKED)
+					return job;
+				if (firstBlocked == null)
+					firstBlocked = job;
+			}
+		}
+		return null;
+	}
+
+	private InternalJob findConflictingBelow(InternalJob waitingJob, Node node) {
+		if (node.children == null)
+			return null;
+		for (Iterator it = node.children.values().iterator(); it.hasNext();) {
+			Node child = (Node) it.next();
+			InternalJob found = findConflicting(waitingJob, child.jobs);
+			if (found == null)
+				found = findConflictingBelow(waitingJob, child);
+			if (found != null)
+				return found;
+		}
+		return null;
+	}
+
+	/**
+	 * Removes a job from the index. Has no effect if the job is not indexed.
+	 */
+	void remove(InternalJob job) {
+		Node node = (Node) keyed.remove(job);
+		if (node == null) {
+			unkeyed.remove(job);
+			return;
+		}
+		node.jobs.remove(job);
+		if (node.jobs.isEmpty())
+			node.jobs = null;
+		//walk back to the root, pruning nodes that no longer hold any jobs
+		while (node != null) {
+			node.size--;
+			Node parent = node.parent;
+			if (node.size == 0 && parent != null)
+				parent.children.remove(node.segment);
+			if (parent != null && parent.children.isEmpty())
+				parent.children = null;
+			node = parent;
+		}
+	}
+}
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2003, 2010 IBM Corporation and others.
+ * Copyright (c) 2003, 2012 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -12,7 +12,7 @@ package org.eclipse.core.internal.jobs;
 
 import java.io.PrintWriter;
 import java.io.StringWriter;
-import java.util.ArrayList;
+import java.util.*;
 import org.eclipse.core.internal.runtime.RuntimeLog;
 import org.eclipse.core.runtime.*;
 import org.eclipse.core.runtime.jobs.ILock;
@@ -20,16 +20,21 @@ import org.eclipse.core.runtime.jobs.ISchedulingRule;
 
 /**
  * Stores all the relationships between locks (rules are also considered locks), 
- * and the threads that own them. All the relationships are stored in a 2D integer array.
- * The rows in the array are threads, while the columns are locks.
- * Two corresponding arrayLists store the actual threads and locks.
- * The index of a thread in the first arrayList is the index of the row in the graph.
- * The index of a lock in the second arrayList is the index of the column in the graph. 
+ * and the threads that own them. Conceptually the relationships form a matrix
+ * whose rows are threads and whose columns are locks, but only the entries that
+ * are not 0 are stored: each thread maps to its row of entries, and each lock
+ * maps to the threads that have an entry in its column. 
  * An entry greater than 0 in the graph is the number of times a thread in the entry's row
  * acquired the lock in the entry's column.
  * An entry of -1 means that the thread is waiting to acquire the lock.
  * An entry of 0 means that the thread and the lock have no relationship.
  * 
+ * The threads and locks form a wait-for graph: a thread waits for the locks with
+ * an entry of -1 in its row, and a lock is owned by the threads with an entry
+ * greater than 0 in its column. A deadlock can only be introduced by a new wait,
+ * so each new wait searches for a cycle through the lock that is waited for,
+ * visiting every thread at most once.
+ * 
  * The difference between rules and locks is that locks can be suspended, while
  * rules are implicit locks and as such cannot be suspended.
  * To resolve deadlock, the graph will first try to find a thread that only owns
@@ -69,23 +74,24 @@ class DeadlockDetector {
 	private static int NO_STATE = 0;
 	//state variables in the graph
 	private static int WAITING_FOR_LOCK = -1;
-	//empty matrix
-	private static final int[][] EMPTY_MATRIX = new int[0][0];
-	//matrix of relationships between threads and locks
-	private int[][] graph = EMPTY_MATRIX;
-	//index is column in adjacency matrix for the lock
-	private final ArrayList locks = new ArrayList();
-	//index is row in adjacency matrix for the thread
-	private final ArrayList lockThreads = new ArrayList();
-	//whether the graph needs to be resized
-	private boolean resize = false;
+	/**
+	 * Maps thread -> row of entries (LinkedHashMap of lock -> int[1])
+	 * Threads stay in the graph until their row is empty and they release a lock.
+	 */
+	private final LinkedHashMap lockThreads = new LinkedHashMap();
+	/**
+	 * Maps lock -> threads with an entry in its column (LinkedHashSet of Thread)
+	 * Locks stay in the graph until their column is empty and a conflicting lock
+	 * is released.
+	 */
+	private final LinkedHashMap locks = new LinkedHashMap();
 
 	/**
 	 * Recursively check if any of the threads that prevent the current thread from running
 	 * are actually deadlocked with the current thread.
 	 * Add the threads that form deadlock to the deadlockedThreads list.
 	 */
-	private boolean addCycleThreads(ArrayList deadlockedThreads, Thread next) {
+	private boolean addCycleThreads(ArrayList deadlockedThreads, HashSet visited, Thread next) {
 		//get the thread that block the given thread from running
 		Thread[] blocking = blockingThreads(next);
 		//if the thread is not blocked by other threads, then it is not part of a deadlock
@@ -94,21 +100,44 @@ class DeadlockDetector {
 		boolean inCycle = false;
 		for (int i = 0; i < blocking.length; i++) {
 			//if we have already visited the given thread, then we found a cycle
-			if (deadlockedThreads.contains(blocking[i])) {
+			if (visited.contains(blocking[i])) {
 				inCycle = true;
 			} else {
 				//otherwise, add the thread to our list and recurse deeper
 				deadlockedThreads.add(blocking[i]);
+				visited.add(blocking[i]);
 				//if the thread is not part of a cycle, remove it from the list
-				if (addCycleThreads(deadlockedThreads, blocking[i]))
+				if (addCycleThreads(deadlockedThreads, visited, blocking[i])) {
 					inCycle = true;
-				else
+				} else {
 					deadlockedThreads.remove(blocking[i]);
+					visited.remove(blocking[i]);
+				}
 			}
 		}
 		return inCycle;
 	}
 
+	/**
+	 * Adds the given lock to the graph if it is not there yet.
+	 */
+	private void addLock(ISchedulingRule lock) {
+		if (!locks.containsKey(lock))
+			locks.put(lock, new LinkedHashSet());
+	}
+
+	/**
+	 * Adds the given thread to the graph if it is not there yet, and returns its row.
+	 */
+	private Map addThread(Thread owner) {
+		Map row = (Map) lockThreads.get(owner);
+		if (row == null) {
+			row = new LinkedHashMap();
+			lockThreads.put(owner, row);
+		}
+		return row;
+	}
+
 	/**
 	 * Get the thread(s) that own the lock this thread is waiting for.
 	 */
@@ -121,28 +150,37 @@ class DeadlockDetector {
 	/**
 	 * Check that the addition of a waiting thread did not produce deadlock. 
 	 * If deadlock is detected return true, else return false.
+	 * Threads on the current path are in onPath, and threads that were visited
+	 * are in visited. A visited thread that is no longer on the path does not
+	 * lead to a cycle, so it is not searched again.
 	 */
-	private boolean checkWaitCycles(int[] waitingThreads, int lockIndex) {
+	private boolean checkWaitCycles(ISchedulingRule lock, HashSet onPath, HashSet visited) {
 		/**
-		 * find the lock that this thread is waiting for
+		 * find the threads that own the lock
 		 * recursively check if this is a cycle (i.e. a thread waiting on itself)
 		 */
-		for (int i = 0; i < graph.length; i++) {
-			if (graph[i][lockIndex] > NO_STATE) {
-				if (waitingThreads[i] > NO_STATE) {
-					return true;
-				}
-				//keep track that we already visited this thread
-				waitingThreads[i]++;
-				for (int j = 0; j < graph[i].length; j++) {
-					if (graph[i][j] == WAITING_FOR_LOCK) {
-						if (checkWaitCycles(waitingThreads, j))
-							return true;
-					}
+		Set owners = (Set) locks.get(lock);
+		if (owners == null)
+			return false;
+		for (Iterator it = owners.iterator(); it.hasNext();) {
+			Thread owner = (Thread) it.next();
+			if (getState(owner, lock) <= NO_STATE)
+				continue;
+			if (onPath.contains(owner))
+				return true;
+			if (!visited.add(owner))
+				continue;
+			//keep track that we are visiting this thread
+			onPath.add(owner);
+			for (Iterator entries = ((Map) lockThreads.get(owner)).entrySet().iterator(); entries.hasNext();) {
+				Map.Entry entry = (Map.Entry) entries.next();
+				if (((int[]) entry.getValue())[0] == WAITING_FOR_LOCK) {
+					if (checkWaitCycles((ISchedulingRule) entry.getKey(), onPath, visited))
+						return true;
 				}
-				//this thread is not involved in a cycle yet, so remove the visited flag
-				waitingThreads[i]--;
 			}
+			//this thread is not involved in a cycle
+			onPath.remove(owner);
 		}
 		return false;
 	}
@@ -152,7 +190,7 @@ class DeadlockDetector {
 	 * (meaning the given thread either owns locks or is waiting for locks)
 	 */
 	boolean contains(Thread t) {
-		return lockThreads.contains(t);
+		return lockThreads.containsKey(t);
 	}
 
 	/**
@@ -160,22 +198,29 @@ class DeadlockDetector {
 	 * Find a rule it conflicts with and update the new rule with the number of times 
 	 * it was acquired implicitly when threads acquired conflicting rule.
 	 */
-	private void fillPresentEntries(ISchedulingRule newLock, int lockIndex) {
+	private void fillPresentEntries(ISchedulingRule newLock) {
 		//fill in the entries for the new rule from rules it conflicts with
-		for (int j = 0; j < locks.size(); j++) {
-			if ((j != lockIndex) && (newLock.isConflicting((ISchedulingRule) locks.get(j)))) {
-				for (int i = 0; i < graph.length; i++) {
-					if ((graph[i][j] > NO_STATE) && (graph[i][lockIndex] == NO_STATE))
-						graph[i][lockIndex] = graph[i][j];
+		for (Iterator it = locks.entrySet().iterator(); it.hasNext();) {
+			Map.Entry column = (Map.Entry) it.next();
+			ISchedulingRule possible = (ISchedulingRule) column.getKey();
+			if (!possible.equals(newLock) && newLock.isConflicting(possible)) {
+				for (Iterator owners = ((Set) column.getValue()).iterator(); owners.hasNext();) {
+					Thread owner = (Thread) owners.next();
+					int state = getState(owner, possible);
+					if ((state > NO_STATE) && (getState(owner, newLock) == NO_STATE))
+						setState(owner, newLock, state);
 				}
 			}
 		}
 		//now back fill the entries for rules the current rule conflicts with
-		for (int j = 0; j < locks.size(); j++) {
-			if ((j != lockIndex) && (newLock.isConflicting((ISchedulingRule) locks.get(j)))) {
-				for (int i = 0; i < graph.length; i++) {
-					if ((graph[i][lockIndex] > NO_STATE) && (graph[i][j] == NO_STATE))
-						graph[i][j] = graph[i][lockIndex];
+		Thread[] owners = (Thread[]) ((Set) locks.get(newLock)).toArray(new Thread[0]);
+		for (Iterator it = locks.keySet().iterator(); it.hasNext();) {
+			ISchedulingRule possible = (ISchedulingRule) it.next();
+			if (!possible.equals(newLock) && newLock.isConflicting(possible)) {
+				for (int i = 0; i < owners.length; i++) {
+					int state = getState(owners[i], newLock);
+					if ((state > NO_STATE) && (getState(owners[i], possible) == NO_STATE))
+						setState(owners[i], possible, state);
 				}
 			}
 		}
@@ -186,29 +231,42 @@ class DeadlockDetector {
 	 */
 	private Object[] getOwnedLocks(Thread current) {
 		ArrayList ownedLocks = new ArrayList(1);
-		int index = indexOf(current, false);
-
-		for (int j = 0; j < graph[index].length; j++) {
-			if (graph[index][j] > NO_STATE)
-				ownedLocks.add(locks.get(j));
+		for (Iterator it = ((Map) lockThreads.get(current)).entrySet().iterator(); it.hasNext();) {
+			Map.Entry entry = (Map.Entry) it.next();
+			if (((int[]) entry.getValue())[0] > NO_STATE)
+				ownedLocks.add(entry.getKey());
 		}
 		if (ownedLocks.size() == 0)
 			Assert.isLegal(false, "A thread with no locks is part of a deadlock."); //$NON-NLS-1$
 		return ownedLocks.toArray();
 	}
 
+	/**
+	 * Returns the entry of the graph for the given thread and lock.
+	 */
+	private int getState(Thread owner, ISchedulingRule lock) {
+		Map row = (Map) lockThreads.get(owner);
+		if (row == null)
+			return NO_STATE;
+		int[] state = (int[]) row.get(lock);
+		return state == null ? NO_STATE : state[0];
+	}
+
 	/**
 	 * Returns an array of threads that form the deadlock (usually 2).
 	 */
 	private Thread[] getThreadsInDeadlock(Thread cause) {
 		ArrayList deadlockedThreads = new ArrayList(2);
+		HashSet visited = new HashSet();
 		/**
 		 * if the thread that caused deadlock doesn't own any locks, then it is not part
 		 * of the deadlock (it just caused it because of a rule it tried to acquire)
 		 */
-		if (ownsLocks(cause))
+		if (ownsLocks(cause)) {
 			deadlockedThreads.add(cause);
-		addCycleThreads(deadlockedThreads, cause);
+			visited.add(cause);
+		}
+		addCycleThreads(deadlockedThreads, visited, cause);
 		return (Thread[]) deadlockedThreads.toArray(new Thread[deadlockedThreads.size()]);
 	}
 
@@ -218,11 +276,14 @@ class DeadlockDetector {
 	private Thread[] getThreadsOwningLock(ISchedulingRule rule) {
 		if (rule == null)
 			return new Thread[0];
-		int lockIndex = indexOf(rule, false);
 		ArrayList blocking = new ArrayList(1);
-		for (int i = 0; i < graph.length; i++) {
-			if (graph[i][lockIndex] > NO_STATE)
-				blocking.add(lockThreads.get(i));
+		Set owners = (Set) locks.get(rule);
+		if (owners != null) {
+			for (Iterator it = owners.iterator(); it.hasNext();) {
+				Thread owner = (Thread) it.next();
+				if (getState(owner, rule) > NO_STATE)
+					blocking.add(owner);
+			}
 		}
 		if ((blocking.size() == 0) && (JobManager.DEBUG_LOCKS))
 			System.out.println("Lock " + rule + " is involved in deadlock but is not owned by any thread."); //$NON-NLS-1$ //$NON-NLS-2$
@@ -235,80 +296,49 @@ class DeadlockDetector {
 	 * Returns the lock the given thread is waiting for.
 	 */
 	private Object getWaitingLock(Thread current) {
-		int index = indexOf(current, false);
 		//find the lock that this thread is waiting for
-		for (int j = 0; j < graph[index].length; j++) {
-			if (graph[index][j] == WAITING_FOR_LOCK)
-				return locks.get(j);
+		for (Iterator it = ((Map) lockThreads.get(current)).entrySet().iterator(); it.hasNext();) {
+			Map.Entry entry = (Map.Entry) it.next();
+			if (((int[]) entry.getValue())[0] == WAITING_FOR_LOCK)
+				return entry.getKey();
 		}
 		//it can happen that a thread is not waiting for any lock (it is not really part of the deadlock)
 		return null;
 	}
 
 	/**
-	 * Returns the index of the given lock in the lock array. If the lock is
-	 * not present in the array, it is added to the end.
-	 */
-	private int indexOf(ISchedulingRule lock, boolean add) {
-		int index = locks.indexOf(lock);
-		if ((index < 0) && add) {
-			locks.add(lock);
-			resize = true;
-			index = locks.size() - 1;
-		}
-		return index;
-	}
-
-	/**
-	 * Returns the index of the given thread in the thread array. If the thread
-	 * is not present in the array, it is added to the end.
-	 */
-	private int indexOf(Thread owner, boolean add) {
-		int index = lockThreads.indexOf(owner);
-		if ((index < 0) && add) {
-			lockThreads.add(owner);
-			resize = true;
-			index = lockThreads.size() - 1;
-		}
-		return index;
-	}
-
-	/**
-	 * Returns true IFF the adjacency matrix is empty.
+	 * Returns true IFF the graph is empty.
 	 */
 	boolean isEmpty() {
-		return (locks.size() == 0) && (lockThreads.size() == 0) && (graph.length == 0);
+		return locks.isEmpty() && lockThreads.isEmpty();
 	}
 
 	/**
 	 * The given lock was acquired by the given thread.
 	 */
 	void lockAcquired(Thread owner, ISchedulingRule lock) {
-		int lockIndex = indexOf(lock, true);
-		int threadIndex = indexOf(owner, true);
-		if (resize)
-			resizeGraph();
-		if (graph[threadIndex][lockIndex] == WAITING_FOR_LOCK)
-			graph[threadIndex][lockIndex] = NO_STATE;
+		addLock(lock);
+		addThread(owner);
+		if (getState(owner, lock) == WAITING_FOR_LOCK)
+			setState(owner, lock, NO_STATE);
 		/**
 		 * acquire all locks that conflict with the given lock
 		 * or conflict with a lock the given lock will acquire implicitly
 		 * (locks are acquired implicitly when a conflicting lock is acquired)
 		 */
 		ArrayList conflicting = new ArrayList(1);
-		//only need two passes through all the locks to pick up all conflicting rules
-		int NUM_PASSES = 2;
+		HashSet found = new HashSet();
 		conflicting.add(lock);
-		graph[threadIndex][lockIndex]++;
-		for (int i = 0; i < NUM_PASSES; i++) {
-			for (int k = 0; k < conflicting.size(); k++) {
-				ISchedulingRule current = (ISchedulingRule) conflicting.get(k);
-				for (int j = 0; j < locks.size(); j++) {
-					ISchedulingRule possible = (ISchedulingRule) locks.get(j);
-					if (current.isConflicting(possible) && !conflicting.contains(possible)) {
-						conflicting.add(possible);
-						graph[threadIndex][j]++;
-					}
+		found.add(lock);
+		setState(owner, lock, getState(owner, lock) + 1);
+		//conflicting grows while it is traversed, so this picks up all conflicting rules
+		for (int k = 0; k < conflicting.size(); k++) {
+			ISchedulingRule current = (ISchedulingRule) conflicting.get(k);
+			for (Iterator it = locks.keySet().iterator(); it.hasNext();) {
+				ISchedulingRule possible = (ISchedulingRule) it.next();
+				if (current.isConflicting(possible) && found.add(possible)) {
+					conflicting.add(possible);
+					setState(owner, possible, getState(owner, possible) + 1);
 				}
 			}
 		}
@@ -318,39 +348,46 @@ class DeadlockDetector {
 	 * The given lock was released by the given thread. Update the graph.
 	 */
 	void lockReleased(Thread owner, ISchedulingRule lock) {
-		int lockIndex = indexOf(lock, false);
-		int threadIndex = indexOf(owner, false);
+		Map row = (Map) lockThreads.get(owner);
 		//make sure the lock and thread exist in the graph
-		if (threadIndex < 0) {
+		if (row == null) {
 			if (JobManager.DEBUG_LOCKS)
 				System.out.println("[lockReleased] Lock " + lock + " was already released by thread " + owner.getName()); //$NON-NLS-1$ //$NON-NLS-2$
 			return;
 		}
-		if (lockIndex < 0) {
+		if (!locks.containsKey(lock)) {
 			if (JobManager.DEBUG_LOCKS)
 				System.out.println("[lockReleased] Thread " + owner.getName() + " already released lock " + lock); //$NON-NLS-1$ //$NON-NLS-2$
 			return;
 		}
 		//if this lock was suspended, set it to NO_STATE
-		if ((lock instanceof ILock) && (graph[threadIndex][lockIndex] == WAITING_FOR_LOCK)) {
-			graph[threadIndex][lockIndex] = NO_STATE;
+		if ((lock instanceof ILock) && (getState(owner, lock) == WAITING_FOR_LOCK)) {
+			setState(owner, lock, NO_STATE);
 			return;
 		}
+		if (JobManager.DEBUG_LOCKS) {
+			for (Iterator it = locks.keySet().iterator(); it.hasNext();) {
+				Object possible = it.next();
+				if (lock.isConflicting((ISchedulingRule) possible) && !row.containsKey(possible))
+					System.out.println("[lockReleased] More releases than acquires for thread " + owner.getName() + " and lock " + lock); //$NON-NLS-1$ //$NON-NLS-2$
+			}
+		}
 		//release all locks that conflict with the given lock
 		//or release all rules that are owned by the given thread, if we are releasing a rule
-		for (int j = 0; j < graph[threadIndex].length; j++) {
-			if ((lock.isConflicting((ISchedulingRule) locks.get(j))) || (!(lock instanceof ILock) && !(locks.get(j) instanceof ILock) && (graph[threadIndex][j] > NO_STATE))) {
-				if (graph[threadIndex][j] == NO_STATE) {
-					if (JobManager.DEBUG_LOCKS)
-						System.out.println("[lockReleased] More releases than acquires for thread " + owner.getName() + " and lock " + lock); //$NON-NLS-1$ //$NON-NLS-2$
-				} else {
-					graph[threadIndex][j]--;
+		for (Iterator it = row.entrySet().iterator(); it.hasNext();) {
+			Map.Entry entry = (Map.Entry) it.next();
+			ISchedulingRule possible = (ISchedulingRule) entry.getKey();
+			int[] state = (int[]) entry.getValue();
+			if ((lock.isConflicting(possible)) || (!(lock instanceof ILock) && !(possible instanceof ILock) && (state[0] > NO_STATE))) {
+				if (--state[0] == NO_STATE) {
+					it.remove();
+					((Set) locks.get(possible)).remove(owner);
 				}
 			}
 		}
 		//if this thread just released the given lock, try to simplify the graph
-		if (graph[threadIndex][lockIndex] == NO_STATE)
-			reduceGraph(threadIndex, lock);
+		if (getState(owner, lock) == NO_STATE)
+			reduceGraph(owner, lock);
 	}
 
 	/**
@@ -358,15 +395,14 @@ class DeadlockDetector {
 	 * Release this rule regardless of how many times it was acquired.
 	 */
 	void lockReleasedCompletely(Thread owner, ISchedulingRule rule) {
-		int ruleIndex = indexOf(rule, false);
-		int threadIndex = indexOf(owner, false);
+		Map row = (Map) lockThreads.get(owner);
 		//need to make sure that the given thread and rule were not already removed from the graph
-		if (threadIndex < 0) {
+		if (row == null) {
 			if (JobManager.DEBUG_LOCKS)
 				System.out.println("[lockReleasedCompletely] Lock " + rule + " was already released by thread " + owner.getName()); //$NON-NLS-1$ //$NON-NLS-2$
 			return;
 		}
-		if (ruleIndex < 0) {
+		if (!locks.containsKey(rule)) {
 			if (JobManager.DEBUG_LOCKS)
 				System.out.println("[lockReleasedCompletely] Thread " + owner.getName() + " already released lock " + rule); //$NON-NLS-1$ //$NON-NLS-2$
 			return;
@@ -376,11 +412,15 @@ class DeadlockDetector {
 		 * (not just rules that conflict with the rule we are releasing)
 		 * if we are releasing a lock, then only update the one entry for the lock
 		 */
-		for (int j = 0; j < graph[threadIndex].length; j++) {
-			if (!(locks.get(j) instanceof ILock) && (graph[threadIndex][j] > NO_STATE))
-				graph[threadIndex][j] = NO_STATE;
+		for (Iterator it = row.entrySet().iterator(); it.hasNext();) {
+			Map.Entry entry = (Map.Entry) it.next();
+			Object possible = entry.getKey();
+			if (!(possible instanceof ILock) && (((int[]) entry.getValue())[0] > NO_STATE)) {
+				it.remove();
+				((Set) locks.get(possible)).remove(owner);
+			}
 		}
-		reduceGraph(threadIndex, rule);
+		reduceGraph(owner, rule);
 	}
 
 	/**
@@ -389,10 +429,8 @@ class DeadlockDetector {
 	 */
 	Deadlock lockWaitStart(Thread client, ISchedulingRule lock) {
 		setToWait(client, lock, false);
-		int lockIndex = indexOf(lock, false);
-		int[] temp = new int[lockThreads.size()];
 		//check if the addition of the waiting thread caused deadlock
-		if (!checkWaitCycles(temp, lockIndex))
+		if (!checkWaitCycles(lock, new HashSet(), new HashSet()))
 			return null;
 		//there is a deadlock in the graph
 		Thread[] threads = getThreadsInDeadlock(client);
@@ -417,36 +455,34 @@ class DeadlockDetector {
 	 * If the lock has already been granted, then it isn't removed.
 	 */
 	void lockWaitStop(Thread owner, ISchedulingRule lock) {
-		int lockIndex = indexOf(lock, false);
-		int threadIndex = indexOf(owner, false);
 		//make sure the thread and lock exist in the graph
-		if (threadIndex < 0) {
+		if (!lockThreads.containsKey(owner)) {
 			if (JobManager.DEBUG_LOCKS)
 				System.out.println("Thread " + owner.getName() + " was already removed."); //$NON-NLS-1$ //$NON-NLS-2$
 			return;
 		}
-		if (lockIndex < 0) {
+		if (!locks.containsKey(lock)) {
 			if (JobManager.DEBUG_LOCKS)
 				System.out.println("Lock " + lock + " was already removed."); //$NON-NLS-1$ //$NON-NLS-2$
 			return;
 		}
-		if (graph[threadIndex][lockIndex] != WAITING_FOR_LOCK) {
+		int state = getState(owner, lock);
+		if (state != WAITING_FOR_LOCK) {
 			// Lock has already been granted, nothing to do...
 			if (JobManager.DEBUG_LOCKS)
-				System.out.println("Lock " + lock + " already granted to depth: " + graph[threadIndex][lockIndex]); //$NON-NLS-1$ //$NON-NLS-2$
+				System.out.println("Lock " + lock + " already granted to depth: " + state); //$NON-NLS-1$ //$NON-NLS-2$
 			return;
 		}
-		graph[threadIndex][lockIndex] = NO_STATE;
-		reduceGraph(threadIndex, lock);
+		setState(owner, lock, NO_STATE);
+		reduceGraph(owner, lock);
 	}
 
 	/**
 	 * Returns true IFF the given thread owns a single lock
 	 */
 	private boolean ownsLocks(Thread cause) {
-		int threadIndex = indexOf(cause, false);
-		for (int j = 0; j < graph[threadIndex].length; j++) {
-			if (graph[threadIndex][j] > NO_STATE)
+		for (Iterator it = ((Map) lockThreads.get(cause)).values().iterator(); it.hasNext();) {
+			if (((int[]) it.next())[0] > NO_STATE)
 				return true;
 		}
 		return false;
@@ -457,13 +493,10 @@ class DeadlockDetector {
 	 * A real lock is a lock that can be suspended.
 	 */
 	private boolean ownsRealLocks(Thread owner) {
-		int threadIndex = indexOf(owner, false);
-		for (int j = 0; j < graph[threadIndex].length; j++) {
-			if (graph[threadIndex][j] > NO_STATE) {
-				Object lock = locks.get(j);
-				if (lock instanceof ILock)
-					return true;
-			}
+		for (Iterator it = ((Map) lockThreads.get(owner)).entrySet().iterator(); it.hasNext();) {
+			Map.Entry entry = (Map.Entry) it.next();
+			if ((((int[]) entry.getValue())[0] > NO_STATE) && (entry.getKey() instanceof ILock))
+				return true;
 		}
 		return false;
 	}
@@ -473,13 +506,10 @@ class DeadlockDetector {
 	 * cannot be suspended)
 	 */
 	private boolean ownsRuleLocks(Thread owner) {
-		int threadIndex = indexOf(owner, false);
-		for (int j = 0; j < graph[threadIndex].length; j++) {
-			if (graph[threadIndex][j] > NO_STATE) {
-				Object lock = locks.get(j);
-				if (!(lock instanceof ILock))
-					return true;
-			}
+		for (Iterator it = ((Map) lockThreads.get(owner)).entrySet().iterator(); it.hasNext();) {
+			Map.Entry entry = (Map.Entry) it.next();
+			if ((((int[]) entry.getValue())[0] > NO_STATE) && !(entry.getKey() instanceof ILock))
+				return true;
 		}
 		return false;
 	}
@@ -489,11 +519,11 @@ class DeadlockDetector {
 	 * Real locks are locks that implement the ILock interface and can be suspended.
 	 */
 	private ISchedulingRule[] realLocksForThread(Thread owner) {
-		int threadIndex = indexOf(owner, false);
 		ArrayList ownedLocks = new ArrayList(1);
-		for (int j = 0; j < graph[threadIndex].length; j++) {
-			if ((graph[threadIndex][j] > NO_STATE) && (locks.get(j) instanceof ILock))
-				ownedLocks.add(locks.get(j));
+		for (Iterator it = ((Map) lockThreads.get(owner)).entrySet().iterator(); it.hasNext();) {
+			Map.Entry entry = (Map.Entry) it.next();
+			if ((((int[]) entry.getValue())[0] > NO_STATE) && (entry.getKey() instanceof ILock))
+				ownedLocks.add(entry.getKey());
 		}
 		if (ownedLocks.size() == 0)
 			Assert.isLegal(false, "A thread with no real locks was chosen to resolve deadlock."); //$NON-NLS-1$
@@ -501,94 +531,22 @@ class DeadlockDetector {
 	}
 
 	/**
-	 * The matrix has been simplified. Check if any unnecessary rows or columns
-	 * can be removed.
+	 * The graph has been simplified. Check if the row of the given thread, or
+	 * columns of locks which conflict with the given lock or which are rules,
+	 * have become empty and can be removed.
 	 */
-	private void reduceGraph(int row, ISchedulingRule lock) {
-		int numLocks = locks.size();
-		boolean[] emptyColumns = new boolean[numLocks];
-
-		/**
-		 * find all columns that could possibly be empty
-		 * (consist of locks which conflict with the given lock, or of locks which are rules)
-		 */
-		for (int j = 0; j < numLocks; j++) {
-			if ((lock.isConflicting((ISchedulingRule) locks.get(j))) || !(locks.get(j) instanceof ILock))
-				emptyColumns[j] = true;
-		}
-
-		boolean rowEmpty = true;
-		int numEmpty = 0;
-		//check if the given row is empty
-		for (int j = 0; j < graph[row].length; j++) {
-			if (graph[row][j] != NO_STATE) {
-				rowEmpty = false;
-				break;
-			}
-		}
-		/**
-		 * Check if the possibly empty columns are actually empty.
-		 * If a column is actually empty, remove the corresponding lock from the list of locks
-		 * Start at the last column so that when locks are removed from the list, 
-		 * the index of the remaining locks is unchanged. Store the number of empty columns.
-		 */
-		for (int j = emptyColumns.length - 1; j >= 0; j--) {
-			for (int i = 0; i < graph.length; i++) {
-				if (emptyColumns[j] && (graph[i][j] != NO_STATE)) {
-					emptyColumns[j] = false;
-					break;
-				}
-			}
-			if (emptyColumns[j]) {
-				locks.remove(j);
-				numEmpty++;
-			}
-		}
-		//if no columns or rows are empty, return right away
-		if ((numEmpty == 0) && (!rowEmpty))
-			return;
-
-		if (rowEmpty)
-			lockThreads.remove(row);
-
-		//new graph (the list of locks and the list of threads are already updated)
-		final int numThreads = lockThreads.size();
-		numLocks = locks.size();
-		//optimize empty graph case
-		if (numThreads == 0 && numLocks == 0) {
-			graph = EMPTY_MATRIX;
-			return;
-		}
-		int[][] tempGraph = new int[numThreads][numLocks];
-
-		//the number of rows we need to skip to get the correct entry from the old graph
-		int numRowsSkipped = 0;
-		for (int i = 0; i < graph.length - numRowsSkipped; i++) {
-			if ((i == row) && rowEmpty) {
-				numRowsSkipped++;
-				//check if we need to skip the last row
-				if (i >= graph.length - numRowsSkipped)
-					break;
-			}
-			//the number of columns we need to skip to get the correct entry from the old graph
-			//needs to be reset for every new row
-			int numColsSkipped = 0;
-			for (int j = 0; j < graph[i].length - numColsSkipped; j++) {
-				while (emptyColumns[j + numColsSkipped]) {
-					numColsSkipped++;
-					//check if we need to skip the last column
-					if (j >= graph[i].length - numColsSkipped)
-						break;
-				}
-				//need to break out of the outer loop
-				if (j >= graph[i].length - numColsSkipped)
-					break;
-				tempGraph[i][j] = graph[i + numRowsSkipped][j + numColsSkipped];
-			}
-		}
-		graph = tempGraph;
-		Assert.isTrue(numThreads == graph.length, "Rows and threads don't match."); //$NON-NLS-1$
-		Assert.isTrue(numLocks == ((graph.length > 0) ? graph[0].length : 0), "Columns and locks don't match."); //$NON-NLS-1$
+	private void reduceGraph(Thread owner, ISchedulingRule lock) {
+		for (Iterator it = locks.entrySet().iterator(); it.hasNext();) {
+			Map.Entry column = (Map.Entry) it.next();
+			if (!((Set) column.getValue()).isEmpty())
+				continue;
+			Object possible = column.getKey();
+			if (!(possible instanceof ILock) || lock.isConflicting((ISchedulingRule) possible))
+				it.remove();
+		}
+		Map row = (Map) lockThreads.get(owner);
+		if (row != null && row.isEmpty())
+			lockThreads.remove(owner);
 	}
 
 	/**
@@ -616,28 +574,6 @@ class DeadlockDetector {
 		RuntimeLog.log(main);
 	}
 
-	/**
-	 * The number of threads/locks in the graph has changed. Update the
-	 * underlying matrix.
-	 */
-	private void resizeGraph() {
-		// a new row and/or a new column was added to the graph.
-		// since new rows/columns are always added to the end, just transfer
-		// old entries to the new graph, with the same indices.
-		final int newRows = lockThreads.size();
-		final int newCols = locks.size();
-		//optimize 0x0 and 1x1 matrices
-		if (newRows == 0 && newCols == 0) {
-			graph = EMPTY_MATRIX;
-			return;
-		}
-		int[][] tempGraph = new int[newRows][newCols];
-		for (int i = 0; i < graph.length; i++)
-			System.arraycopy(graph[i], 0, tempGraph[i], 0, graph[i].length);
-		graph = tempGraph;
-		resize = false;
-	}
-
 	/**
 	 * Get the thread whose locks can be suspended. (i.e. all locks it owns are
 	 * actual locks and not rules). Return the first thread in the array by default.
@@ -657,6 +593,27 @@ class DeadlockDetector {
 		return candidates[0];
 	}
 
+	/**
+	 * Sets the entry of the graph for the given thread and lock, keeping the
+	 * row of the thread and the column of the lock in sync. Both must be in the graph.
+	 */
+	private void setState(Thread owner, ISchedulingRule lock, int state) {
+		Map row = (Map) lockThreads.get(owner);
+		Set column = (Set) locks.get(lock);
+		if (state == NO_STATE) {
+			row.remove(lock);
+			column.remove(owner);
+			return;
+		}
+		int[] entry = (int[]) row.get(lock);
+		if (entry == null) {
+			row.put(lock, new int[] {state});
+			column.add(owner);
+		} else {
+			entry[0] = state;
+		}
+	}
+
 	/**
 	 * The given thread is waiting for the given lock. Update the graph.
 	 */
@@ -669,14 +626,13 @@ class DeadlockDetector {
 		 */
 		if (!suspend && !(lock instanceof ILock))
 			needTransfer = true;
-		int lockIndex = indexOf(lock, !suspend);
-		int threadIndex = indexOf(owner, !suspend);
-		if (resize)
-			resizeGraph();
-
-		graph[threadIndex][lockIndex] = WAITING_FOR_LOCK;
+		if (!suspend) {
+			addLock(lock);
+			addThread(owner);
+		}
+		setState(owner, lock, WAITING_FOR_LOCK);
 		if (needTransfer)
-			fillPresentEntries(lock, lockIndex);
+			fillPresentEntries(lock);
 	}
 
 	/**
@@ -687,14 +643,15 @@ class DeadlockDetector {
 		StringWriter sWriter = new StringWriter();
 		PrintWriter out = new PrintWriter(sWriter, true);
 		out.println(" :: "); //$NON-NLS-1$
-		for (int j = 0; j < locks.size(); j++) {
-			out.print(" " + locks.get(j) + ','); //$NON-NLS-1$
+		for (Iterator it = locks.keySet().iterator(); it.hasNext();) {
+			out.print(" " + it.next() + ','); //$NON-NLS-1$
 		}
 		out.println();
-		for (int i = 0; i < graph.length; i++) {
-			out.print(" " + ((Thread) lockThreads.get(i)).getName() + " : "); //$NON-NLS-1$ //$NON-NLS-2$
-			for (int j = 0; j < graph[i].length; j++) {
-				out.print(" " + graph[i][j] + ','); //$NON-NLS-1$
+		for (Iterator i = lockThreads.keySet().iterator(); i.hasNext();) {
+			Thread owner = (Thread) i.next();
+			out.print(" " + owner.getName() + " : "); //$NON-NLS-1$ //$NON-NLS-2$
+			for (Iterator j = locks.keySet().iterator(); j.hasNext();) {
+				out.print(" " + getState(owner, (ISchedulingRule) j.next()) + ','); //$NON-NLS-1$
 			}
 			out.println();
 		}
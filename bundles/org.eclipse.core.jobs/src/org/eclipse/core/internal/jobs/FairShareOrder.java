@@ -0,0 +1,131 @@
+/*******************************************************************************
+ * Copyright (c) 2012 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.core.internal.jobs;
+
+import java.util.*;
+
+/**
+ * Orders the jobs of one priority so that the jobs of different tenants take
+ * turns. The tenant of a job is the first family it declares, or otherwise
+ * the class loader of the job, which in OSGi stands for the bundle that
+ * contributed the job.
+ * <p>
+ * Each tenant has a virtual time. A job that becomes due is queued at the
+ * virtual time of its tenant or at the time it became due, whichever is
+ * later, and the virtual time of the tenant then advances by a quantum
+ * divided by the weight of the tenant. A tenant that queues many jobs at
+ * once thus has them spread out over time, and the jobs of other tenants
+ * are queued in between. A tenant with twice the weight gets twice as many
+ * turns. A tenant is never queued further ahead of the current time than
+ * the gap between two priorities, so that a burst of jobs does not push the
+ * later jobs of the tenant behind the jobs of a lower priority.
+ * </p>
+ * Implementation note: this class is not thread safe. All access must be
+ * synchronized on the job manager lock.
+ */
+final class FairShareOrder extends QueueOrder {
+	/**
+	 * The time in milliseconds that the virtual time of a tenant of weight
+	 * one advances by for each job.
+	 */
+	static final long QUANTUM = 10;
+
+	/**
+	 * The number of virtual time units per millisecond. Virtual times are kept
+	 * in these finer units, so that tenants with a weight above the quantum
+	 * still advance.
+	 */
+	private static final long RESOLUTION = 1000;
+
+	/**
+	 * The time in milliseconds that the virtual time of a tenant may be ahead
+	 * of the current time. This is less than the smallest gap between the
+	 * delays of two priorities.
+	 */
+	private static final long MAX_LEAD = 49;
+
+	/**
+	 * The number of tenants above which tenants that have caught up with the
+	 * current time are forgotten.
+	 */
+	private static final int MAX_TENANTS = 256;
+
+	/**
+	 * The time in milliseconds between two passes that forget the tenants
+	 * that have caught up with the current time.
+	 */
+	private static final long EXPIRE_INTERVAL = 1000;
+
+	/**
+	 * The key for jobs whose class was loaded by the bootstrap class loader.
+	 */
+	private static final Object BOOT_TENANT = new Object();
+
+	/**
+	 * Maps tenant (Object) -> long[1] containing its virtual time, in units of
+	 * 1/RESOLUTION milliseconds. Tenants are held weakly, so that families and
+	 * class loaders that are no longer used can be collected.
+	 */
+	private final WeakHashMap virtualTimes = new WeakHashMap();
+
+	/**
+	 * The time of the last pass that forgot idle tenants.
+	 */
+	private long lastExpired = 0;
+
+	/**
+	 * Maps tenant (Object) -> Integer weight. Owned by the job manager.
+	 */
+	private final Map weights;
+
+	FairShareOrder(Map weights) {
+		super("fair"); //$NON-NLS-1$
+		this.weights = weights;
+	}
+
+	/**
+	 * Returns the tenant of the given job.
+	 */
+	static Object tenantOf(InternalJob job) {
+		Object[] families = job.internalGetFamilies();
+		if (families != null && families.length > 0)
+			return families[0];
+		ClassLoader loader = job.getClass().getClassLoader();
+		return loader == null ? BOOT_TENANT : loader;
+	}
+
+	/**
+	 * Forgets the tenants whose virtual time is not ahead of the given time,
+	 * because they would be queued at the time their next job becomes due anyway.
+	 */
+	private void expire(long now) {
+		lastExpired = now;
+		long time = now * RESOLUTION;
+		for (Iterator it = virtualTimes.values().iterator(); it.hasNext();)
+			if (((long[]) it.next())[0] <= time)
+				it.remove();
+	}
+
+	long getQueueTime(InternalJob job, long due) {
+		if (virtualTimes.size() >= MAX_TENANTS || due - lastExpired >= EXPIRE_INTERVAL)
+			expire(due);
+		Object tenant = tenantOf(job);
+		long[] virtualTime = (long[]) virtualTimes.get(tenant);
+		if (virtualTime == null) {
+			virtualTime = new long[] {due * RESOLUTION};
+			virtualTimes.put(tenant, virtualTime);
+		}
+		long time = Math.min(Math.max(due * RESOLUTION, virtualTime[0]), (due + MAX_LEAD) * RESOLUTION);
+		Integer weight = (Integer) weights.get(tenant);
+		virtualTime[0] = time + QUANTUM * RESOLUTION / (weight == null ? 1 : weight.intValue());
+		return time / RESOLUTION;
+	}
+}
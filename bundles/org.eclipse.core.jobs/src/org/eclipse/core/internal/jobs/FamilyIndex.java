@@ -0,0 +1,97 @@
+/*******************************************************************************
+ * Copyright (c) 2012 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.core.internal.jobs;
+
+import java.util.*;
+
+/**
+ * Indexes the jobs known to the job manager by the families they declare, so
+ * that finding the members of a family does not require asking every job.
+ * Jobs that do not declare their families are kept in a separate set, and are
+ * asked whether they belong to the family on every query.
+ *
+ * Implementation note: this class is not thread safe. All access must be
+ * synchronized on the job manager lock.
+ */
+class FamilyIndex {
+	/**
+	 * Maps family (Object) -> jobs that declared that family (LinkedHashSet).
+	 */
+	private final HashMap declared = new HashMap();
+
+	/**
+	 * The indexed jobs that do not declare their families.
+	 */
+	private final LinkedHashSet undeclared = new LinkedHashSet();
+
+	/**
+	 * Adds a job to the index.
+	 */
+	void add(InternalJob job) {
+		Object[] families = job.internalGetFamilies();
+		if (families == null) {
+			undeclared.add(job);
+			return;
+		}
+		for (int i = 0; i < families.length; i++) {
+			Set members = (Set) declared.get(families[i]);
+			if (members == null) {
+				members = new LinkedHashSet();
+				declared.put(families[i], members);
+			}
+			members.add(job);
+		}
+	}
+
+	/**
+	 * Removes all jobs from the index.
+	 */
+	void clear() {
+		declared.clear();
+		undeclared.clear();
+	}
+
+	/**
+	 * Removes a job from the index. Has no effect if the job is not indexed.
+	 */
+	void remove(InternalJob job) {
+		Object[] families = job.internalGetFamilies();
+		if (families == null) {
+			undeclared.remove(job);
+			return;
+		}
+		for (int i = 0; i < families.length; i++) {
+			Set members = (Set) declared.get(families[i]);
+			if (members != null && members.remove(job) && members.isEmpty())
+				declared.remove(families[i]);
+		}
+	}
+
+	/**
+	 * Adds the indexed jobs that belong to the given family and are in one of
+	 * the given states to the list. The family must not be null.
+	 */
+	void select(List members, Object family, int stateMask) {
+		Set jobs = (Set) declared.get(family);
+		if (jobs != null) {
+			for (Iterator it = jobs.iterator(); it.hasNext();) {
+				InternalJob job = (InternalJob) it.next();
+				if ((job.getState() & stateMask) != 0)
+					members.add(job);
+			}
+		}
+		for (Iterator it = undeclared.iterator(); it.hasNext();) {
+			InternalJob job = (InternalJob) it.next();
+			if ((job.getState() & stateMask) != 0 && job.belongsTo(family))
+				members.add(job);
+		}
+	}
+}
@@ -0,0 +1,184 @@
+/*******************************************************************************
+ * Copyright (c) 2012 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.core.internal.jobs;
+
+import java.io.*;
+import java.text.SimpleDateFormat;
+import java.util.*;
+import org.eclipse.core.runtime.jobs.Job;
+
+/**
+ * Reads a record written by the job manager flight recorder, and rebuilds the
+ * timeline of each job from it. Rule, lock and deadlock events are added to
+ * the timeline of the job that was running on the thread of the event, or to
+ * the timeline of job number -1 if no recorded job was running on the thread.
+ * When implicit jobs run nested in a job on the same thread, the events go to
+ * the outermost job.
+ * <p>
+ * This class can be run from the command line with the names of record files
+ * as arguments, to print the timelines of the jobs in each file.
+ * </p>
+ * @see JobManager#writeFlightRecord(OutputStream)
+ */
+public class FlightRecordDecoder {
+	/**
+	 * The job number of the timeline of events that happened outside of jobs.
+	 */
+	public static final int NO_JOB = -1;
+
+	private static final String[] KINDS = {null, "STATE", "RULE_BEGIN", "RULE_END", "LOCK_WAIT", "LOCK_WAIT_END", "DEADLOCK"}; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$ //$NON-NLS-6$
+
+	private int eventCount = 0;
+
+	/**
+	 * Maps job number (Integer) -> String name
+	 */
+	private final HashMap names = new HashMap();
+
+	/**
+	 * Maps job number (Integer) -> List of String entries, in the order of the
+	 * first event of each job.
+	 */
+	private final LinkedHashMap timelines = new LinkedHashMap();
+
+	public static void main(String[] args) throws IOException {
+		for (int i = 0; i < args.length; i++) {
+			InputStream in = new FileInputStream(args[i]);
+			try {
+				System.out.println(args[i]);
+				System.out.print(new FlightRecordDecoder(in));
+			} finally {
+				in.close();
+			}
+		}
+	}
+
+	/**
+	 * Reads the record in the given stream.
+	 * @exception IOException if the stream cannot be read or does not contain a record
+	 */
+	public FlightRecordDecoder(InputStream input) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(input));
+		if (in.readInt() != FlightRecorder.MAGIC)
+			throw new IOException("Not a job flight record"); //$NON-NLS-1$
+		short version = in.readShort();
+		if (version != FlightRecorder.VERSION)
+			throw new IOException("Unsupported job flight record version: " + version); //$NON-NLS-1$
+		int size = in.readInt();
+		long time = in.readLong();
+		//maps thread (Integer) -> List of the numbers of the jobs running on it, outermost first
+		HashMap runningOn = new HashMap();
+		SimpleDateFormat format = new SimpleDateFormat("HH:mm:ss.SSS"); //$NON-NLS-1$
+		StringBuffer entry = new StringBuffer();
+		for (int i = 0; i < size; i++) {
+			time += in.readInt();
+			Integer thread = new Integer(in.readInt());
+			int subject = in.readInt();
+			int code = in.readInt();
+			int kind = code >>> 16;
+			Integer job;
+			if (kind == FlightRecorder.STATE) {
+				job = new Integer(subject);
+			} else {
+				List running = (List) runningOn.get(thread);
+				job = running == null || running.isEmpty() ? new Integer(NO_JOB) : (Integer) running.get(0);
+			}
+			entry.setLength(0);
+			entry.append(format.format(new Date(time)));
+			entry.append(" [").append(Integer.toHexString(thread.intValue())).append("] "); //$NON-NLS-1$ //$NON-NLS-2$
+			entry.append(kind < KINDS.length ? KINDS[kind] : String.valueOf(kind));
+			if (kind == FlightRecorder.STATE) {
+				int newState = code & 0xFF;
+				entry.append(' ').append(JobManager.printState((code >> 8) & 0xFF));
+				entry.append(" -> ").append(JobManager.printState(newState)); //$NON-NLS-1$
+				//remember which jobs run on the thread of the event
+				List running = (List) runningOn.get(thread);
+				if (newState == Job.RUNNING) {
+					if (running == null)
+						runningOn.put(thread, running = new ArrayList(2));
+					running.add(job);
+				} else if (running != null) {
+					running.remove(job);
+				}
+			} else {
+				entry.append(' ').append(Integer.toHexString(subject));
+			}
+			getTimeline(job).add(entry.toString());
+			eventCount++;
+		}
+		//the names of the jobs follow the events
+		for (int i = in.readInt(); i > 0; i--) {
+			Integer job = new Integer(in.readInt());
+			names.put(job, in.readUTF());
+		}
+	}
+
+	/**
+	 * Returns the number of events in the record.
+	 */
+	public int getEventCount() {
+		return eventCount;
+	}
+
+	/**
+	 * Returns the numbers of the jobs in the record, in the order of their first event.
+	 */
+	public int[] getJobs() {
+		int[] result = new int[timelines.size()];
+		int i = 0;
+		for (Iterator it = timelines.keySet().iterator(); it.hasNext();)
+			result[i++] = ((Integer) it.next()).intValue();
+		return result;
+	}
+
+	/**
+	 * Returns the name of the job with the given number, or null if the record
+	 * does not contain it.
+	 */
+	public String getName(int job) {
+		return (String) names.get(new Integer(job));
+	}
+
+	/**
+	 * Returns the events of the job with the given number as readable entries,
+	 * in the order they happened.
+	 */
+	public String[] getTimeline(int job) {
+		List timeline = (List) timelines.get(new Integer(job));
+		return timeline == null ? new String[0] : (String[]) timeline.toArray(new String[timeline.size()]);
+	}
+
+	private List getTimeline(Integer job) {
+		List timeline = (List) timelines.get(job);
+		if (timeline == null) {
+			timeline = new ArrayList();
+			timelines.put(job, timeline);
+		}
+		return timeline;
+	}
+
+	public String toString() {
+		StringBuffer buffer = new StringBuffer();
+		for (Iterator it = timelines.entrySet().iterator(); it.hasNext();) {
+			Map.Entry timeline = (Map.Entry) it.next();
+			int job = ((Integer) timeline.getKey()).intValue();
+			String name = getName(job);
+			if (job == NO_JOB)
+				buffer.append("(no job)"); //$NON-NLS-1$
+			else
+				buffer.append(name == null ? "?" : name).append('(').append(job).append(')'); //$NON-NLS-1$
+			buffer.append('\n');
+			for (Iterator entries = ((List) timeline.getValue()).iterator(); entries.hasNext();)
+				buffer.append('\t').append(entries.next()).append('\n');
+		}
+		return buffer.toString();
+	}
+}
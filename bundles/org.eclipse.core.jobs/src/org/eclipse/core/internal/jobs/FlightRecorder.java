@@ -0,0 +1,188 @@
+/*******************************************************************************
+ * Copyright (c) 2012 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.core.internal.jobs;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Records the most recent job manager events in a fixed size ring buffer,
+ * so that the events leading up to a job storm or a hang can be inspected
+ * after the fact. Recording an event only stores a few numbers in preallocated
+ * arrays, so the recorder can be left on in production, unlike the debug
+ * options that print every event.
+ * <p>
+ * The recorded events are written with {@link #write(OutputStream)} and read
+ * back with {@link FlightRecordDecoder}. Threads are identified by their
+ * identity hash code, and rules and locks by the identity hash code of the
+ * rule. Each state transition keeps a reference to the name of its job in a
+ * preallocated array next to the events, and the names of the jobs that have
+ * events in the ring are written after the events.
+ * </p>
+ */
+final class FlightRecorder {
+	/**
+	 * Event kind of a job state transition. The job number is the subject.
+	 */
+	static final int STATE = 1;
+	/**
+	 * Event kind of a thread that begins a rule. The rule is the subject.
+	 */
+	static final int RULE_BEGIN = 2;
+	/**
+	 * Event kind of a thread that ends a rule. The rule is the subject.
+	 */
+	static final int RULE_END = 3;
+	/**
+	 * Event kind of a thread that starts to wait for a lock or rule.
+	 */
+	static final int LOCK_WAIT = 4;
+	/**
+	 * Event kind of a thread that stops waiting for a lock or rule.
+	 */
+	static final int LOCK_WAIT_END = 5;
+	/**
+	 * Event kind of a deadlock that was resolved by suspending the locks of
+	 * the thread that is the subject.
+	 */
+	static final int DEADLOCK = 6;
+
+	/**
+	 * Identifies the format of a written record.
+	 */
+	static final int MAGIC = 0x4A4F4246;
+	static final int VERSION = 2;
+
+	/**
+	 * The number of characters that job names are cut to in a written record.
+	 */
+	static final int MAX_NAME_LENGTH = 1024;
+
+	private final int mask;
+	private final long[] times;
+	private final int[] threads;
+	private final int[] subjects;
+	private final int[] codes;
+	/**
+	 * The name of the job of each state transition, or null for the other
+	 * events, so that the decoder can name the jobs.
+	 */
+	private final String[] names;
+
+	/**
+	 * The total number of recorded events.
+	 * @GuardedBy("this")
+	 */
+	private long count = 0;
+
+	/**
+	 * Creates a recorder that keeps the given number of most recent events,
+	 * rounded up to a power of two.
+	 */
+	FlightRecorder(int capacity) {
+		int size = 1;
+		while (size < capacity)
+			size <<= 1;
+		mask = size - 1;
+		times = new long[size];
+		threads = new int[size];
+		subjects = new int[size];
+		codes = new int[size];
+		names = new String[size];
+	}
+
+	/**
+	 * Returns the number of events that this recorder keeps.
+	 */
+	int getCapacity() {
+		return mask + 1;
+	}
+
+	/**
+	 * Records an event of the current thread.
+	 */
+	void record(int kind, Object subject) {
+		record(kind, System.identityHashCode(subject), 0, 0, null);
+	}
+
+	/**
+	 * Records a state transition of the given job on the current thread.
+	 */
+	void recordState(InternalJob job, int oldState, int newState) {
+		record(STATE, job.getJobNumber(), oldState, newState, job.getName());
+	}
+
+	private void record(int kind, int subject, int oldState, int newState, String name) {
+		int thread = System.identityHashCode(Thread.currentThread());
+		long now = System.currentTimeMillis();
+		synchronized (this) {
+			int slot = (int) count++ & mask;
+			times[slot] = now;
+			threads[slot] = thread;
+			subjects[slot] = subject;
+			codes[slot] = kind << 16 | (oldState & 0xFF) << 8 | (newState & 0xFF);
+			names[slot] = name;
+		}
+	}
+
+	/**
+	 * Writes the recorded events to the given stream, oldest first, followed by
+	 * the names of the jobs that the events refer to, as of their latest event.
+	 * Times are written as the difference to the previous event to keep the
+	 * record compact, and names are cut to {@link #MAX_NAME_LENGTH} characters.
+	 * The events are copied first, so recording goes on while they are written.
+	 */
+	void write(OutputStream output) throws IOException {
+		int size;
+		long[] copyTimes;
+		int[] copyThreads, copySubjects, copyCodes;
+		//maps job number (Integer) -> String name, in the order of the first event of each job
+		LinkedHashMap jobNames = new LinkedHashMap();
+		synchronized (this) {
+			size = (int) Math.min(count, mask + 1);
+			copyTimes = new long[size];
+			copyThreads = new int[size];
+			copySubjects = new int[size];
+			copyCodes = new int[size];
+			for (int i = 0; i < size; i++) {
+				int slot = (int) (count - size + i) & mask;
+				copyTimes[i] = times[slot];
+				copyThreads[i] = threads[slot];
+				copySubjects[i] = subjects[slot];
+				copyCodes[i] = codes[slot];
+				if (names[slot] != null)
+					jobNames.put(new Integer(copySubjects[i]), names[slot]);
+			}
+		}
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(output));
+		out.writeInt(MAGIC);
+		out.writeShort(VERSION);
+		out.writeInt(size);
+		long previous = size == 0 ? 0 : copyTimes[0];
+		out.writeLong(previous);
+		for (int i = 0; i < size; i++) {
+			//the clock may go backwards, so the difference is signed
+			out.writeInt((int) (copyTimes[i] - previous));
+			previous = copyTimes[i];
+			out.writeInt(copyThreads[i]);
+			out.writeInt(copySubjects[i]);
+			out.writeInt(copyCodes[i]);
+		}
+		out.writeInt(jobNames.size());
+		for (Iterator it = jobNames.entrySet().iterator(); it.hasNext();) {
+			Map.Entry entry = (Map.Entry) it.next();
+			String name = (String) entry.getValue();
+			out.writeInt(((Integer) entry.getKey()).intValue());
+			out.writeUTF(name.length() > MAX_NAME_LENGTH ? name.substring(0, MAX_NAME_LENGTH) : name);
+		}
+		out.flush();
+	}
+}
@@ -0,0 +1,149 @@
+/*******************************************************************************
+ * Copyright (c) 2012 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.core.internal.jobs;
+
+/**
+ * A histogram of durations in milliseconds. Bucket 0 counts durations of 0
+ * milliseconds, and bucket i > 0 counts durations from 2^(i-1) up to 2^i - 1
+ * milliseconds. The last bucket also counts all longer durations.
+ *
+ * Implementation note: recording is not thread safe. Histograms that are
+ * handed out to clients are copies that are never changed.
+ */
+public final class Histogram {
+	private static final int BUCKETS = 32;
+
+	private final long[] frequencies = new long[BUCKETS];
+	private long count;
+	private long total;
+	private long max;
+
+	Histogram() {
+		super();
+	}
+
+	/**
+	 * Creates a copy of the given histogram.
+	 */
+	Histogram(Histogram other) {
+		System.arraycopy(other.frequencies, 0, frequencies, 0, BUCKETS);
+		count = other.count;
+		total = other.total;
+		max = other.max;
+	}
+
+	/**
+	 * Adds the durations recorded by the given histogram to this histogram.
+	 */
+	void add(Histogram other) {
+		for (int i = 0; i < BUCKETS; i++)
+			frequencies[i] += other.frequencies[i];
+		count += other.count;
+		total += other.total;
+		max = Math.max(max, other.max);
+	}
+
+	/**
+	 * Returns the bucket that counts the given duration.
+	 */
+	static int bucketOf(long millis) {
+		int bucket = 0;
+		while (millis > 0 && bucket < BUCKETS - 1) {
+			millis >>>= 1;
+			bucket++;
+		}
+		return bucket;
+	}
+
+	/**
+	 * Returns the number of buckets in this histogram.
+	 */
+	public int getBucketCount() {
+		return BUCKETS;
+	}
+
+	/**
+	 * Returns the longest duration counted by the given bucket, or
+	 * Long.MAX_VALUE for the last bucket.
+	 */
+	public long getBucketLimit(int bucket) {
+		if (bucket >= BUCKETS - 1)
+			return Long.MAX_VALUE;
+		return (1L << bucket) - 1;
+	}
+
+	/**
+	 * Returns the number of recorded durations.
+	 */
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * Returns the number of recorded durations in the given bucket.
+	 */
+	public long getFrequency(int bucket) {
+		return frequencies[bucket];
+	}
+
+	/**
+	 * Returns the longest recorded duration.
+	 */
+	public long getMax() {
+		return max;
+	}
+
+	/**
+	 * Returns an upper bound of the given percentile (between 0 and 100) of
+	 * the recorded durations, or 0 if no durations were recorded.
+	 */
+	public long getPercentile(double percentile) {
+		long rank = (long) Math.ceil(count * percentile / 100);
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += frequencies[i];
+			if (seen >= rank && seen > 0)
+				return Math.min(getBucketLimit(i), max);
+		}
+		return max;
+	}
+
+	/**
+	 * Returns the sum of the recorded durations.
+	 */
+	public long getTotal() {
+		return total;
+	}
+
+	/**
+	 * Records a duration. Negative durations, which occur when the system
+	 * clock is set back, are recorded as 0.
+	 */
+	void record(long millis) {
+		if (millis < 0)
+			millis = 0;
+		frequencies[bucketOf(millis)]++;
+		count++;
+		total += millis;
+		if (millis > max)
+			max = millis;
+	}
+
+	public String toString() {
+		StringBuffer buf = new StringBuffer("Histogram(count="); //$NON-NLS-1$
+		buf.append(count);
+		buf.append(", total=").append(total); //$NON-NLS-1$
+		buf.append(", p50=").append(getPercentile(50)); //$NON-NLS-1$
+		buf.append(", p99=").append(getPercentile(99)); //$NON-NLS-1$
+		buf.append(", max=").append(max).append(')'); //$NON-NLS-1$
+		return buf.toString();
+	}
+}
@@ -1,5 +1,5 @@
 /*******************************************************************************
- *  Copyright (c) 2003, 2010 IBM Corporation and others.
+ *  Copyright (c) 2003, 2012 IBM Corporation and others.
  *  All rights reserved. This program and the accompanying materials
  *  are made available under the terms of the Eclipse Public License v1.0
  *  which accompanies this distribution, and is available at
@@ -20,6 +20,9 @@ import org.eclipse.core.runtime.jobs.Job;
  * Implicit jobs are jobs that are running by virtue of a JobManager.begin/end
  * pair. They act like normal jobs, except they are tied to an arbitrary thread
  * of the client's choosing, and they can be nested.
+ * 
+ * Each thread also finds its own thread job in a thread local, so that nested
+ * begin/end pairs and lookups of the current thread's job do not synchronize.
  * @ThreadSafe
  */
 class ImplicitJobs {
@@ -44,6 +47,14 @@ class ImplicitJobs {
 	 */
 	private final Map threadJobs = new HashMap(20);
 
+	/**
+	 * The ThreadJob of the current thread, if it is in threadJobs. Only set by
+	 * the thread itself while holding the lock on this object, so a thread
+	 * that has no value must still look in threadJobs, because another thread
+	 * may have transferred a rule to it.
+	 */
+	private final ThreadLocal currentThreadJob = new ThreadLocal();
+
 	ImplicitJobs(JobManager manager) {
 		this.manager = manager;
 	}
@@ -54,12 +65,18 @@ class ImplicitJobs {
 	void begin(ISchedulingRule rule, IProgressMonitor monitor, boolean suspend) {
 		if (JobManager.DEBUG_BEGIN_END)
 			JobManager.debug("Begin rule: " + rule); //$NON-NLS-1$
+		ThreadJob threadJob = (ThreadJob) currentThreadJob.get();
+		if (threadJob != null) {
+			//nested rule, just push on stack and return
+			threadJob.push(rule);
+			return;
+		}
 		final Thread currentThread = Thread.currentThread();
-		ThreadJob threadJob;
 		synchronized (this) {
 			threadJob = (ThreadJob) threadJobs.get(currentThread);
 			if (threadJob != null) {
-				//nested rule, just push on stack and return
+				//nested rule in a thread that a rule was transferred to
+				currentThreadJob.set(threadJob);
 				threadJob.push(rule);
 				return;
 			}
@@ -97,6 +114,7 @@ class ImplicitJobs {
 			//and release other rules while waiting.
 			synchronized (this) {
 				threadJobs.put(currentThread, threadJob);
+				currentThreadJob.set(threadJob);
 				if (suspend)
 					suspendedRules.add(rule);
 			}
@@ -106,13 +124,25 @@ class ImplicitJobs {
 	/* (Non-javadoc) 
 	 * @see IJobManager#endRule 
 	 */
-	synchronized void end(ISchedulingRule rule, boolean resume) {
+	void end(ISchedulingRule rule, boolean resume) {
 		if (JobManager.DEBUG_BEGIN_END)
 			JobManager.debug("End rule: " + rule); //$NON-NLS-1$
-		ThreadJob threadJob = (ThreadJob) threadJobs.get(Thread.currentThread());
-		if (threadJob == null)
-			Assert.isLegal(rule == null, "endRule without matching beginRule: " + rule); //$NON-NLS-1$
-		else if (threadJob.pop(rule)) {
+		ThreadJob threadJob = (ThreadJob) currentThreadJob.get();
+		//nested rule, just pop from the stack
+		if (threadJob != null && !threadJob.pop(rule))
+			return;
+		synchronized (this) {
+			if (threadJob == null) {
+				threadJob = (ThreadJob) threadJobs.get(Thread.currentThread());
+				if (threadJob == null) {
+					Assert.isLegal(rule == null, "endRule without matching beginRule: " + rule); //$NON-NLS-1$
+					return;
+				}
+				if (!threadJob.pop(rule)) {
+					currentThreadJob.set(threadJob);
+					return;
+				}
+			}
 			endThreadJob(threadJob, resume);
 		}
 	}
@@ -152,6 +182,7 @@ class ImplicitJobs {
 		Thread currentThread = Thread.currentThread();
 		//clean up when last rule scope exits
 		threadJobs.remove(currentThread);
+		currentThreadJob.set(null);
 		ISchedulingRule rule = threadJob.getRule();
 		if (resume && rule != null)
 			suspendedRules.remove(rule);
@@ -262,6 +293,7 @@ class ImplicitJobs {
 		Assert.isLegal(source.getRule() == rule, "transferred rule " + rule + " does not match beginRule: " + source.getRule()); //$NON-NLS-1$ //$NON-NLS-2$		// transfer the thread job without ending it
 		source.setThread(destinationThread);
 		threadJobs.remove(currentThread);
+		currentThreadJob.set(null);
 		threadJobs.put(destinationThread, source);
 		// transfer lock
 		if (source.acquireRule) {
@@ -291,8 +323,15 @@ class ImplicitJobs {
 		manager.enqueue(manager.waitingThreadJobs, threadJob);
 	}
 
-	synchronized ThreadJob getThreadJob(Thread thread) {
-		return (ThreadJob) threadJobs.get(thread);
+	ThreadJob getThreadJob(Thread thread) {
+		if (thread == Thread.currentThread()) {
+			ThreadJob threadJob = (ThreadJob) currentThreadJob.get();
+			if (threadJob != null)
+				return threadJob;
+		}
+		synchronized (this) {
+			return (ThreadJob) threadJobs.get(thread);
+		}
 	}
 
 }
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2003, 2011 IBM Corporation and others.
+ * Copyright (c) 2003, 2012 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -11,6 +11,7 @@
  *******************************************************************************/
 package org.eclipse.core.internal.jobs;
 
+import java.util.ArrayList;
 import java.util.Map;
 import org.eclipse.core.runtime.*;
 import org.eclipse.core.runtime.jobs.*;
@@ -43,6 +44,12 @@ public abstract class InternalJob extends PlatformObject implements Comparable {
 	 * From an API point of view, this is the same as WAITING.
 	 */
 	static final int YIELDING = 0x40;
+	/** 
+	 * Job state code (value 128) indicating that a job is scheduled, but is
+	 * waiting for its predecessors to finish before it joins the wait queue.
+	 * From an API point of view, this is the same as WAITING.
+	 */
+	static final int PENDING = 0x80;
 
 	//flag mask bits
 	private static final int M_STATE = 0xFF;
@@ -101,6 +108,27 @@ public abstract class InternalJob extends PlatformObject implements Comparable {
 	 * client thread. 
 	 */
 	private volatile IStatus result;
+	/**
+	 * The coalescing window and maximum latency of this job in milliseconds.
+	 * The window is zero if this job does not coalesce schedule requests.
+	 * @GuardedBy("manager.lock")
+	 */
+	private long coalescingWindow, coalescingLatency;
+	/**
+	 * If this job coalesces schedule requests and is sleeping, the latest time
+	 * its start may be postponed to.
+	 * @GuardedBy("manager.lock")
+	 */
+	private long coalescingDeadline;
+	/**
+	 * The number of schedule requests that were merged into an earlier request.
+	 */
+	private volatile int coalescedCount = 0;
+	/**
+	 * The families this job declared, or null if it did not declare them.
+	 * @GuardedBy("manager.lock")
+	 */
+	private Object[] families;
 	/**
 	 * @GuardedBy("manager.lock")
 	 */
@@ -122,6 +150,84 @@ public abstract class InternalJob extends PlatformObject implements Comparable {
 	 */
 	private long waitQueueStamp = T_NONE;
 
+	/**
+	 * The time in milliseconds after it is due by which this job should start,
+	 * or zero if this job has no deadline.
+	 * @GuardedBy("manager.lock")
+	 */
+	private long deadline = 0;
+
+	/**
+	 * The time by which this job should start, set when it joins the wait
+	 * queue, or T_NONE if it has no deadline.
+	 * @GuardedBy("manager.lock")
+	 */
+	private long deadlineTime = T_NONE;
+
+	/**
+	 * The time by which this job started after its deadline, which is
+	 * negative if it started before. T_NONE if the job has no deadline or
+	 * has not started.
+	 * @GuardedBy("manager.lock")
+	 */
+	private long lateness = T_NONE;
+
+	/**
+	 * The position of this job in a heap backed job queue or in the timing
+	 * wheel of sleeping jobs, or -1 if this job does not belong to either.
+	 * @GuardedBy("manager.lock")
+	 */
+	private int queueIndex = -1;
+
+	/**
+	 * The time this job spent waiting, blocked and running since it was last
+	 * scheduled, and the time of its last state change. Recorded in
+	 * JobManager#changeState for the job statistics.
+	 * @GuardedBy("manager.lock")
+	 */
+	private long queueTime, blockedTime, runTime, stateStamp;
+
+	/**
+	 * The CPU time in nanoseconds and the number of bytes that this job used
+	 * while running since it was last scheduled, or -1 if a run could not be
+	 * measured. Added by the worker running the job, and otherwise guarded by
+	 * the manager lock.
+	 */
+	private long cpuTime, allocatedBytes;
+
+	/**
+	 * The group this job belongs to, or null.
+	 * @GuardedBy("manager.lock")
+	 */
+	private InternalJobGroup group;
+
+	/**
+	 * The jobs this job must wait for when it is scheduled, or null if it has
+	 * no predecessors.
+	 * @GuardedBy("manager.lock")
+	 */
+	private InternalJob[] predecessors;
+
+	/**
+	 * The jobs that are pending until this job is done, or null if there are
+	 * none.
+	 * @GuardedBy("manager.lock")
+	 */
+	private ArrayList dependents;
+
+	/**
+	 * If this job is pending, the number of its predecessors that are not done.
+	 * @GuardedBy("manager.lock")
+	 */
+	private int pendingCount;
+
+	/**
+	 * The future of the current or next run of this job, or null if no
+	 * future was requested for it.
+	 * @GuardedBy("manager.lock")
+	 */
+	private JobFuture future;
+
 	/*
 	 * The thread that is currently running this job
 	 */
@@ -144,6 +250,13 @@ public abstract class InternalJob extends PlatformObject implements Comparable {
 		return nextJobNumber++;
 	}
 
+	/**
+	 * Returns the number that identifies this job in debug output.
+	 */
+	final int getJobNumber() {
+		return jobNumber;
+	}
+
 	protected InternalJob(String name) {
 		Assert.isNotNull(name);
 		this.name = name;
@@ -177,6 +290,12 @@ public abstract class InternalJob extends PlatformObject implements Comparable {
 	 * @see Job#belongsTo(Object)
 	 */
 	protected boolean belongsTo(Object family) {
+		Object[] declared = families;
+		if (declared == null || family == null)
+			return false;
+		for (int i = 0; i < declared.length; i++)
+			if (declared[i].equals(family))
+				return true;
 		return false;
 	}
 
@@ -248,6 +367,34 @@ public abstract class InternalJob extends PlatformObject implements Comparable {
 		return temp.get(key);
 	}
 
+	/* (non-Javadoc)
+	 * @see Job#getFuture()
+	 */
+	protected IJobFuture getFuture() {
+		return manager.getFuture(this, false);
+	}
+
+	/* (non-Javadoc)
+	 * @see Job#getDeadline()
+	 */
+	protected long getDeadline() {
+		return deadline;
+	}
+
+	/* (non-Javadoc)
+	 * @see Job#getJobGroup()
+	 */
+	protected JobGroup getJobGroup() {
+		return (JobGroup) group;
+	}
+
+	/* (non-Javadoc)
+	 * @see Job#getPredecessors()
+	 */
+	protected Job[] getPredecessors() {
+		return manager.getPredecessors(this);
+	}
+
 	/* (non-Javadoc)
 	 * @see Job#getResult
 	 */
@@ -255,6 +402,46 @@ public abstract class InternalJob extends PlatformObject implements Comparable {
 		return result;
 	}
 
+	/* (non-Javadoc)
+	 * @see Job#getCoalescedCount()
+	 */
+	protected int getCoalescedCount() {
+		return coalescedCount;
+	}
+
+	/**
+	 * Returns the latest time the start of this sleeping job may be postponed to.
+	 * @GuardedBy("manager.lock")
+	 */
+	final long getCoalescingDeadline() {
+		return coalescingDeadline;
+	}
+
+	/**
+	 * Returns the maximum latency of this coalescing job.
+	 * @GuardedBy("manager.lock")
+	 */
+	final long getCoalescingLatency() {
+		return coalescingLatency;
+	}
+
+	/**
+	 * Returns the coalescing window of this job, or zero if this job does
+	 * not coalesce schedule requests.
+	 * @GuardedBy("manager.lock")
+	 */
+	final long getCoalescingWindow() {
+		return coalescingWindow;
+	}
+
+	/* (non-Javadoc)
+	 * @see Job#getFamilies()
+	 */
+	protected Object[] getFamilies() {
+		Object[] declared = families;
+		return declared == null ? null : (Object[]) declared.clone();
+	}
+
 	/* (non-Javadoc)
 	 * @see Job#getRule
 	 */
@@ -284,6 +471,7 @@ public abstract class InternalJob extends PlatformObject implements Comparable {
 			case ABOUT_TO_RUN :
 				return Job.RUNNING;
 			case ABOUT_TO_SCHEDULE :
+			case PENDING :
 				return Job.WAITING;
 			default :
 				return state;
@@ -304,6 +492,132 @@ public abstract class InternalJob extends PlatformObject implements Comparable {
 		return flags & M_STATE;
 	}
 
+	/**
+	 * Adds a job that is pending until this job is done.
+	 * @GuardedBy("manager.lock")
+	 */
+	final void internalAddDependent(InternalJob dependent) {
+		if (dependents == null)
+			dependents = new ArrayList(2);
+		dependents.add(dependent);
+	}
+
+	/**
+	 * Removes a job that no longer waits for this job.
+	 * @GuardedBy("manager.lock")
+	 */
+	final void internalRemoveDependent(InternalJob dependent) {
+		if (dependents != null)
+			dependents.remove(dependent);
+	}
+
+	/**
+	 * Returns and forgets the jobs that are pending until this job is done,
+	 * or returns null if there are none.
+	 * @GuardedBy("manager.lock")
+	 */
+	final ArrayList internalTakeDependents() {
+		ArrayList result = dependents;
+		dependents = null;
+		return result;
+	}
+
+	/**
+	 * Must be called from JobManager#setDeadline
+	 */
+	final void internalSetDeadline(long deadline) {
+		this.deadline = deadline;
+	}
+
+	/**
+	 * @GuardedBy("manager.lock")
+	 */
+	final long getDeadlineTime() {
+		return deadlineTime;
+	}
+
+	/**
+	 * @GuardedBy("manager.lock")
+	 */
+	final void setDeadlineTime(long time) {
+		this.deadlineTime = time;
+	}
+
+	/**
+	 * Returns the time by which this job started after its deadline, or
+	 * T_NONE. Negative if the job started before its deadline.
+	 * @GuardedBy("manager.lock")
+	 */
+	final long getLateness() {
+		return lateness;
+	}
+
+	/**
+	 * @GuardedBy("manager.lock")
+	 */
+	final void setLateness(long lateness) {
+		this.lateness = lateness;
+	}
+
+	/**
+	 * Returns the group of this job, or null.
+	 */
+	final InternalJobGroup internalGetGroup() {
+		return group;
+	}
+
+	/**
+	 * Must be called from JobManager#setJobGroup
+	 */
+	final void internalSetGroup(InternalJobGroup group) {
+		this.group = group;
+	}
+
+	/**
+	 * Returns the predecessors of this job, or null. The returned array must
+	 * not be modified.
+	 */
+	final InternalJob[] internalGetPredecessors() {
+		return predecessors;
+	}
+
+	/**
+	 * Must be called from JobManager#setPredecessors
+	 */
+	final void internalSetPredecessors(InternalJob[] predecessors) {
+		this.predecessors = predecessors;
+	}
+
+	/**
+	 * Returns the number of predecessors this pending job waits for.
+	 * @GuardedBy("manager.lock")
+	 */
+	final int getPendingCount() {
+		return pendingCount;
+	}
+
+	/**
+	 * @GuardedBy("manager.lock")
+	 */
+	final void setPendingCount(int count) {
+		this.pendingCount = count;
+	}
+
+	/**
+	 * Returns the future of the current or next run of this job, or null.
+	 * @GuardedBy("manager.lock")
+	 */
+	final JobFuture internalGetFuture() {
+		return future;
+	}
+
+	/**
+	 * Must be called from JobManager#getFuture and JobManager#endJob
+	 */
+	final void internalSetFuture(JobFuture future) {
+		this.future = future;
+	}
+
 	/**
 	 * Must be called from JobManager#setPriority
 	 */
@@ -311,6 +625,37 @@ public abstract class InternalJob extends PlatformObject implements Comparable {
 		this.priority = newPriority;
 	}
 
+	/**
+	 * Records that a schedule request was merged into an earlier request.
+	 * @GuardedBy("manager.lock")
+	 */
+	final void internalAddCoalesced() {
+		coalescedCount++;
+	}
+
+	/**
+	 * Must be called from JobManager#setCoalescing
+	 */
+	final void internalSetCoalescing(long window, long maxLatency) {
+		this.coalescingWindow = window;
+		this.coalescingLatency = maxLatency;
+	}
+
+	/**
+	 * Returns the families this job declared, or null. The returned array
+	 * must not be modified.
+	 */
+	final Object[] internalGetFamilies() {
+		return families;
+	}
+
+	/**
+	 * Must be called from JobManager#setFamilies
+	 */
+	final void internalSetFamilies(Object[] families) {
+		this.families = families;
+	}
+
 	/**
 	 * Must be called from JobManager#setRule
 	 */
@@ -547,6 +892,49 @@ public abstract class InternalJob extends PlatformObject implements Comparable {
 		manager.setRule(this, rule);
 	}
 
+	/* (non-Javadoc)
+	 * @see Job#setCoalescing(long, long)
+	 */
+	protected void setCoalescing(long window, long maxLatency) {
+		manager.setCoalescing(this, window, maxLatency);
+	}
+
+	/**
+	 * Sets the latest time the start of this sleeping job may be postponed to.
+	 * @GuardedBy("manager.lock")
+	 */
+	final void setCoalescingDeadline(long deadline) {
+		this.coalescingDeadline = deadline;
+	}
+
+	/* (non-Javadoc)
+	 * @see Job#setFamilies(Object[])
+	 */
+	protected void setFamilies(Object[] families) {
+		manager.setFamilies(this, families);
+	}
+
+	/* (non-Javadoc)
+	 * @see Job#setDeadline(long)
+	 */
+	protected void setDeadline(long deadline) {
+		manager.setDeadline(this, deadline);
+	}
+
+	/* (non-Javadoc)
+	 * @see Job#setJobGroup(JobGroup)
+	 */
+	protected void setJobGroup(JobGroup group) {
+		manager.setJobGroup(this, group);
+	}
+
+	/* (non-Javadoc)
+	 * @see Job#setPredecessors(Job[])
+	 */
+	protected void setPredecessors(Job[] jobs) {
+		manager.setPredecessors(this, jobs);
+	}
+
 	/**
 	 * Sets a time to start, wake up, or schedule this job, 
 	 * depending on the current state
@@ -570,6 +958,14 @@ public abstract class InternalJob extends PlatformObject implements Comparable {
 	 * @see Job.setThread
 	 */
 	protected void setThread(Thread thread) {
+		manager.setThread(this, thread);
+	}
+
+	/**
+	 * Sets the thread field only. Called by the job manager, which keeps its
+	 * map of running threads in step.
+	 */
+	final void internalSetThread(Thread thread) {
 		this.thread = thread;
 	}
 
@@ -633,4 +1029,101 @@ public abstract class InternalJob extends PlatformObject implements Comparable {
 	long getWaitQueueStamp() {
 		return waitQueueStamp;
 	}
+
+	/**
+	 * Sets the position of this job in a heap backed job queue.
+	 * @GuardedBy("manager.lock")
+	 */
+	final void setQueueIndex(int queueIndex) {
+		this.queueIndex = queueIndex;
+	}
+
+	/**
+	 * Adds the CPU time in nanoseconds and the number of bytes used by a run
+	 * of this job. Resources that could not be measured are given as -1, and
+	 * make the total unavailable. Only called by the thread running this job.
+	 */
+	final void addResourceUsage(long cpu, long allocated) {
+		cpuTime = cpu < 0 || cpuTime < 0 ? -1 : cpuTime + cpu;
+		allocatedBytes = allocated < 0 || allocatedBytes < 0 ? -1 : allocatedBytes + allocated;
+	}
+
+	/**
+	 * Charges the time since the last state change to the state this job is
+	 * leaving, and starts timing the state it is entering. The times are reset
+	 * when the job leaves the NONE or ABOUT_TO_SCHEDULE state.
+	 * @GuardedBy("manager.lock")
+	 */
+	final void addStateTime(int oldState, long now) {
+		long elapsed = now - stateStamp;
+		stateStamp = now;
+		switch (oldState) {
+			case Job.NONE :
+			case ABOUT_TO_SCHEDULE :
+				queueTime = blockedTime = runTime = 0;
+				cpuTime = allocatedBytes = 0;
+				break;
+			case Job.WAITING :
+				queueTime += elapsed;
+				break;
+			case BLOCKED :
+			case YIELDING :
+				blockedTime += elapsed;
+				break;
+			case Job.RUNNING :
+				runTime += elapsed;
+				break;
+		}
+	}
+
+	/**
+	 * Returns the number of bytes this job allocated while running since it
+	 * was last scheduled, or -1 if it could not be measured.
+	 * @GuardedBy("manager.lock")
+	 */
+	final long getAllocatedBytes() {
+		return allocatedBytes;
+	}
+
+	/**
+	 * Returns the time this job spent blocked or yielding since it was last scheduled.
+	 * @GuardedBy("manager.lock")
+	 */
+	final long getBlockedTime() {
+		return blockedTime;
+	}
+
+	/**
+	 * Returns the CPU time in nanoseconds this job used while running since it
+	 * was last scheduled, or -1 if it could not be measured.
+	 * @GuardedBy("manager.lock")
+	 */
+	final long getCpuTime() {
+		return cpuTime;
+	}
+
+	/**
+	 * Returns the time this job spent in the wait queue since it was last scheduled.
+	 * @GuardedBy("manager.lock")
+	 */
+	final long getQueueTime() {
+		return queueTime;
+	}
+
+	/**
+	 * Returns the time this job spent running since it was last scheduled.
+	 * @GuardedBy("manager.lock")
+	 */
+	final long getRunTime() {
+		return runTime;
+	}
+
+	/**
+	 * Returns the position of this job in a heap backed job queue, or -1 if
+	 * this job does not belong to such a queue.
+	 * @GuardedBy("manager.lock")
+	 */
+	final int getQueueIndex() {
+		return queueIndex;
+	}
 }
@@ -0,0 +1,186 @@
+/*******************************************************************************
+ * Copyright (c) 2012 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.core.internal.jobs;
+
+import java.util.*;
+import org.eclipse.core.runtime.Assert;
+import org.eclipse.core.runtime.jobs.IJobFuture;
+import org.eclipse.core.runtime.jobs.Job;
+
+/**
+ * Internal implementation class for job groups. Clients must not use this class
+ * directly.  All job groups must be instances of the API <code>org.eclipse.core.runtime.jobs.JobGroup</code> class.
+ */
+public abstract class InternalJobGroup {
+	protected static final JobManager manager = JobManager.getInstance();
+
+	private final String name;
+	private final int maxThreads;
+
+	/**
+	 * The members of this group that are waiting, sleeping or running.
+	 * Should only be modified from JobManager#changeState
+	 * @GuardedBy("manager.lock")
+	 */
+	private final Set members = new LinkedHashSet();
+
+	/**
+	 * The number of members of this group that are running, about to run or
+	 * yielding. A yielding member keeps its place, so that it can always resume.
+	 * Should only be modified from JobManager#changeState
+	 * @GuardedBy("manager.lock")
+	 */
+	private int activeCount = 0;
+
+	/**
+	 * The waiting members of this group that are held back because the group
+	 * already runs as many members as it may, in the order they were held.
+	 * @GuardedBy("manager.lock")
+	 */
+	private final Set held = new LinkedHashSet();
+
+	/**
+	 * The number of runs of members of this group that are done.
+	 */
+	private volatile int doneCount = 0;
+
+	protected InternalJobGroup(String name, int maxThreads) {
+		Assert.isNotNull(name);
+		Assert.isLegal(maxThreads > 0, "Maximum number of threads is not positive"); //$NON-NLS-1$
+		this.name = name;
+		this.maxThreads = maxThreads;
+	}
+
+	/* (non-Javadoc)
+	 * @see JobGroup#cancel()
+	 */
+	protected void cancel() {
+		manager.cancelGroup(this);
+	}
+
+	/* (non-Javadoc)
+	 * @see JobGroup#getActiveJobs()
+	 */
+	protected Job[] getActiveJobs() {
+		return manager.getGroupJobs(this);
+	}
+
+	/* (non-Javadoc)
+	 * @see JobGroup#getDoneCount()
+	 */
+	protected int getDoneCount() {
+		return doneCount;
+	}
+
+	/* (non-Javadoc)
+	 * @see JobGroup#getFuture()
+	 */
+	protected IJobFuture getFuture() {
+		return manager.getGroupFuture(this);
+	}
+
+	/* (non-Javadoc)
+	 * @see JobGroup#getMaxThreads()
+	 */
+	protected int getMaxThreads() {
+		return maxThreads;
+	}
+
+	/* (non-Javadoc)
+	 * @see JobGroup#getName()
+	 */
+	protected String getName() {
+		return name;
+	}
+
+	/**
+	 * Must be called from JobManager#changeState
+	 */
+	final void internalAddMember(InternalJob job) {
+		members.add(job);
+	}
+
+	/**
+	 * Must be called from JobManager#changeState
+	 */
+	final void internalRemoveMember(InternalJob job) {
+		members.remove(job);
+		doneCount++;
+	}
+
+	/**
+	 * Must be called from JobManager#changeState
+	 */
+	final void internalSetActive(boolean active) {
+		if (active)
+			activeCount++;
+		else
+			activeCount--;
+	}
+
+	/**
+	 * Returns whether this group already runs as many members as it may.
+	 * @GuardedBy("manager.lock")
+	 */
+	final boolean internalIsFull() {
+		return activeCount >= maxThreads;
+	}
+
+	/**
+	 * Returns the number of members this group may run in addition to the
+	 * members it already runs.
+	 * @GuardedBy("manager.lock")
+	 */
+	final int internalFreeThreads() {
+		return maxThreads - activeCount;
+	}
+
+	/**
+	 * Holds back a member of this group until one of the active members stops.
+	 * @GuardedBy("manager.lock")
+	 */
+	final void internalHold(InternalJob job) {
+		held.add(job);
+	}
+
+	/**
+	 * Must be called from JobManager#changeState
+	 */
+	final void internalRelease(InternalJob job) {
+		held.remove(job);
+	}
+
+	/**
+	 * Removes and returns the member of this group that was held back first,
+	 * or null if no member is held back.
+	 * @GuardedBy("manager.lock")
+	 */
+	final InternalJob internalNextHeld() {
+		if (held.isEmpty())
+			return null;
+		Iterator it = held.iterator();
+		InternalJob job = (InternalJob) it.next();
+		it.remove();
+		return job;
+	}
+
+	/**
+	 * Returns the members of this group that are waiting, sleeping or running.
+	 * @GuardedBy("manager.lock")
+	 */
+	final Set internalGetMembers() {
+		return members;
+	}
+
+	public String toString() {
+		return getName() + '(' + maxThreads + ')';
+	}
+}
@@ -0,0 +1,159 @@
+/*******************************************************************************
+ * Copyright (c) 2012 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.core.internal.jobs;
+
+import java.util.ArrayList;
+import org.eclipse.core.internal.runtime.RuntimeLog;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.IJobFuture;
+import org.eclipse.core.runtime.jobs.Job;
+import org.eclipse.osgi.util.NLS;
+
+/**
+ * The future of a single run of a job, or of a family of jobs. Job futures
+ * are created and completed by the job manager, see JobManager#getFuture.
+ * Callbacks run in the thread that completes the future, outside of any
+ * locks held by the job manager. An exception thrown by a callback is logged,
+ * and does not keep the other callbacks from running.
+ */
+class JobFuture implements IJobFuture {
+	/**
+	 * @GuardedBy("this")
+	 */
+	private boolean done = false;
+
+	/**
+	 * The runnables to run when this future completes, or null if there are none.
+	 * @GuardedBy("this")
+	 */
+	private ArrayList callbacks = null;
+
+	private volatile IStatus result;
+
+	/**
+	 * Runs the given runnable once this future is done. If this future is
+	 * already done, the runnable is run immediately in the calling thread.
+	 */
+	void addCallback(Runnable callback) {
+		synchronized (this) {
+			if (!done) {
+				if (callbacks == null)
+					callbacks = new ArrayList(2);
+				callbacks.add(callback);
+				return;
+			}
+		}
+		callback.run();
+	}
+
+	/**
+	 * Completes this future with the given result, wakes up waiting threads
+	 * and runs the callbacks. Has no effect if this future is already done.
+	 * Exceptions thrown by the callbacks are logged, because the completing
+	 * thread is usually a worker that is ending a job.
+	 */
+	void complete(IStatus status) {
+		ArrayList toRun;
+		synchronized (this) {
+			if (done)
+				return;
+			result = status;
+			done = true;
+			toRun = callbacks;
+			callbacks = null;
+			notifyAll();
+		}
+		if (toRun == null)
+			return;
+		for (int i = 0, size = toRun.size(); i < size; i++) {
+			try {
+				((Runnable) toRun.get(i)).run();
+			} catch (Exception e) {
+				handleException(e);
+			} catch (LinkageError e) {
+				handleException(e);
+			}
+		}
+	}
+
+	private void handleException(Throwable e) {
+		String message = NLS.bind(JobMessages.meta_pluginProblems, JobManager.PI_JOBS);
+		RuntimeLog.log(new Status(IStatus.ERROR, JobManager.PI_JOBS, JobManager.PLUGIN_ERROR, message, e));
+	}
+
+	/* (non-Javadoc)
+	 * @see IJobFuture#getResult()
+	 */
+	public IStatus getResult() {
+		return result;
+	}
+
+	/* (non-Javadoc)
+	 * @see IJobFuture#isDone()
+	 */
+	public synchronized boolean isDone() {
+		return done;
+	}
+
+	/* (non-Javadoc)
+	 * @see IJobFuture#join(long)
+	 */
+	public IStatus join(long timeout) throws InterruptedException {
+		synchronized (this) {
+			if (done || timeout <= 0)
+				return result;
+		}
+		LockManager lockManager = JobManager.getInstance().getLockManager();
+		//notify hook to service pending syncExecs before falling asleep
+		lockManager.aboutToWait(null);
+		try {
+			long deadline = System.currentTimeMillis() + timeout;
+			synchronized (this) {
+				while (!done) {
+					long remaining = deadline - System.currentTimeMillis();
+					if (remaining <= 0)
+						break;
+					wait(remaining);
+				}
+				return result;
+			}
+		} finally {
+			lockManager.aboutToRelease();
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see IJobFuture#then(Job)
+	 */
+	public IJobFuture then(final Job job) {
+		final JobManager manager = JobManager.getInstance();
+		final JobFuture next = manager.getFuture(job, true);
+		addCallback(new Runnable() {
+			public void run() {
+				try {
+					job.schedule();
+				} catch (IllegalStateException e) {
+					//the job manager has been shut down
+				} finally {
+					//the job may have refused to be scheduled, or failed to
+					manager.cancelUnscheduled(job, next);
+				}
+			}
+		});
+		return next;
+	}
+
+	public String toString() {
+		IStatus status = result;
+		return "JobFuture(" + (status == null ? (isDone() ? "done" : "pending") : status.toString()) + ')'; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+	}
+}
@@ -0,0 +1,309 @@
+/*******************************************************************************
+ * Copyright (c) 2012 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.core.internal.jobs;
+
+import java.util.*;
+import org.eclipse.core.runtime.Assert;
+
+/**
+ * A binary heap of jobs, used by heap backed job queues. Enqueue, remove and
+ * resort take logarithmic time, instead of the linear walk of the linked list.
+ * <p>
+ * Jobs are ordered by start time, then by wait queue stamp, then by insertion
+ * order. Because a job keeps its start time and stamp while it is blocked, a
+ * job that re-enters the queue is put back in the position it had before
+ * (bug 211799). If the queue does not allow priority overtaking, the most
+ * recently added job comes first, as in the linked list.
+ * </p><p>
+ * If the queue does not allow conflict overtaking, a job is put directly behind
+ * the last queued job it conflicts with, if that job would otherwise be behind it.
+ * Jobs put behind the same job are ordered among themselves by their own key, so
+ * they keep the priority order (or, without priorities, the most recent first) of
+ * the linked list. A job put behind a job that is itself behind another one comes
+ * after it in insertion order. Finding that job requires a scan over the queued jobs that have a scheduling
+ * rule, so jobs without rules are the cheapest to queue.
+ * </p>
+ * Implementation note: this class is not thread safe. All access must be
+ * synchronized on the job manager lock.
+ */
+final class JobHeap {
+	/**
+	 * A queued job together with its sort key. The key is computed when the
+	 * job is added, and does not change while the job is in the heap.
+	 */
+	private static final class Entry {
+		final InternalJob job;
+		long time;
+		long stamp;
+		long sequence;
+		/**
+		 * Whether this job was put behind a conflicting job whose key it copies.
+		 */
+		boolean behind;
+		/**
+		 * The key of the job itself, used to order the jobs that are behind
+		 * the same job.
+		 */
+		long ownTime;
+		long ownStamp;
+		long ownSequence;
+		/**
+		 * Zero, or the insertion order of a job that was put behind a job that
+		 * is itself behind another one, and copies its whole key.
+		 */
+		long after;
+		/**
+		 * Position of this entry in the list of entries with a rule, or -1.
+		 */
+		int ruledIndex = -1;
+
+		Entry(InternalJob job) {
+			this.job = job;
+		}
+	}
+
+	private static final Comparator ORDER = new Comparator() {
+		public int compare(Object o1, Object o2) {
+			return JobHeap.compare((Entry) o1, (Entry) o2);
+		}
+	};
+
+	private final boolean allowConflictOvertaking;
+	private final boolean allowPriorityOvertaking;
+
+	private Entry[] entries = new Entry[16];
+	private int size = 0;
+
+	/**
+	 * The queued entries whose job has a scheduling rule. Only maintained if
+	 * conflicting jobs may not overtake each other.
+	 */
+	private Entry[] ruled = new Entry[8];
+	private int ruledSize = 0;
+
+	/**
+	 * Counter to record insertion order.
+	 */
+	private long sequence = 0;
+
+	JobHeap(boolean allowConflictOvertaking, boolean allowPriorityOvertaking) {
+		this.allowConflictOvertaking = allowConflictOvertaking;
+		this.allowPriorityOvertaking = allowPriorityOvertaking;
+	}
+
+	static int compare(Entry e1, Entry e2) {
+		if (e1.time != e2.time)
+			return e1.time < e2.time ? -1 : 1;
+		if (e1.stamp != e2.stamp)
+			return e1.stamp < e2.stamp ? -1 : 1;
+		if (e1.sequence != e2.sequence)
+			return e1.sequence < e2.sequence ? -1 : 1;
+		if (e1.behind != e2.behind)
+			return e1.behind ? 1 : -1;
+		if (e1.ownTime != e2.ownTime)
+			return e1.ownTime < e2.ownTime ? -1 : 1;
+		if (e1.ownStamp != e2.ownStamp)
+			return e1.ownStamp < e2.ownStamp ? -1 : 1;
+		if (e1.ownSequence != e2.ownSequence)
+			return e1.ownSequence < e2.ownSequence ? -1 : 1;
+		if (e1.after != e2.after)
+			return e1.after < e2.after ? -1 : 1;
+		return 0;
+	}
+
+	void clear() {
+		for (int i = 0; i < size; i++) {
+			entries[i].job.setQueueIndex(-1);
+			entries[i] = null;
+		}
+		size = 0;
+		for (int i = 0; i < ruledSize; i++)
+			ruled[i] = null;
+		ruledSize = 0;
+	}
+
+	InternalJob dequeue() {
+		if (size == 0)
+			return null;
+		InternalJob job = entries[0].job;
+		remove(job);
+		return job;
+	}
+
+	void enqueue(InternalJob job) {
+		//assert new entry does not already belong to some other data structure
+		Assert.isTrue(job.getQueueIndex() == -1);
+		Entry entry = new Entry(job);
+		long order = ++sequence;
+		if (allowPriorityOvertaking) {
+			entry.time = job.getStartTime();
+			long stamp = job.getWaitQueueStamp();
+			//jobs that never were in the wait queue come after those that were
+			entry.stamp = stamp > 0 ? stamp : Long.MAX_VALUE;
+			entry.sequence = order;
+		} else {
+			//without priorities, a new job overtakes every job it does not conflict with
+			entry.time = Long.MIN_VALUE;
+			entry.sequence = -order;
+		}
+		if (!allowConflictOvertaking && job.getRule() != null) {
+			Entry last = findLastConflicting(entry);
+			if (last != null && compare(last, entry) > 0) {
+				if (last.behind) {
+					entry.ownTime = last.ownTime;
+					entry.ownStamp = last.ownStamp;
+					entry.ownSequence = last.ownSequence;
+					entry.after = order;
+				} else {
+					entry.ownTime = entry.time;
+					entry.ownStamp = entry.stamp;
+					entry.ownSequence = entry.sequence;
+				}
+				entry.time = last.time;
+				entry.stamp = last.stamp;
+				entry.sequence = last.sequence;
+				entry.behind = true;
+			}
+			if (ruledSize == ruled.length)
+				ruled = grow(ruled);
+			entry.ruledIndex = ruledSize;
+			ruled[ruledSize++] = entry;
+		}
+		if (size == entries.length)
+			entries = grow(entries);
+		entries[size] = entry;
+		job.setQueueIndex(size);
+		siftUp(size++);
+	}
+
+	/**
+	 * Returns the queued entry with the greatest key whose job conflicts with the
+	 * job of the given entry, or null. As in the linked list, a job that was in the
+	 * wait queue before may overtake conflicting jobs that joined the queue after it.
+	 */
+	private Entry findLastConflicting(Entry entry) {
+		Entry last = null;
+		long stamp = entry.job.getWaitQueueStamp();
+		for (int i = 0; i < ruledSize; i++) {
+			Entry candidate = ruled[i];
+			if (stamp > 0 && stamp < candidate.job.getWaitQueueStamp())
+				continue;
+			if ((last == null || compare(candidate, last) > 0) && entry.job.isConflicting(candidate.job))
+				last = candidate;
+		}
+		return last;
+	}
+
+	private static Entry[] grow(Entry[] array) {
+		Entry[] larger = new Entry[array.length * 2];
+		System.arraycopy(array, 0, larger, 0, array.length);
+		return larger;
+	}
+
+	boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Returns an iterator over the queued jobs, in queue order. The iterator
+	 * works on a copy, and does not support removal.
+	 */
+	Iterator iterator() {
+		Entry[] sorted = new Entry[size];
+		System.arraycopy(entries, 0, sorted, 0, size);
+		Arrays.sort(sorted, ORDER);
+		InternalJob[] jobs = new InternalJob[size];
+		for (int i = 0; i < size; i++)
+			jobs[i] = sorted[i].job;
+		return Arrays.asList(jobs).iterator();
+	}
+
+	InternalJob peek() {
+		return size == 0 ? null : entries[0].job;
+	}
+
+	/**
+	 * Returns the first job in queue order whose priority is at least the
+	 * given priority, or null if there is none. Scans the heap in place.
+	 */
+	InternalJob peek(int lowestPriority) {
+		if (size == 0 || entries[0].job.getPriority() <= lowestPriority)
+			return peek();
+		Entry first = null;
+		for (int i = 1; i < size; i++) {
+			Entry entry = entries[i];
+			if (entry.job.getPriority() <= lowestPriority && (first == null || compare(entry, first) < 0))
+				first = entry;
+		}
+		return first == null ? null : first.job;
+	}
+
+	/**
+	 * Removes the given job from the heap. Has no effect if the job is not
+	 * in the heap.
+	 */
+	void remove(InternalJob job) {
+		int index = job.getQueueIndex();
+		if (index < 0 || index >= size || entries[index].job != job)
+			return;
+		Entry entry = entries[index];
+		job.setQueueIndex(-1);
+		Entry last = entries[--size];
+		entries[size] = null;
+		if (last != entry) {
+			entries[index] = last;
+			last.job.setQueueIndex(index);
+			siftDown(index);
+			siftUp(last.job.getQueueIndex());
+		}
+		if (entry.ruledIndex >= 0) {
+			Entry lastRuled = ruled[--ruledSize];
+			ruled[ruledSize] = null;
+			if (lastRuled != entry) {
+				ruled[entry.ruledIndex] = lastRuled;
+				lastRuled.ruledIndex = entry.ruledIndex;
+			}
+			entry.ruledIndex = -1;
+		}
+	}
+
+	private void siftDown(int index) {
+		Entry entry = entries[index];
+		int half = size >>> 1;
+		while (index < half) {
+			int child = 2 * index + 1;
+			int right = child + 1;
+			if (right < size && compare(entries[right], entries[child]) < 0)
+				child = right;
+			if (compare(entry, entries[child]) <= 0)
+				break;
+			entries[index] = entries[child];
+			entries[index].job.setQueueIndex(index);
+			index = child;
+		}
+		entries[index] = entry;
+		entry.job.setQueueIndex(index);
+	}
+
+	private void siftUp(int index) {
+		Entry entry = entries[index];
+		while (index > 0) {
+			int parent = (index - 1) >>> 1;
+			if (compare(entries[parent], entry) <= 0)
+				break;
+			entries[index] = entries[parent];
+			entries[index].job.setQueueIndex(index);
+			index = parent;
+		}
+		entries[index] = entry;
+		entry.job.setQueueIndex(index);
+	}
+}
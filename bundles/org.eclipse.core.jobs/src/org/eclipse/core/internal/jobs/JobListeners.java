@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2003, 2006 IBM Corporation and others.
+ * Copyright (c) 2003, 2012 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -18,6 +18,10 @@ import org.eclipse.osgi.util.NLS;
 /**
  * Responsible for notifying all job listeners about job lifecycle events.  Uses a
  * specialized iterator to ensure the complex iteration logic is contained in one place.
+ * Notifications of asynchronous listeners, except aboutToRun, are handed to a
+ * dispatcher thread that is started when the first one is posted. Before
+ * aboutToRun, the dispatcher is given time to deliver the notifications of the
+ * job that are still queued, so that listeners receive them in order.
  */
 class JobListeners {
 	interface IListenerDoit {
@@ -59,6 +63,20 @@ class JobListeners {
 	 */
 	protected final ListenerList global = new ListenerList(ListenerList.IDENTITY);
 
+	/**
+	 * The thread that notifies asynchronous listeners, or null if it has
+	 * not been started yet.
+	 * @GuardedBy("this")
+	 */
+	private ListenerDispatcher dispatcher;
+
+	/**
+	 * True once the job manager has been shut down. Asynchronous listeners
+	 * are then notified synchronously.
+	 * @GuardedBy("this")
+	 */
+	private boolean shutdown = false;
+
 	/**
 	 * TODO Could use an instance pool to re-use old event objects
 	 */
@@ -87,18 +105,19 @@ class JobListeners {
 	 * on the given job.
 	 */
 	private void doNotify(final IListenerDoit doit, final IJobChangeEvent event) {
+		doNotify(doit, event, global.getListeners());
+	}
+
+	/**
+	 * Process the given doit for the given global listeners and all local listeners
+	 * on the given job.
+	 */
+	private void doNotify(final IListenerDoit doit, final IJobChangeEvent event, Object[] listeners) {
 		//notify all global listeners
-		Object[] listeners = global.getListeners();
 		int size = listeners.length;
 		for (int i = 0; i < size; i++) {
-			try {
-				if (listeners[i] != null)
-					doit.notify((IJobChangeListener) listeners[i], event);
-			} catch (Exception e) {
-				handleException(listeners[i], e);
-			} catch (LinkageError e) {
-				handleException(listeners[i], e);
-			}
+			if (listeners[i] != null)
+				dispatch(doit, (IJobChangeListener) listeners[i], event);
 		}
 		//notify all local listeners
 		ListenerList list = ((InternalJob) event.getJob()).getListeners();
@@ -107,15 +126,38 @@ class JobListeners {
 			return;
 		size = listeners.length;
 		for (int i = 0; i < size; i++) {
-			try {
-				if (listeners[i] != null)
-					doit.notify((IJobChangeListener) listeners[i], event);
-			} catch (Exception e) {
-				handleException(listeners[i], e);
-			} catch (LinkageError e) {
-				handleException(listeners[i], e);
+			if (listeners[i] != null)
+				dispatch(doit, (IJobChangeListener) listeners[i], event);
+		}
+	}
+
+	/**
+	 * Notifies the given listener, or hands the notification to the dispatcher
+	 * if the listener is asynchronous. aboutToRun is always delivered
+	 * synchronously, because listeners may prevent the job from running.
+	 */
+	private void dispatch(IListenerDoit doit, IJobChangeListener listener, IJobChangeEvent event) {
+		if (doit != aboutToRun && listener instanceof IAsynchronousJobChangeListener) {
+			ListenerDispatcher current = getDispatcher();
+			if (current != null) {
+				current.post(doit, listener, event);
+				return;
 			}
 		}
+		notifyListener(doit, listener, event);
+	}
+
+	/**
+	 * Returns the dispatcher of asynchronous notifications, starting it if
+	 * needed, or null if the job manager has been shut down.
+	 */
+	private synchronized ListenerDispatcher getDispatcher() {
+		if (dispatcher == null && !shutdown) {
+			dispatcher = new ListenerDispatcher(this);
+			dispatcher.setDaemon(JobOSGiUtils.getDefault().useDaemonThreads());
+			dispatcher.start();
+		}
+		return dispatcher;
 	}
 
 	private void handleException(Object listener, Throwable e) {
@@ -130,6 +172,19 @@ class JobListeners {
 		RuntimeLog.log(new Status(IStatus.ERROR, pluginId, JobManager.PLUGIN_ERROR, message, e));
 	}
 
+	/**
+	 * Notifies a listener, logging any exception it throws.
+	 */
+	void notifyListener(IListenerDoit doit, IJobChangeListener listener, IJobChangeEvent event) {
+		try {
+			doit.notify(listener, event);
+		} catch (Exception e) {
+			handleException(listener, e);
+		} catch (LinkageError e) {
+			handleException(listener, e);
+		}
+	}
+
 	public void add(IJobChangeListener listener) {
 		global.add(listener);
 	}
@@ -139,6 +194,12 @@ class JobListeners {
 	}
 
 	public void aboutToRun(Job job) {
+		ListenerDispatcher current;
+		synchronized (this) {
+			current = dispatcher;
+		}
+		if (current != null)
+			current.waitForDelivery(job);
 		doNotify(aboutToRun, newEvent(job));
 	}
 
@@ -162,6 +223,27 @@ class JobListeners {
 		doNotify(scheduled, event);
 	}
 
+	/**
+	 * Notifies listeners that the first <code>count</code> jobs in the array were
+	 * scheduled, each with the delay at the same index. The global listeners are
+	 * looked up once for the whole batch.
+	 */
+	public void scheduled(Job[] jobs, long[] delays, int count) {
+		Object[] listeners = global.getListeners();
+		for (int i = 0; i < count; i++)
+			doNotify(scheduled, newEvent(jobs[i], delays[i]), listeners);
+	}
+
+	/**
+	 * Stops the dispatcher of asynchronous notifications once it has delivered
+	 * the notifications that are already queued.
+	 */
+	public synchronized void shutdown() {
+		shutdown = true;
+		if (dispatcher != null)
+			dispatcher.cancel();
+	}
+
 	public void sleeping(Job job) {
 		doNotify(sleeping, newEvent(job));
 	}
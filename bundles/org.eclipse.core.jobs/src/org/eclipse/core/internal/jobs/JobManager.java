@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2003, 2011 IBM Corporation and others.
+ * Copyright (c) 2003, 2012 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -15,6 +15,8 @@
 package org.eclipse.core.internal.jobs;
 
 //don't use ICU because this is used for debugging only (see bug 135785)
+import java.io.IOException;
+import java.io.OutputStream;
 import java.text.*;
 import java.util.*;
 import org.eclipse.core.internal.runtime.RuntimeLog;
@@ -30,6 +32,11 @@ import org.eclipse.osgi.util.NLS;
  * instance itself is not used because this class is publicly reachable, and
  * third party clients may try to synchronize on it.
  * 
+ * Queries that only need a consistent snapshot of the manager state, such as
+ * isIdle(), isSuspended() and currentJob(), do not acquire the lock. The state
+ * they need is published through volatile fields that are only written while
+ * the lock is held.
+ * 
  * There are various locks used and held throughout the JobManager
  * implementation. When multiple locks interact, circular hold and waits must
  * never happen, or a deadlock will occur. To prevent deadlocks, this is the
@@ -53,6 +60,105 @@ public class JobManager implements IJobManager {
 	 */
 	public static final int PLUGIN_ERROR = 2;
 
+	/**
+	 * Status code constant of the result that a job is refused, dropped or
+	 * merged into another job with because the job queue is full.
+	 */
+	public static final int QUEUE_FULL = 3;
+
+	/**
+	 * System property that when set to "true" makes the job manager keep its
+	 * wait queues in binary heaps rather than linked lists.
+	 */
+	static final String PROP_HEAP_QUEUES = PI_JOBS + ".heapQueues"; //$NON-NLS-1$
+
+	/**
+	 * System property for the number of worker threads the pool keeps alive
+	 * when they are idle.
+	 */
+	static final String PROP_POOL_CORE_SIZE = PI_JOBS + ".pool.coreSize"; //$NON-NLS-1$
+
+	/**
+	 * System property for the maximum number of worker threads. Jobs wait in
+	 * the queue when all workers are busy and the pool has this many workers.
+	 * <p>
+	 * A worker that joins a job, or waits for a job in some other way, keeps
+	 * its thread while it waits. If every worker waits for jobs that are still
+	 * queued, those jobs never start and the workers deadlock. Jobs that wait
+	 * for other jobs must therefore not be able to occupy the whole pool.
+	 * </p>
+	 */
+	static final String PROP_POOL_MAX_SIZE = PI_JOBS + ".pool.maxSize"; //$NON-NLS-1$
+
+	/**
+	 * System property for the time in milliseconds after which idle worker
+	 * threads beyond the core size end.
+	 */
+	static final String PROP_POOL_KEEP_ALIVE = PI_JOBS + ".pool.keepAlive"; //$NON-NLS-1$
+
+	/**
+	 * System property for the number of worker threads reserved for interactive
+	 * jobs. Other jobs never occupy more than the maximum size minus this number
+	 * of workers. The deadlock described for {@link #PROP_POOL_MAX_SIZE} then
+	 * occurs as soon as the unreserved workers all wait for queued jobs that
+	 * are not interactive.
+	 */
+	static final String PROP_POOL_INTERACTIVE_RESERVE = PI_JOBS + ".pool.interactiveReserve"; //$NON-NLS-1$
+
+	/**
+	 * System property for the policy that orders the jobs of one priority in
+	 * the wait queue: "priority" (the default) to order them by the time they
+	 * became due, "deadline" to order them by their deadline, or "fair" to let
+	 * the job families and contributing bundles take turns. When ordered by
+	 * deadline, jobs never overtake jobs of a higher priority.
+	 */
+	static final String PROP_QUEUE_ORDER = PI_JOBS + ".queueOrder"; //$NON-NLS-1$
+
+	/**
+	 * System property for the weights of job families in the fair share queue
+	 * order, in the form "family=weight,family=weight". Applies to families
+	 * that are strings.
+	 */
+	static final String PROP_SHARE_WEIGHTS = PI_JOBS + ".queueOrder.weights"; //$NON-NLS-1$
+
+	/**
+	 * System property for the maximum number of jobs that may be queued at
+	 * once, that is scheduled but not yet running. Zero, the default, means
+	 * no limit.
+	 */
+	static final String PROP_QUEUE_MAX_DEPTH = PI_JOBS + ".queue.maxDepth"; //$NON-NLS-1$
+
+	/**
+	 * System property for what happens to a job that is scheduled while the
+	 * maximum number of jobs is queued: "reject" (the default) to refuse it,
+	 * "block" to block the scheduling thread until there is room, "dropOldest"
+	 * to cancel the job that was queued first, or "coalesce" to merge it into
+	 * a queued job of the same class and name.
+	 */
+	static final String PROP_QUEUE_POLICY = PI_JOBS + ".queue.policy"; //$NON-NLS-1$
+
+	/**
+	 * System property for the number of most recent events that the flight
+	 * recorder keeps. Zero turns the recorder off.
+	 */
+	static final String PROP_FLIGHT_RECORDER_SIZE = PI_JOBS + ".flightRecorder.size"; //$NON-NLS-1$
+
+	/**
+	 * The number of events that the flight recorder keeps by default.
+	 */
+	private static final int DEFAULT_FLIGHT_RECORDER_SIZE = 4096;
+
+	/**
+	 * System property for the minimum time in milliseconds between two updates
+	 * that a job sends to its progress monitor. Zero passes every update on.
+	 */
+	static final String PROP_PROGRESS_INTERVAL = PI_JOBS + ".progress.interval"; //$NON-NLS-1$
+
+	/**
+	 * The minimum time between two progress updates by default.
+	 */
+	private static final int DEFAULT_PROGRESS_INTERVAL = 50;
+
 	private static final String OPTION_DEADLOCK_ERROR = PI_JOBS + "/jobs/errorondeadlock"; //$NON-NLS-1$
 	private static final String OPTION_DEBUG_BEGIN_END = PI_JOBS + "/jobs/beginend"; //$NON-NLS-1$
 	private static final String OPTION_DEBUG_YIELDING = PI_JOBS + "/jobs/yielding"; //$NON-NLS-1$
@@ -111,21 +217,108 @@ public class JobManager implements IJobManager {
 
 	private final LockManager lockManager = new LockManager();
 
+	/**
+	 * Records job state transitions, rules and lock waits, or null if the
+	 * recorder is turned off.
+	 */
+	private final FlightRecorder recorder;
+
+	/**
+	 * The minimum time in milliseconds between two updates that a job sends to
+	 * its progress monitor.
+	 */
+	private final int progressInterval;
+
+	/**
+	 * Timing statistics of the jobs that are done.
+	 * @GuardedBy("lock")
+	 */
+	private final JobMetrics metrics = new JobMetrics();
+
 	/**
 	 * The pool of worker threads.
 	 */
 	private WorkerPool pool;
 
 	/**
-	 * @GuardedBy("lock")
+	 * Volatile because it is set without holding the lock, and read by
+	 * threads creating monitors for jobs.
 	 */
-	private ProgressProvider progressProvider = null;
+	private volatile ProgressProvider progressProvider = null;
 	/**
 	 * Jobs that are currently running. Should only be modified from changeState
 	 * @GuardedBy("lock")
 	 */
 	private final HashSet running;
 
+	/**
+	 * Maps each thread to the running job that has set it as its thread
+	 * (Thread -> InternalJob). Used to answer currentJob for threads that are
+	 * not workers without taking the lock. Guarded by its own monitor, which is
+	 * only ever acquired last, so job state changes and Job.setThread keep it
+	 * current in constant time.
+	 * @GuardedBy("runningThreads")
+	 */
+	private final HashMap runningThreads = new HashMap();
+
+	/**
+	 * The number of jobs that are running or waiting to run. Used to answer
+	 * isIdle without the lock. Written while holding the lock.
+	 */
+	private volatile int activeJobCount = 0;
+
+	/**
+	 * Running and blocked jobs that own a scheduling rule, indexed for conflict
+	 * lookup. Should only be modified from changeState
+	 * @GuardedBy("lock")
+	 */
+	private final ConflictIndex conflicting;
+
+	/**
+	 * Jobs that can be found by family queries, indexed by their declared
+	 * families. Should only be modified from changeState
+	 * @GuardedBy("lock")
+	 */
+	private final FamilyIndex families;
+
+	/**
+	 * The policy that orders the jobs of one priority in the wait queue.
+	 * @GuardedBy("lock")
+	 */
+	private QueueOrder queueOrder;
+
+	/**
+	 * Maps job family (Object) -> Integer weight in the fair share queue order.
+	 * @GuardedBy("lock")
+	 */
+	private final HashMap shareWeights = new HashMap();
+
+	/**
+	 * The limit on the number of queued jobs, or null if there is none.
+	 * @GuardedBy("lock")
+	 */
+	private AdmissionLimit queueLimit;
+
+	/**
+	 * Maps job family (Object) -> AdmissionLimit on the number of queued jobs of
+	 * that family. The counts are maintained by changeState
+	 * @GuardedBy("lock")
+	 */
+	private final HashMap familyLimits = new HashMap();
+
+	/**
+	 * The number of threads that wait for room in the queue.
+	 * @GuardedBy("lock")
+	 */
+	private int blockedProducers = 0;
+
+	/**
+	 * Jobs that are waiting for their predecessors. Should only be modified
+	 * from changeState
+	 * @GuardedBy("lock")
+	 */
+	private final HashSet pending;
+
 	/**
 	 * Jobs that are currently yielding. Should only be modified from changeState
 	 * @GuardedBy("lock")
@@ -138,15 +331,22 @@ public class JobManager implements IJobManager {
 	 * Should only be modified from changeState
 	 * @GuardedBy("lock")
 	 */
-	private final JobQueue sleeping;
+	private final TimingWheel sleeping;
+
+	/**
+	 * Sleeping jobs that have become due, while they are moved to the wait queue.
+	 * @GuardedBy("lock")
+	 */
+	private final List wokenJobs = new ArrayList();
+
 	/**
 	 * True if this manager has been suspended, and false otherwise.  A job manager
 	 * starts out not suspended, and becomes suspended when <code>suspend</code>
 	 * is invoked. Once suspended, no jobs will start running until <code>resume</code>
-	 * is called.
+	 * is called. Read without the lock by isSuspended.
 	 * @GuardedBy("lock")
 	 */
-	private boolean suspended = false;
+	private volatile boolean suspended = false;
 
 	/**
 	 * jobs that are waiting to be run. Should only be modified from changeState
@@ -237,6 +437,8 @@ public class JobManager implements IJobManager {
 				return "ABOUT_TO_RUN"; //$NON-NLS-1$
 			case InternalJob.ABOUT_TO_SCHEDULE :
 				return "ABOUT_TO_SCHEDULE";//$NON-NLS-1$
+			case InternalJob.PENDING :
+				return "PENDING"; //$NON-NLS-1$
 		}
 		return "UNKNOWN"; //$NON-NLS-1$
 	}
@@ -257,15 +459,30 @@ public class JobManager implements IJobManager {
 	private JobManager() {
 		instance = this;
 		initDebugOptions();
+		boolean useHeap = JobOSGiUtils.getDefault().useHeapQueues();
+		int recorderSize = JobOSGiUtils.getDefault().getIntProperty(PROP_FLIGHT_RECORDER_SIZE, DEFAULT_FLIGHT_RECORDER_SIZE);
+		recorder = recorderSize > 0 ? new FlightRecorder(recorderSize) : null;
+		lockManager.setFlightRecorder(recorder);
+		progressInterval = JobOSGiUtils.getDefault().getIntProperty(PROP_PROGRESS_INTERVAL, DEFAULT_PROGRESS_INTERVAL);
 		synchronized (lock) {
-			waiting = new JobQueue(false);
-			waitingThreadJobs = new JobQueue(false, false);
-			sleeping = new JobQueue(true);
+			JobOSGiUtils.getDefault().getShareWeights(shareWeights);
+			queueOrder = JobOSGiUtils.getDefault().getQueueOrder(shareWeights);
+			queueLimit = JobOSGiUtils.getDefault().getQueueLimit();
+			waiting = new JobQueue(false, true, useHeap);
+			waitingThreadJobs = new JobQueue(false, false, useHeap);
+			sleeping = new TimingWheel(System.currentTimeMillis());
 			running = new HashSet(10);
+			conflicting = new ConflictIndex();
+			families = new FamilyIndex();
 			yielding = new HashSet(10);
+			pending = new HashSet(10);
 			pool = new WorkerPool(this);
 		}
 		pool.setDaemon(JobOSGiUtils.getDefault().useDaemonThreads());
+		pool.setVirtual(JobOSGiUtils.getDefault().useVirtualThreads());
+		JobOSGiUtils utils = JobOSGiUtils.getDefault();
+		pool.setPoolSize(utils.getIntProperty(PROP_POOL_CORE_SIZE, WorkerPool.DEFAULT_CORE_THREADS), utils.getIntProperty(PROP_POOL_MAX_SIZE, Integer.MAX_VALUE), utils.getIntProperty(PROP_POOL_INTERACTIVE_RESERVE, 0));
+		pool.setKeepAlive(utils.getIntProperty(PROP_POOL_KEEP_ALIVE, WorkerPool.DEFAULT_KEEP_ALIVE));
 		internalWorker = new InternalWorker(this);
 		internalWorker.setDaemon(JobOSGiUtils.getDefault().useDaemonThreads());
 		internalWorker.start();
@@ -284,14 +501,26 @@ public class JobManager implements IJobManager {
 	public void beginRule(ISchedulingRule rule, IProgressMonitor monitor) {
 		validateRule(rule);
 		implicitJobs.begin(rule, monitorFor(monitor), false);
+		if (recorder != null)
+			recorder.record(FlightRecorder.RULE_BEGIN, rule);
 	}
 
 	/**
 	 * Cancels a job
 	 */
 	protected boolean cancel(InternalJob job) {
+		return cancel(job, Status.CANCEL_STATUS);
+	}
+
+	/**
+	 * Cancels a job, and reports the given result to the listeners if the job
+	 * was not running.
+	 */
+	private boolean cancel(InternalJob job, IStatus result) {
 		IProgressMonitor monitor = null;
 		boolean runCanceling = false;
+		JobFuture future = null;
+		ArrayList dependents = null;
 		synchronized (lock) {
 			switch (job.getState()) {
 				case Job.NONE :
@@ -309,7 +538,9 @@ public class JobManager implements IJobManager {
 					job.setAboutToRunCanceled(true);
 					return false;
 				default :
-					changeState(job, Job.NONE);
+					Canceled canceled = cancelQueued(job, result);
+					future = canceled.future;
+					dependents = canceled.dependents;
 			}
 		}
 		//call monitor and canceling outside sync block
@@ -322,10 +553,51 @@ public class JobManager implements IJobManager {
 			return false;
 		}
 		//only notify listeners if the job was waiting or sleeping
-		jobListeners.done((Job) job, Status.CANCEL_STATUS, false);
+		jobListeners.done((Job) job, result, false);
+		if (future != null)
+			future.complete(result);
+		cancelDependents(dependents);
 		return true;
 	}
 
+	/**
+	 * A job that was canceled while holding the lock, with what the caller
+	 * must notify once it has released the lock.
+	 */
+	private static final class Canceled {
+		final InternalJob job;
+		final IStatus result;
+		/**
+		 * The future of the canceled run, or null.
+		 */
+		final JobFuture future;
+		/**
+		 * The dependents of the job to cancel, or null.
+		 */
+		final ArrayList dependents;
+
+		Canceled(InternalJob job, IStatus result, JobFuture future, ArrayList dependents) {
+			this.job = job;
+			this.result = result;
+			this.future = future;
+			this.dependents = dependents;
+		}
+	}
+
+	/**
+	 * Cancels a job that is queued and has not started to run. Returns what
+	 * the caller must notify outside of the lock.
+	 * @GuardedBy("lock")
+	 */
+	private Canceled cancelQueued(InternalJob job, IStatus result) {
+		changeState(job, Job.NONE);
+		metrics.record(job, result);
+		ArrayList dependents = releaseDependents(job, true);
+		JobFuture future = job.internalGetFuture();
+		job.internalSetFuture(null);
+		return new Canceled(job, result, future, dependents);
+	}
+
 	/* (non-Javadoc)
 	 * @see org.eclipse.core.runtime.jobs.IJobManager#cancel(java.lang.String)
 	 */
@@ -345,15 +617,26 @@ public class JobManager implements IJobManager {
 			synchronized (job.jobStateLock) {
 				job.jobStateLock.notifyAll();
 				int oldState = job.internalGetState();
+				InternalJobGroup group = job.internalGetGroup();
 				switch (oldState) {
 					case InternalJob.YIELDING :
 						yielding.remove(job);
 					case Job.NONE :
 					case InternalJob.ABOUT_TO_SCHEDULE :
 						break;
+					case InternalJob.PENDING :
+						pending.remove(job);
+						//stop waiting for the predecessors that are not done
+						InternalJob[] predecessors = job.internalGetPredecessors();
+						for (int i = 0; i < predecessors.length; i++)
+							predecessors[i].internalRemoveDependent(job);
+						break;
 					case InternalJob.BLOCKED :
 						//remove this job from the linked list of blocked jobs
 						job.remove();
+						conflicting.remove(job);
+						if (group != null)
+							group.internalRelease(job);
 						break;
 					case Job.WAITING :
 						try {
@@ -361,6 +644,9 @@ public class JobManager implements IJobManager {
 						} catch (RuntimeException e) {
 							Assert.isLegal(false, "Tried to remove a job that wasn't in the queue"); //$NON-NLS-1$
 						}
+						//the wait queue is discarded without changing job states on shutdown
+						if (active)
+							activeJobCount--;
 						break;
 					case Job.SLEEPING :
 						try {
@@ -371,7 +657,9 @@ public class JobManager implements IJobManager {
 						break;
 					case Job.RUNNING :
 					case InternalJob.ABOUT_TO_RUN :
-						running.remove(job);
+						if (running.remove(job))
+							activeJobCount--;
+						conflicting.remove(job);
 						//add any blocked jobs back to the wait queue
 						InternalJob blocked = job.previous();
 						job.remove();
@@ -385,35 +673,88 @@ public class JobManager implements IJobManager {
 					default :
 						Assert.isLegal(false, "Invalid job state: " + job + ", state: " + oldState); //$NON-NLS-1$ //$NON-NLS-2$
 				}
-				job.internalSetState(newState);
+				//family queries find jobs in every state but these two
+				boolean wasSelectable = oldState != Job.NONE && oldState != InternalJob.ABOUT_TO_SCHEDULE;
+				boolean isSelectable = newState != Job.NONE && newState != InternalJob.ABOUT_TO_SCHEDULE;
+				if (group != null && isGroupActive(oldState) != isGroupActive(newState)) {
+					boolean isActive = isGroupActive(newState);
+					group.internalSetActive(isActive);
+					//as many held back members as there are free threads may run now
+					if (!isActive) {
+						InternalJob held;
+						for (int free = group.internalFreeThreads(); free > 0 && (held = group.internalNextHeld()) != null; free--) {
+							changeState(held, Job.WAITING);
+							blockedJobs = true;
+						}
+					}
+				}
+				if (wasSelectable && !isSelectable) {
+					families.remove(job);
+					if (group != null)
+						group.internalRemoveMember(job);
+				} else if (isSelectable && !wasSelectable) {
+					families.add(job);
+					if (group != null)
+						group.internalAddMember(job);
+				}
+				if (isLimited()) {
+					boolean isQueued = AdmissionLimit.isQueued(newState);
+					if (AdmissionLimit.isQueued(oldState) != isQueued)
+						updateLimits(job, isQueued);
+				}
+				long now = System.currentTimeMillis();
+				job.addStateTime(oldState, now);
+				synchronized (runningThreads) {
+					job.internalSetState(newState);
+					boolean wasRunning = isRunningThread(oldState);
+					if (wasRunning != isRunningThread(newState)) {
+						if (wasRunning)
+							unmapThread(job);
+						else
+							mapThread(job);
+					}
+				}
+				if (recorder != null)
+					recorder.recordState(job, oldState, newState);
 				switch (newState) {
 					case Job.NONE :
 						job.setStartTime(InternalJob.T_NONE);
 						job.setWaitQueueStamp(InternalJob.T_NONE);
 						job.setRunCanceled(false);
+						break;
 					case InternalJob.BLOCKED :
+						conflicting.add(job);
 						break;
 					case Job.WAITING :
 						waiting.enqueue(job);
+						activeJobCount++;
 						break;
 					case Job.SLEEPING :
 						try {
-							sleeping.enqueue(job);
+							sleeping.add(job);
 						} catch (RuntimeException e) {
 							throw new RuntimeException("Error changing from state: " + oldState); //$NON-NLS-1$
 						}
 						break;
 					case Job.RUNNING :
 					case InternalJob.ABOUT_TO_RUN :
+						//remember how late a job with a deadline starts, for the job statistics
+						if (oldState == Job.WAITING)
+							job.setLateness(job.getDeadlineTime() == InternalJob.T_NONE ? InternalJob.T_NONE : now - job.getDeadlineTime());
 						// These flags must be reset in all cases, including resuming from yield
 						job.setStartTime(InternalJob.T_NONE);
 						job.setWaitQueueStamp(InternalJob.T_NONE);
 						running.add(job);
+						activeJobCount++;
+						conflicting.add(job);
 						break;
 					case InternalJob.YIELDING :
 						yielding.add(job);
 					case InternalJob.ABOUT_TO_SCHEDULE :
 						break;
+					case InternalJob.PENDING :
+						pending.add(job);
+						break;
 					default :
 						Assert.isLegal(false, "Invalid job state: " + job + ", state: " + newState); //$NON-NLS-1$ //$NON-NLS-2$
 				}
@@ -440,7 +781,7 @@ public class JobManager implements IJobManager {
 				monitor = progressProvider.createMonitor((Job) job, group, ticks);
 			if (monitor == null)
 				monitor = new NullProgressMonitor();
-			return monitor;
+			return throttle(monitor);
 		}
 	}
 
@@ -454,7 +795,19 @@ public class JobManager implements IJobManager {
 			monitor = progressProvider.createMonitor(job);
 		if (monitor == null)
 			monitor = new NullProgressMonitor();
-		return monitor;
+		return throttle(monitor);
+	}
+
+	/**
+	 * Returns the given job monitor wrapped to limit the rate of updates that
+	 * reach the progress provider, or returns it unchanged if updates are not
+	 * limited or cost nothing.
+	 * @see #PROP_PROGRESS_INTERVAL
+	 */
+	private IProgressMonitor throttle(IProgressMonitor monitor) {
+		if (progressInterval <= 0 || monitor instanceof NullProgressMonitor)
+			return monitor;
+		return new ThrottledProgressMonitor(monitor, progressInterval);
 	}
 
 	/* (non-Javadoc)
@@ -470,17 +823,57 @@ public class JobManager implements IJobManager {
 	 * @see org.eclipse.core.runtime.jobs.IJobManager#currentJob()
 	 */
 	public Job currentJob() {
-		Thread current = Thread.currentThread();
-		if (current instanceof Worker)
-			return ((Worker) current).currentJob();
-		synchronized (lock) {
-			for (Iterator it = running.iterator(); it.hasNext();) {
-				Job job = (Job) it.next();
-				if (job.getThread() == current)
-					return job;
-			}
+		Worker worker = Worker.current();
+		if (worker != null)
+			return worker.currentJob();
+		synchronized (runningThreads) {
+			return (Job) runningThreads.get(Thread.currentThread());
+		}
+	}
+
+	/**
+	 * Returns whether a job in the given state is in the running set, and so
+	 * must be found by currentJob through its thread.
+	 */
+	private static boolean isRunningThread(int state) {
+		return state == Job.RUNNING || state == InternalJob.ABOUT_TO_RUN;
+	}
+
+	/**
+	 * Maps the thread of the given running job to the job.
+	 * @GuardedBy("runningThreads")
+	 */
+	private void mapThread(InternalJob job) {
+		Thread thread = job.getThread();
+		if (thread != null)
+			runningThreads.put(thread, job);
+	}
+
+	/**
+	 * Removes the mapping of the thread of the given job, unless the thread
+	 * has since been taken by another running job.
+	 * @GuardedBy("runningThreads")
+	 */
+	private void unmapThread(InternalJob job) {
+		Thread thread = job.getThread();
+		if (thread != null && runningThreads.get(thread) == job)
+			runningThreads.remove(thread);
+	}
+
+	/**
+	 * Sets the thread of the given job, moving its entry in the thread map if
+	 * the job is running.
+	 * @see Job#setThread(Thread)
+	 */
+	void setThread(InternalJob job, Thread thread) {
+		synchronized (runningThreads) {
+			boolean isRunning = isRunningThread(job.internalGetState());
+			if (isRunning)
+				unmapThread(job);
+			job.internalSetThread(thread);
+			if (isRunning)
+				mapThread(job);
 		}
-		return null;
 	}
 
 	public ISchedulingRule currentRule() {
@@ -517,6 +910,209 @@ public class JobManager implements IJobManager {
 		}
 	}
 
+	/**
+	 * Applies the queue limits to a job that is not scheduled. Returns null if
+	 * the job may be scheduled, or if it was scheduled by another thread while
+	 * this thread waited for room in the queue. Otherwise returns the result
+	 * that the job is refused with. Jobs that are dropped to make room are
+	 * canceled right away, so that they cannot start, and the caller must
+	 * notify the cancelations in the given list outside of the lock.
+	 * @GuardedBy("lock")
+	 */
+	private IStatus admit(InternalJob job, List dropped) {
+		AdmissionLimit limit;
+		while ((limit = findFullLimit(job)) != null) {
+			switch (limit.getPolicy()) {
+				case AdmissionLimit.BLOCK :
+					if (!canBlock())
+						return queueStatus(IStatus.CANCEL, JobMessages.jobs_queueFull, job);
+					blockedProducers++;
+					try {
+						lock.wait();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						return queueStatus(IStatus.CANCEL, JobMessages.jobs_queueFull, job);
+					} finally {
+						blockedProducers--;
+					}
+					if (!active)
+						return queueStatus(IStatus.CANCEL, JobMessages.jobs_queueFull, job);
+					if (job.internalGetState() != Job.NONE)
+						return null;
+					break;
+				case AdmissionLimit.DROP_OLDEST :
+					InternalJob oldest = limit.findOldest();
+					if (oldest == null)
+						return queueStatus(IStatus.CANCEL, JobMessages.jobs_queueFull, job);
+					dropped.add(cancelQueued(oldest, queueStatus(IStatus.CANCEL, JobMessages.jobs_queueDropped, oldest)));
+					break;
+				case AdmissionLimit.COALESCE :
+					InternalJob equivalent = limit.findEquivalent(job);
+					if (equivalent == null)
+						return queueStatus(IStatus.CANCEL, JobMessages.jobs_queueFull, job);
+					equivalent.internalAddCoalesced();
+					return queueStatus(IStatus.OK, JobMessages.jobs_queueCoalesced, job);
+				default :
+					return queueStatus(IStatus.CANCEL, JobMessages.jobs_queueFull, job);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Returns whether the current thread may block until there is room in the
+	 * queue. Worker threads may not block because the queue might only drain
+	 * through them, and threads that own scheduling rules or locks may not
+	 * block because queued jobs might need them.
+	 */
+	private boolean canBlock() {
+		//a worker has no current job while it calls the listeners of the job it is about to run
+		return Worker.current() == null && !lockManager.isLockOwner();
+	}
+
+	/**
+	 * Returns whether the number of queued jobs is limited.
+	 * @GuardedBy("lock")
+	 */
+	private boolean isLimited() {
+		return queueLimit != null || !familyLimits.isEmpty();
+	}
+
+	/**
+	 * Notifies the cancelation of the jobs that were dropped from the queue to
+	 * make room.
+	 */
+	private void cancelDropped(List dropped) {
+		if (dropped == null)
+			return;
+		//don't synchronize because this calls listeners
+		for (int i = 0, size = dropped.size(); i < size; i++) {
+			Canceled canceled = (Canceled) dropped.get(i);
+			jobListeners.done((Job) canceled.job, canceled.result, false);
+			if (canceled.future != null)
+				canceled.future.complete(canceled.result);
+			cancelDependents(canceled.dependents);
+		}
+	}
+
+	/**
+	 * Returns a limit that applies to the given job and is reached, or null if
+	 * there is none.
+	 * @GuardedBy("lock")
+	 */
+	private AdmissionLimit findFullLimit(InternalJob job) {
+		if (queueLimit != null && queueLimit.isFull())
+			return queueLimit;
+		Object[] jobFamilies = job.internalGetFamilies();
+		if (jobFamilies == null || familyLimits.isEmpty())
+			return null;
+		for (int i = 0; i < jobFamilies.length; i++) {
+			AdmissionLimit limit = (AdmissionLimit) familyLimits.get(jobFamilies[i]);
+			if (limit != null && limit.isFull())
+				return limit;
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the result for a job that is refused, dropped or merged because
+	 * the queue is full.
+	 */
+	private IStatus queueStatus(int severity, String message, InternalJob job) {
+		return new Status(severity, PI_JOBS, QUEUE_FULL, NLS.bind(message, job.getName()), null);
+	}
+
+	/**
+	 * Counts a job against the limits that apply to it when it becomes queued,
+	 * and stops counting it when it is no longer queued. Wakes up the threads
+	 * that wait for room in the queue when there is room.
+	 * @GuardedBy("lock")
+	 */
+	private void updateLimits(InternalJob job, boolean queued) {
+		boolean room = false;
+		if (queueLimit != null) {
+			if (queued)
+				queueLimit.add(job);
+			else
+				room = queueLimit.remove(job);
+		}
+		Object[] jobFamilies = job.internalGetFamilies();
+		if (jobFamilies != null && !familyLimits.isEmpty()) {
+			for (int i = 0; i < jobFamilies.length; i++) {
+				AdmissionLimit limit = (AdmissionLimit) familyLimits.get(jobFamilies[i]);
+				if (limit == null)
+					continue;
+				if (queued)
+					limit.add(job);
+				else if (limit.remove(job))
+					room = true;
+			}
+		}
+		if (room && blockedProducers > 0)
+			lock.notifyAll();
+	}
+
+	/**
+	 * Registers a job that is about to be scheduled with those of its
+	 * predecessors that are not done. Returns true if the job must wait for
+	 * any of them.
+	 * @GuardedBy("lock")
+	 */
+	private boolean awaitPredecessors(InternalJob job) {
+		InternalJob[] predecessors = job.internalGetPredecessors();
+		if (predecessors == null)
+			return false;
+		int count = 0;
+		for (int i = 0; i < predecessors.length; i++) {
+			if (predecessors[i].internalGetState() == Job.NONE)
+				continue;
+			predecessors[i].internalAddDependent(job);
+			count++;
+		}
+		job.setPendingCount(count);
+		return count > 0;
+	}
+
+	/**
+	 * Releases the jobs that were pending until the given job is done, and
+	 * returns them, or returns null if there are none. If the job was not
+	 * canceled, pending jobs that have no other predecessors left are
+	 * scheduled. Otherwise the caller must cancel the returned jobs outside
+	 * of the lock.
+	 * @GuardedBy("lock")
+	 */
+	private ArrayList releaseDependents(InternalJob job, boolean canceled) {
+		ArrayList dependents = job.internalTakeDependents();
+		if (dependents == null || canceled)
+			return dependents;
+		for (int i = 0, size = dependents.size(); i < size; i++) {
+			InternalJob dependent = (InternalJob) dependents.get(i);
+			int count = dependent.getPendingCount() - 1;
+			dependent.setPendingCount(count);
+			if (count > 0 || dependent.internalGetState() != InternalJob.PENDING)
+				continue;
+			long start = dependent.getStartTime();
+			long now = System.currentTimeMillis();
+			if (start > now) {
+				changeState(dependent, Job.SLEEPING);
+			} else {
+				makeWaiting(dependent, now);
+			}
+		}
+		return dependents;
+	}
+
+	/**
+	 * Cancels the jobs that were pending until a job that was canceled is done.
+	 */
+	private void cancelDependents(ArrayList dependents) {
+		if (dependents == null)
+			return;
+		//don't synchronize because cancel calls listeners
+		for (int i = 0, size = dependents.size(); i < size; i++)
+			cancel((InternalJob) dependents.get(i));
+	}
+
 	/**
 	 * Performs the scheduling of a job.  Does not perform any notifications.
 	 */
@@ -531,17 +1127,36 @@ public class JobManager implements IJobManager {
 				long minDelay = running.size() * 100;
 				delay = Math.max(delay, minDelay);
 			}
+			//wait for the predecessors that are scheduled, the delay starts now
+			if (state == InternalJob.ABOUT_TO_SCHEDULE && awaitPredecessors(job)) {
+				job.setStartTime(System.currentTimeMillis() + delay);
+				changeState(job, InternalJob.PENDING);
+				return;
+			}
 			if (delay > 0) {
 				job.setStartTime(System.currentTimeMillis() + delay);
 				changeState(job, Job.SLEEPING);
 			} else {
-				job.setStartTime(System.currentTimeMillis() + delayFor(job.getPriority()));
-				job.setWaitQueueStamp(waitQueueCounter.increment());
-				changeState(job, Job.WAITING);
+				makeWaiting(job, System.currentTimeMillis());
 			}
 		}
 	}
 
+	/**
+	 * Adds a job that is due at the given time to the wait queue. The start
+	 * time that orders the queue is given by the queue order policy and the
+	 * priority of the job.
+	 * @GuardedBy("lock")
+	 */
+	private void makeWaiting(InternalJob job, long now) {
+		long deadline = job.getDeadline();
+		job.setDeadlineTime(deadline > 0 ? now + deadline : InternalJob.T_NONE);
+		job.setLateness(InternalJob.T_NONE);
+		job.setStartTime(queueOrder.getQueueTime(job, now) + queueOrder.getPriorityOffset(delayFor(job.getPriority())));
+		job.setWaitQueueStamp(waitQueueCounter.increment());
+		changeState(job, Job.WAITING);
+	}
+
 	/**
 	 * Shuts down the job manager.  Currently running jobs will be told
 	 * to stop, but worker threads may still continue processing.
@@ -559,6 +1174,9 @@ public class JobManager implements IJobManager {
 			//discard any jobs that have not yet started running
 			sleeping.clear();
 			waiting.clear();
+			//wake up the threads that wait for room in the queue
+			lock.notifyAll();
+			activeJobCount = running.size();
 		}
 
 		// Give running jobs a chance to finish. Wait 0.1 seconds for up to 3 times.
@@ -598,6 +1216,7 @@ public class JobManager implements IJobManager {
 			}
 		}
 		internalWorker.cancel();
+		jobListeners.shutdown();
 		if (toCancel != null) {
 			for (int i = 0; i < toCancel.length; i++) {
 				String jobName = printJobName(toCancel[i]);
@@ -614,6 +1233,12 @@ public class JobManager implements IJobManager {
 		synchronized (lock) {
 			//discard reference to any jobs still running at this point
 			running.clear();
+			synchronized (runningThreads) {
+				runningThreads.clear();
+			}
+			activeJobCount = 0;
+			conflicting.clear();
+			families.clear();
 		}
 
 		pool.shutdown();
@@ -626,6 +1251,9 @@ public class JobManager implements IJobManager {
 	 */
 	protected void endJob(InternalJob job, IStatus result, boolean notify) {
 		long rescheduleDelay = InternalJob.T_NONE;
+		JobFuture future;
+		ArrayList dependents;
+		boolean canceled;
 		synchronized (lock) {
 			//if the job is finishing asynchronously, there is nothing more to do for now
 			if (result == Job.ASYNC_FINISH)
@@ -640,11 +1268,25 @@ public class JobManager implements IJobManager {
 			job.setThread(null);
 			rescheduleDelay = job.getStartTime();
 			changeState(job, Job.NONE);
+			metrics.record(job, result);
+			canceled = result.getSeverity() == IStatus.CANCEL;
+			dependents = releaseDependents(job, canceled);
+			future = job.internalGetFuture();
+			job.internalSetFuture(null);
 		}
 		//notify listeners outside sync block
 		final boolean reschedule = active && rescheduleDelay > InternalJob.T_NONE && job.shouldSchedule();
 		if (notify)
 			jobListeners.done((Job) job, result, reschedule);
+		if (future != null)
+			future.complete(result);
+		//propagate cancelation to pending jobs, or wake up workers for the released ones
+		if (dependents != null) {
+			if (canceled)
+				cancelDependents(dependents);
+			else
+				pool.jobsQueued(dependents.size());
+		}
 		//reschedule the job if requested and we are still active
 		if (reschedule)
 			schedule(job, rescheduleDelay, reschedule);
@@ -657,6 +1299,8 @@ public class JobManager implements IJobManager {
 	 * @see org.eclipse.core.runtime.jobs.IJobManager#endRule(org.eclipse.core.runtime.jobs.ISchedulingRule)
 	 */
 	public void endRule(ISchedulingRule rule) {
+		if (recorder != null)
+			recorder.record(FlightRecorder.RULE_END, rule);
 		implicitJobs.end(rule, false);
 	}
 
@@ -675,11 +1319,16 @@ public class JobManager implements IJobManager {
 	 * jobs whose scheduling rule conflicts with its rule.
 	 */
 	protected InternalJob findBlockingJob(InternalJob waitingJob) {
-		if (waitingJob.getRule() == null)
+		ISchedulingRule rule = waitingJob.getRule();
+		if (rule == null)
 			return null;
 		synchronized (lock) {
 			if (running.isEmpty())
 				return null;
+			//keyed rules only need to be checked against the candidates in the index
+			Object[] key = ConflictIndex.keyOf(rule);
+			if (key != null)
+				return conflicting.findConflicting(waitingJob, key);
 			//check the running jobs
 			boolean hasBlockedJobs = false;
 			for (Iterator it = running.iterator(); it.hasNext();) {
@@ -735,10 +1384,163 @@ public class JobManager implements IJobManager {
 		}
 	}
 
+	/**
+	 * Writes the events kept by the flight recorder to the given stream, in a
+	 * compact binary form that {@link FlightRecordDecoder} reads. Writes a
+	 * record without events if the recorder is turned off.
+	 * @see #PROP_FLIGHT_RECORDER_SIZE
+	 */
+	public void writeFlightRecord(OutputStream out) throws IOException {
+		(recorder == null ? new FlightRecorder(0) : recorder).write(out);
+	}
+
 	public LockManager getLockManager() {
 		return lockManager;
 	}
 
+	/**
+	 * Completes the given future of the next run of the given job as canceled
+	 * if the job was not scheduled, for example because it refused to run.
+	 */
+	void cancelUnscheduled(InternalJob job, JobFuture future) {
+		synchronized (lock) {
+			if (job.internalGetFuture() != future || job.getState() != Job.NONE)
+				return;
+			job.internalSetFuture(null);
+		}
+		future.complete(Status.CANCEL_STATUS);
+	}
+
+	/**
+	 * Returns the future of the given job. If the job is waiting, sleeping or
+	 * running, this is the future of its current run. Otherwise, if <code>next</code>
+	 * is true, it is the future of the job's next run, and if it is false it is a
+	 * future that is already done with the result of the job's last run, or
+	 * canceled if the job has never finished running.
+	 */
+	JobFuture getFuture(InternalJob job, boolean next) {
+		synchronized (lock) {
+			JobFuture future = job.internalGetFuture();
+			if (future != null)
+				return future;
+			future = new JobFuture();
+			if (next || job.getState() != Job.NONE) {
+				job.internalSetFuture(future);
+			} else {
+				IStatus result = job.getResult();
+				future.complete(result == null ? Status.CANCEL_STATUS : result);
+			}
+			return future;
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see IJobManager#getFuture(Object)
+	 */
+	public IJobFuture getFuture(Object family) {
+		JobFuture[] members;
+		synchronized (lock) {
+			members = getFutures(select(family, Job.WAITING | Job.SLEEPING | Job.RUNNING));
+		}
+		return getFuture(members);
+	}
+
+	/**
+	 * Returns the futures of the current runs of the given jobs.
+	 * @GuardedBy("lock")
+	 */
+	private JobFuture[] getFutures(Collection jobs) {
+		JobFuture[] futures = new JobFuture[jobs.size()];
+		int i = 0;
+		for (Iterator it = jobs.iterator(); it.hasNext();)
+			futures[i++] = getFuture((InternalJob) it.next(), true);
+		return futures;
+	}
+
+	/**
+	 * Returns a future that is done when all the given futures are done.
+	 */
+	private IJobFuture getFuture(JobFuture[] members) {
+		final JobFuture result = new JobFuture();
+		if (members.length == 0) {
+			result.complete(Status.OK_STATUS);
+			return result;
+		}
+		//complete the family future with the most severe result once the last member is done
+		final int[] remaining = new int[] {members.length};
+		final IStatus[] worst = new IStatus[] {Status.OK_STATUS};
+		for (int i = 0; i < members.length; i++) {
+			final JobFuture member = members[i];
+			member.addCallback(new Runnable() {
+				public void run() {
+					IStatus status = member.getResult();
+					synchronized (remaining) {
+						if (status != null && status.getSeverity() > worst[0].getSeverity())
+							worst[0] = status;
+						if (--remaining[0] > 0)
+							return;
+					}
+					result.complete(worst[0]);
+				}
+			});
+		}
+		return result;
+	}
+
+	/**
+	 * Returns a snapshot of the timing and resource statistics of the jobs that
+	 * are done, with one entry per bundle that contributed job classes. Jobs
+	 * whose bundle cannot be determined share the entry with a <code>null</code> key.
+	 */
+	public JobStatistics[] getBundleStatistics() {
+		JobStatistics[] statistics;
+		Class[] classes;
+		synchronized (lock) {
+			statistics = metrics.classStatistics();
+			classes = metrics.classesOf(statistics);
+		}
+		//find the bundles outside the lock, because the framework has locks of its own
+		return JobMetrics.bundleStatistics(statistics, classes);
+	}
+
+	/**
+	 * Returns a snapshot of the timing statistics of the jobs that are done,
+	 * with one entry per job class name.
+	 */
+	public JobStatistics[] getClassStatistics() {
+		synchronized (lock) {
+			return metrics.classStatistics();
+		}
+	}
+
+	/**
+	 * Returns a snapshot of the timing statistics of the jobs that are done,
+	 * with one entry per family that jobs declared.
+	 */
+	public JobStatistics[] getFamilyStatistics() {
+		synchronized (lock) {
+			return metrics.familyStatistics();
+		}
+	}
+
+	/**
+	 * Returns the name of the policy that orders the jobs of one priority in
+	 * the wait queue.
+	 * @see #PROP_QUEUE_ORDER
+	 */
+	public String getQueueOrder() {
+		synchronized (lock) {
+			return queueOrder.toString();
+		}
+	}
+
+	/**
+	 * Returns a snapshot of the occupancy of the worker pool.
+	 */
+	public PoolOccupancy getPoolOccupancy() {
+		return pool.occupancy();
+	}
+
 	/**
 	 * Returns a translated message indicating we are waiting for the given
 	 * number of jobs to complete.
@@ -797,18 +1599,14 @@ public class JobManager implements IJobManager {
 	 * @see org.eclipse.core.runtime.jobs.IJobManager#isIdle()
 	 */
 	public boolean isIdle() {
-		synchronized (lock) {
-			return running.isEmpty() && waiting.isEmpty();
-		}
+		return activeJobCount == 0;
 	}
 
 	/* (non-Javadoc)
 	 * @see org.eclipse.core.runtime.jobs.IJobManager#isSuspended()
 	 */
 	public boolean isSuspended() {
-		synchronized (lock) {
-			return suspended;
-		}
+		return suspended;
 	}
 
 	/* (non-Javadoc)
@@ -962,29 +1760,39 @@ public class JobManager implements IJobManager {
 	}
 
 	/**
-	 * Removes and returns the first waiting job in the queue. Returns null if there
-	 * are no items waiting in the queue.  If an item is removed from the queue,
-	 * it is moved to the running jobs list.
+	 * Removes and returns the first waiting job in the queue whose priority is
+	 * at least the given priority. Returns null if there are no such jobs waiting
+	 * in the queue.  If an item is removed from the queue, it is moved to the
+	 * running jobs list.
 	 */
-	private Job nextJob() {
+	private Job nextJob(int lowestPriority) {
 		synchronized (lock) {
 			//do nothing if the job manager is suspended
 			if (suspended)
 				return null;
-			//tickle the sleep queue to see if anyone wakes up
+			//move the sleeping jobs that are due to the wait queue
 			long now = System.currentTimeMillis();
-			InternalJob job = sleeping.peek();
-			while (job != null && job.getStartTime() < now) {
-				job.setStartTime(now + delayFor(job.getPriority()));
-				job.setWaitQueueStamp(waitQueueCounter.increment());
-				changeState(job, Job.WAITING);
-				job = sleeping.peek();
+			if (sleeping.advance(now, wokenJobs)) {
+				for (int i = 0, size = wokenJobs.size(); i < size; i++) {
+					InternalJob job = (InternalJob) wokenJobs.get(i);
+					//a coalescing job whose start was postponed goes back to sleep
+					if (job.getStartTime() > now) {
+						sleeping.add(job);
+						continue;
+					}
+					makeWaiting(job, now);
+				}
+				wokenJobs.clear();
 			}
 			//process the wait queue until we find a job whose rules are satisfied.
+			InternalJob job;
 			while ((job = waiting.peek()) != null) {
 				InternalJob blocker = findBlockingJob(job);
-				if (blocker == null)
-					break;
+				if (blocker == null) {
+					if (!holdForGroup(job))
+						break;
+					continue;
+				}
 				//queue this job after the job that's blocking it
 				changeState(job, InternalJob.BLOCKED);
 				//assert job does not already belong to some other data structure
@@ -992,6 +1800,9 @@ public class JobManager implements IJobManager {
 				Assert.isTrue(job.previous() == null);
 				blocker.addLast(job);
 			}
+			//look past jobs whose priority is too low
+			if (job != null && job.getPriority() > lowestPriority)
+				job = nextJobWithPriority(lowestPriority);
 			//the job to run must be in the running list before we exit
 			//the sync block, otherwise two jobs with conflicting rules could start at once
 			if (job != null) {
@@ -1003,6 +1814,32 @@ public class JobManager implements IJobManager {
 		}
 	}
 
+	/**
+	 * Returns the first waiting job whose priority is at least the given priority
+	 * and that is not blocked, or null if there is no such job. Blocked jobs found
+	 * on the way are queued after the job that is blocking them, or held back by
+	 * their group, as in nextJob.
+	 * @GuardedBy("lock")
+	 */
+	private InternalJob nextJobWithPriority(int lowestPriority) {
+		InternalJob job;
+		//blocking a job takes it out of the wait queue, so each pass finds the next candidate
+		while ((job = waiting.peek(lowestPriority)) != null) {
+			InternalJob blocker = findBlockingJob(job);
+			if (blocker == null) {
+				if (!holdForGroup(job))
+					return job;
+				continue;
+			}
+			changeState(job, InternalJob.BLOCKED);
+			//assert job does not already belong to some other data structure
+			Assert.isTrue(job.next() == null);
+			Assert.isTrue(job.previous() == null);
+			blocker.addLast(job);
+		}
+		return null;
+	}
+
 	/* (non-Javadoc)
 	 * @see org.eclipse.core.runtime.jobs.IJobManager#removeJobListener(org.eclipse.core.runtime.jobs.IJobChangeListener)
 	 */
@@ -1010,6 +1847,15 @@ public class JobManager implements IJobManager {
 		jobListeners.remove(listener);
 	}
 
+	/**
+	 * Discards the timing statistics of the jobs that are done.
+	 */
+	public void resetStatistics() {
+		synchronized (lock) {
+			metrics.clear();
+		}
+	}
+
 	/**
 	 * Report to the progress monitor that this thread is blocked, supplying
 	 * an information message, and if possible the job that is causing the blockage.
@@ -1104,21 +1950,42 @@ public class JobManager implements IJobManager {
 			throw new IllegalStateException("Job manager has been shut down."); //$NON-NLS-1$
 		Assert.isNotNull(job, "Job is null"); //$NON-NLS-1$
 		Assert.isLegal(delay >= 0, "Scheduling delay is negative"); //$NON-NLS-1$
+		IStatus refused = null;
+		JobFuture future = null;
+		List dropped = null;
+		boolean admitted = false;
 		synchronized (lock) {
-			//if the job is already running, set it to be rescheduled when done
-			if (job.getState() == Job.RUNNING) {
-				job.setStartTime(delay);
-				return;
+			//apply the queue limits before the job counts against them
+			if (job.internalGetState() == Job.NONE && isLimited()) {
+				dropped = new ArrayList(2);
+				refused = admit(job, dropped);
+			}
+			if (refused != null) {
+				job.setResult(refused);
+				future = job.internalGetFuture();
+				job.internalSetFuture(null);
+			} else if (job.internalGetState() != Job.NONE) {
+				//can't schedule a job that is running, waiting or sleeping
+				scheduleAgain(job, delay);
+			} else {
+				if (JobManager.DEBUG)
+					JobManager.debug("Scheduling job: " + job); //$NON-NLS-1$
+				//remember that we are about to schedule the job
+				//to prevent multiple schedule attempts from succeeding (bug 68452)
+				changeState(job, InternalJob.ABOUT_TO_SCHEDULE);
+				delay = coalescingDelay(job, delay);
+				admitted = true;
 			}
-			//can't schedule a job that is waiting or sleeping
-			if (job.internalGetState() != Job.NONE)
-				return;
-			if (JobManager.DEBUG)
-				JobManager.debug("Scheduling job: " + job); //$NON-NLS-1$
-			//remember that we are about to schedule the job
-			//to prevent multiple schedule attempts from succeeding (bug 68452)
-			changeState(job, InternalJob.ABOUT_TO_SCHEDULE);
 		}
+		cancelDropped(dropped);
+		//report a refused job as done without running it
+		if (refused != null) {
+			jobListeners.done((Job) job, refused, false);
+			if (future != null)
+				future.complete(refused);
+		}
+		if (!admitted)
+			return;
 		//notify listeners outside sync block
 		jobListeners.scheduled((Job) job, delay, reschedule);
 		//schedule the job
@@ -1127,6 +1994,118 @@ public class JobManager implements IJobManager {
 		pool.jobQueued();
 	}
 
+	/**
+	 * Handles a request to schedule a job that is already running, waiting or
+	 * sleeping. A running job is set to be rescheduled when done. A job that
+	 * coalesces schedule requests merges the request into the run it is already
+	 * scheduled for, and if it is sleeping, postpones that run to the end of its
+	 * coalescing window, within its maximum latency.
+	 * @GuardedBy("lock")
+	 */
+	private void scheduleAgain(InternalJob job, long delay) {
+		long window = job.getCoalescingWindow();
+		if (job.getState() == Job.RUNNING) {
+			if (window > 0) {
+				if (job.getStartTime() > InternalJob.T_NONE)
+					job.internalAddCoalesced();
+				delay = Math.max(delay, window);
+			}
+			//set the job to be rescheduled when done
+			job.setStartTime(delay);
+			return;
+		}
+		if (window == 0)
+			return;
+		job.internalAddCoalesced();
+		if (job.internalGetState() != Job.SLEEPING || job.getStartTime() == InternalJob.T_INFINITE)
+			return;
+		long start = Math.min(System.currentTimeMillis() + Math.max(delay, window), job.getCoalescingDeadline());
+		//the job keeps its slot in the wheel of sleeping jobs, and goes
+		//back to sleep when it wakes up there before its new start time
+		if (start > job.getStartTime())
+			job.setStartTime(start);
+	}
+
+	/**
+	 * Returns the delay to schedule a job with. A job that coalesces schedule
+	 * requests sleeps for at least its coalescing window, and must start within
+	 * its maximum latency.
+	 * @GuardedBy("lock")
+	 */
+	private long coalescingDelay(InternalJob job, long delay) {
+		long window = job.getCoalescingWindow();
+		if (window == 0)
+			return delay;
+		delay = Math.max(delay, window);
+		job.setCoalescingDeadline(System.currentTimeMillis() + Math.max(delay, job.getCoalescingLatency()));
+		return delay;
+	}
+
+	/* (non-Javadoc)
+	 * @see IJobManager#schedule(Job[], long)
+	 */
+	public void schedule(Job[] jobs, long delay) {
+		if (!active)
+			throw new IllegalStateException("Job manager has been shut down."); //$NON-NLS-1$
+		Assert.isNotNull(jobs, "Jobs are null"); //$NON-NLS-1$
+		Assert.isLegal(delay >= 0, "Scheduling delay is negative"); //$NON-NLS-1$
+		Job[] toSchedule = new Job[jobs.length];
+		int count = 0;
+		for (int i = 0; i < jobs.length; i++) {
+			Assert.isNotNull(jobs[i], "Job is null"); //$NON-NLS-1$
+			//ask the job outside sync block as it is third party code
+			if (jobs[i].shouldSchedule())
+				toSchedule[count++] = jobs[i];
+		}
+		boolean limited;
+		synchronized (lock) {
+			limited = isLimited();
+		}
+		//admit the jobs one at a time when the queue is limited
+		if (limited) {
+			for (int i = 0; i < count; i++)
+				schedule(toSchedule[i], delay, false);
+			return;
+		}
+		int scheduled = 0;
+		long[] delays = new long[count];
+		synchronized (lock) {
+			for (int i = 0; i < count; i++) {
+				InternalJob job = toSchedule[i];
+				//can't schedule a job that is running, waiting or sleeping, or that appears twice
+				if (job.internalGetState() != Job.NONE) {
+					scheduleAgain(job, delay);
+					continue;
+				}
+				if (JobManager.DEBUG)
+					JobManager.debug("Scheduling job: " + job); //$NON-NLS-1$
+				//remember that we are about to schedule the job
+				//to prevent multiple schedule attempts from succeeding (bug 68452)
+				changeState(job, InternalJob.ABOUT_TO_SCHEDULE);
+				delays[scheduled] = coalescingDelay(job, delay);
+				toSchedule[scheduled++] = (Job) job;
+			}
+		}
+		if (scheduled == 0)
+			return;
+		//notify listeners outside sync block
+		jobListeners.scheduled(toSchedule, delays, scheduled);
+		//schedule the jobs in order
+		int ready = 0;
+		synchronized (lock) {
+			for (int i = 0; i < scheduled; i++) {
+				doSchedule(toSchedule[i], delays[i]);
+				if (((InternalJob) toSchedule[i]).internalGetState() == Job.WAITING)
+					ready++;
+			}
+		}
+		//call the pool outside sync block to avoid deadlock
+		if (ready > 0)
+			pool.jobsQueued(ready);
+		else
+			pool.jobQueued();
+	}
+
 	/**
 	 * Adds all family members in the list of jobs to the collection
 	 */
@@ -1142,6 +2121,17 @@ public class JobManager implements IJobManager {
 		} while (job != null && job != firstJob);
 	}
 
+	/**
+	 * Adds all family members in the given queue to the collection
+	 */
+	private void select(List members, Object family, Iterator queue, int stateMask) {
+		while (queue.hasNext()) {
+			InternalJob job = (InternalJob) queue.next();
+			if ((family == null || job.belongsTo(family)) && ((job.getState() & stateMask) != 0))
+				members.add(job);
+		}
+	}
+
 	/**
 	 * Returns a list of all jobs known to the job manager that belong to the given family.
 	 */
@@ -1156,19 +2146,27 @@ public class JobManager implements IJobManager {
 	private List select(Object family, int stateMask) {
 		List members = new ArrayList();
 		synchronized (lock) {
+			//use the index unless all jobs are wanted
+			if (family != null) {
+				families.select(members, family, stateMask);
+				return members;
+			}
 			if ((stateMask & Job.RUNNING) != 0) {
 				for (Iterator it = running.iterator(); it.hasNext();) {
 					select(members, family, (InternalJob) it.next(), stateMask);
 				}
 			}
 			if ((stateMask & Job.WAITING) != 0) {
-				select(members, family, waiting.peek(), stateMask);
+				select(members, family, waiting.iterator(), stateMask);
 				for (Iterator it = yielding.iterator(); it.hasNext();) {
 					select(members, family, (InternalJob) it.next(), stateMask);
 				}
+				for (Iterator it = pending.iterator(); it.hasNext();) {
+					select(members, family, (InternalJob) it.next(), stateMask);
+				}
 			}
 			if ((stateMask & Job.SLEEPING) != 0)
-				select(members, family, sleeping.peek(), stateMask);
+				select(members, family, sleeping.iterator(), stateMask);
 		}
 		return members;
 	}
@@ -1189,10 +2187,11 @@ public class JobManager implements IJobManager {
 			if (oldPriority == newPriority)
 				return;
 			job.internalSetPriority(newPriority);
-			//if the job is waiting to run, re-shuffle the queue
-			if (job.getState() == Job.WAITING) {
+			//if the job is in the wait queue, re-shuffle the queue. Blocked jobs are not in
+			//the queue, and are queued with their new priority once they are unblocked
+			if (job.internalGetState() == Job.WAITING) {
 				long oldStart = job.getStartTime();
-				job.setStartTime(oldStart + (delayFor(newPriority) - delayFor(oldPriority)));
+				job.setStartTime(oldStart + (queueOrder.getPriorityOffset(delayFor(newPriority)) - queueOrder.getPriorityOffset(delayFor(oldPriority))));
 				waiting.resort(job);
 			}
 		}
@@ -1205,6 +2204,234 @@ public class JobManager implements IJobManager {
 		progressProvider = provider;
 	}
 
+	/* (non-Javadoc)
+	 * @see Job#setCoalescing
+	 */
+	public void setCoalescing(InternalJob job, long window, long maxLatency) {
+		Assert.isLegal(window >= 0, "Coalescing window is negative"); //$NON-NLS-1$
+		Assert.isLegal(maxLatency >= window, "Coalescing latency is less than the window"); //$NON-NLS-1$
+		synchronized (lock) {
+			job.internalSetCoalescing(window, maxLatency);
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see Job#setFamilies
+	 */
+	public void setFamilies(InternalJob job, Object[] families) {
+		Object[] copy = null;
+		if (families != null) {
+			copy = new Object[families.length];
+			for (int i = 0; i < families.length; i++) {
+				Assert.isNotNull(families[i]);
+				copy[i] = families[i];
+			}
+		}
+		synchronized (lock) {
+			//cannot change the families of a job that is already known to the index
+			Assert.isLegal(job.getState() == Job.NONE);
+			job.internalSetFamilies(copy);
+		}
+	}
+
+	/**
+	 * Sets the policy that orders the jobs of one priority in the wait queue,
+	 * by the name used for the queue order property. Jobs that are already
+	 * waiting keep their position.
+	 * @see #PROP_QUEUE_ORDER
+	 */
+	public void setQueueOrder(String name) {
+		synchronized (lock) {
+			queueOrder = QueueOrder.forName(name, shareWeights);
+		}
+	}
+
+	/**
+	 * Limits the number of jobs that may be queued at once, that is scheduled
+	 * but not yet running, either of all jobs or of the jobs of one family. The
+	 * policy decides what happens to jobs that are scheduled while the limit is
+	 * reached, by the name used for the queue policy property. Jobs that are
+	 * refused, dropped or merged into another job are reported as done with a
+	 * result that has the {@link #QUEUE_FULL} code. A maximum of zero removes
+	 * the limit.
+	 * @param family the family to limit, or <code>null</code> to limit all jobs
+	 * @see #PROP_QUEUE_POLICY
+	 */
+	public void setQueueLimit(Object family, int maxDepth, String policy) {
+		Assert.isLegal(maxDepth >= 0, "Maximum queue depth is negative"); //$NON-NLS-1$
+		synchronized (lock) {
+			AdmissionLimit limit = null;
+			if (maxDepth > 0) {
+				limit = new AdmissionLimit(maxDepth, AdmissionLimit.policyForName(policy));
+				//count the jobs that are already queued
+				for (Iterator it = select(family, Job.WAITING | Job.SLEEPING | Job.RUNNING).iterator(); it.hasNext();) {
+					InternalJob job = (InternalJob) it.next();
+					if (AdmissionLimit.isQueued(job.internalGetState()))
+						limit.add(job);
+				}
+			}
+			if (family == null)
+				queueLimit = limit;
+			else if (limit == null)
+				familyLimits.remove(family);
+			else
+				familyLimits.put(family, limit);
+			//the threads waiting for room must check the new limit
+			if (blockedProducers > 0)
+				lock.notifyAll();
+		}
+	}
+
+	/**
+	 * Sets the weight of the given job family in the fair share queue order.
+	 * A family with twice the weight of another gets twice as many turns when
+	 * both have jobs waiting. Families have a weight of one by default.
+	 * @see #PROP_SHARE_WEIGHTS
+	 */
+	public void setShareWeight(Object family, int weight) {
+		Assert.isNotNull(family);
+		Assert.isLegal(weight > 0, "Weight is not positive"); //$NON-NLS-1$
+		synchronized (lock) {
+			shareWeights.put(family, new Integer(weight));
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see Job#setDeadline
+	 */
+	public void setDeadline(InternalJob job, long deadline) {
+		Assert.isLegal(deadline >= 0, "Deadline is negative"); //$NON-NLS-1$
+		synchronized (lock) {
+			job.internalSetDeadline(deadline);
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see Job#setJobGroup
+	 */
+	public void setJobGroup(InternalJob job, InternalJobGroup group) {
+		synchronized (lock) {
+			//cannot change the group of a job that is already scheduled
+			Assert.isLegal(job.getState() == Job.NONE);
+			job.internalSetGroup(group);
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see JobGroup#cancel()
+	 */
+	void cancelGroup(InternalJobGroup group) {
+		//don't synchronize because cancel calls listeners
+		Job[] members = getGroupJobs(group);
+		for (int i = 0; i < members.length; i++)
+			cancel(members[i]);
+	}
+
+	/* (non-Javadoc)
+	 * @see JobGroup#getActiveJobs()
+	 */
+	Job[] getGroupJobs(InternalJobGroup group) {
+		synchronized (lock) {
+			Set members = group.internalGetMembers();
+			return (Job[]) members.toArray(new Job[members.size()]);
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see JobGroup#getFuture()
+	 */
+	IJobFuture getGroupFuture(InternalJobGroup group) {
+		JobFuture[] members;
+		synchronized (lock) {
+			members = getFutures(group.internalGetMembers());
+		}
+		return getFuture(members);
+	}
+
+	/**
+	 * Holds the given waiting job back if its group already runs as many members
+	 * as it may, and returns whether it did. A held job is kept by its group rather
+	 * than queued after a running member, so it does not count as blocked by a rule,
+	 * is never yielded to, and does not block jobs with conflicting rules. It goes
+	 * back to the wait queue when a member of its group stops running.
+	 * @GuardedBy("lock")
+	 */
+	private boolean holdForGroup(InternalJob job) {
+		InternalJobGroup group = job.internalGetGroup();
+		if (group == null || !group.internalIsFull())
+			return false;
+		changeState(job, InternalJob.BLOCKED);
+		conflicting.remove(job);
+		group.internalHold(job);
+		return true;
+	}
+
+	/**
+	 * Returns whether a job in the given state takes up one of the threads of
+	 * its group. A yielding job keeps its thread, so that resuming it never
+	 * exceeds the limit of its group.
+	 */
+	private static boolean isGroupActive(int state) {
+		return state == Job.RUNNING || state == InternalJob.ABOUT_TO_RUN || state == InternalJob.YIELDING;
+	}
+
+	/* (non-Javadoc)
+	 * @see Job#setPredecessors
+	 */
+	public void setPredecessors(InternalJob job, Job[] jobs) {
+		InternalJob[] copy = null;
+		if (jobs != null && jobs.length > 0) {
+			List unique = new ArrayList(jobs.length);
+			for (int i = 0; i < jobs.length; i++) {
+				Assert.isNotNull(jobs[i]);
+				if (!unique.contains(jobs[i]))
+					unique.add(jobs[i]);
+			}
+			copy = (InternalJob[]) unique.toArray(new InternalJob[unique.size()]);
+		}
+		synchronized (lock) {
+			//cannot change the predecessors of a job that is already scheduled
+			Assert.isLegal(job.getState() == Job.NONE);
+			if (copy != null)
+				Assert.isLegal(!dependsOn(copy, job, new HashSet()), "Job dependencies contain a cycle"); //$NON-NLS-1$
+			job.internalSetPredecessors(copy);
+		}
+	}
+
+	/**
+	 * Returns whether the given job is one of the given predecessors, or one of
+	 * their predecessors. The graph of predecessors is acyclic, except when it
+	 * contains the given job.
+	 * @GuardedBy("lock")
+	 */
+	private boolean dependsOn(InternalJob[] predecessors, InternalJob job, Set visited) {
+		for (int i = 0; i < predecessors.length; i++) {
+			InternalJob predecessor = predecessors[i];
+			if (predecessor == job)
+				return true;
+			if (!visited.add(predecessor))
+				continue;
+			InternalJob[] next = predecessor.internalGetPredecessors();
+			if (next != null && dependsOn(next, job, visited))
+				return true;
+		}
+		return false;
+	}
+
+	/* (non-Javadoc)
+	 * @see Job#getPredecessors
+	 */
+	public Job[] getPredecessors(InternalJob job) {
+		synchronized (lock) {
+			InternalJob[] predecessors = job.internalGetPredecessors();
+			if (predecessors == null)
+				return null;
+			Job[] result = new Job[predecessors.length];
+			System.arraycopy(predecessors, 0, result, 0, predecessors.length);
+			return result;
+		}
+	}
+
 	/* (non-Javadoc)
 	 * @see Job#setRule
 	 */
@@ -1238,6 +2465,9 @@ public class JobManager implements IJobManager {
 				case Job.NONE :
 					return true;
 				case Job.WAITING :
+					//cannot be paused while waiting for its predecessors
+					if (job.internalGetState() == InternalJob.PENDING)
+						return false;
 					//put the job to sleep
 					break;
 			}
@@ -1264,17 +2494,31 @@ public class JobManager implements IJobManager {
 	 * there are no sleeping or waiting jobs.
 	 */
 	protected long sleepHint() {
+		return sleepHint(Job.DECORATE);
+	}
+
+	/**
+	 * Returns the estimated time in milliseconds before the next job whose
+	 * priority is at least the given priority may be started. Waiting jobs with
+	 * a lower priority are ignored, sleeping jobs are not.
+	 */
+	protected long sleepHint(int lowestPriority) {
 		synchronized (lock) {
 			//wait forever if job manager is suspended
 			if (suspended)
 				return InternalJob.T_INFINITE;
-			if (!waiting.isEmpty())
-				return 0L;
+			if (!waiting.isEmpty()) {
+				if (lowestPriority >= Job.DECORATE)
+					return 0L;
+				for (Iterator it = waiting.iterator(); it.hasNext();)
+					if (((InternalJob) it.next()).getPriority() <= lowestPriority)
+						return 0L;
+			}
 			//return the anticipated time that the next sleeping job will wake
-			InternalJob next = sleeping.peek();
-			if (next == null)
+			long next = sleeping.nextDueTime();
+			if (next == InternalJob.T_INFINITE)
 				return InternalJob.T_INFINITE;
-			return next.getStartTime() - System.currentTimeMillis();
+			return next - System.currentTimeMillis();
 		}
 	}
 
@@ -1469,13 +2713,14 @@ public class JobManager implements IJobManager {
 	}
 
 	/**
-	 * Returns the next job to be run, or null if no jobs are waiting to run.
-	 * The worker must call endJob when the job is finished running.  
+	 * Returns the next job to be run whose priority is at least the given priority,
+	 * or null if no such jobs are waiting to run. The worker must call endJob when
+	 * the job is finished running.  
 	 */
-	protected Job startJob() {
+	protected Job startJob(int lowestPriority) {
 		Job job = null;
 		while (true) {
-			job = nextJob();
+			job = nextJob(lowestPriority);
 			if (job == null)
 				return null;
 			//must perform this outside sync block because it is third party code
@@ -1493,6 +2738,8 @@ public class JobManager implements IJobManager {
 							internal.setProgressMonitor(createMonitor(job));
 							//change from ABOUT_TO_RUN to RUNNING
 							internal.internalSetState(Job.RUNNING);
+							if (recorder != null)
+								recorder.recordState(internal, InternalJob.ABOUT_TO_RUN, Job.RUNNING);
 							internal.jobStateLock.notifyAll();
 							break;
 						}
@@ -1,5 +1,5 @@
 /**********************************************************************
- * Copyright (c) 2005, 2008 IBM Corporation and others. All rights reserved.   This
+ * Copyright (c) 2005, 2012 IBM Corporation and others. All rights reserved.   This
  * program and the accompanying materials are made available under the terms of
  * the Eclipse Public License v1.0 which accompanies this distribution, and is
  * available at http://www.eclipse.org/legal/epl-v10.html
@@ -22,6 +22,9 @@ public class JobMessages extends NLS {
 	public static String jobs_blocked0;
 	public static String jobs_blocked1;
 	public static String jobs_internalError;
+	public static String jobs_queueCoalesced;
+	public static String jobs_queueDropped;
+	public static String jobs_queueFull;
 	public static String jobs_waitFamSub;
 	public static String jobs_waitFamSubOne;
 	// metadata
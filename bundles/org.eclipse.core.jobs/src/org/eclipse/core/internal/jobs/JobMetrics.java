@@ -0,0 +1,156 @@
+/*******************************************************************************
+ * Copyright (c) 2012 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.core.internal.jobs;
+
+import java.lang.ref.WeakReference;
+import java.util.*;
+import org.eclipse.core.runtime.IStatus;
+
+/**
+ * Aggregates the timing and resource usage of finished jobs per job class
+ * and per declared family. Recording a job only allocates the first time its
+ * class or one of its families is seen. Jobs that do not declare their
+ * families are only counted for their class, because asking a job whether it
+ * belongs to a family calls client code.
+ *
+ * Implementation note: this class is not thread safe. All access must be
+ * synchronized on the job manager lock.
+ */
+class JobMetrics {
+	/**
+	 * The maximum number of classes and the maximum number of families that
+	 * are tracked at once. Jobs of further classes or families are not counted
+	 * for them, so that families that are created per job do not use up memory.
+	 * Families are held weakly, so a family that is no longer used frees its
+	 * slot once it is garbage collected.
+	 */
+	static final int MAX_KEYS = 256;
+
+	/**
+	 * Maps job class name (String) -> JobStatistics
+	 */
+	private final HashMap byClass = new HashMap();
+
+	/**
+	 * Maps family (Object) -> JobStatistics. The statistics do not refer to
+	 * their family, which would keep it from being collected.
+	 */
+	private final WeakHashMap byFamily = new WeakHashMap();
+
+	/**
+	 * Maps job class name (String) -> WeakReference to the first class of that
+	 * name, so that the statistics of a class can be attributed to its bundle
+	 * without keeping the bundle from being uninstalled.
+	 */
+	private final HashMap classes = new HashMap();
+
+	/**
+	 * Merges the given statistics per job class into statistics per bundle.
+	 * Classes whose bundle cannot be determined are merged under a
+	 * <code>null</code> key. Looks up bundles in the framework, and therefore
+	 * must not be called while holding the job manager lock.
+	 */
+	static JobStatistics[] bundleStatistics(JobStatistics[] classStatistics, Class[] types) {
+		//maps bundle id (String) -> JobStatistics
+		HashMap byBundle = new HashMap();
+		for (int i = 0; i < classStatistics.length; i++) {
+			String bundle = types[i] == null ? null : JobOSGiUtils.getDefault().getBundleId(types[i]);
+			JobStatistics statistics = (JobStatistics) byBundle.get(bundle);
+			if (statistics == null) {
+				statistics = new JobStatistics(bundle);
+				byBundle.put(bundle, statistics);
+			}
+			statistics.add(classStatistics[i]);
+		}
+		Collection values = byBundle.values();
+		return (JobStatistics[]) values.toArray(new JobStatistics[values.size()]);
+	}
+
+	private static JobStatistics[] snapshot(Map map) {
+		ArrayList result = new ArrayList(map.size());
+		for (Iterator it = map.entrySet().iterator(); it.hasNext();) {
+			Map.Entry entry = (Map.Entry) it.next();
+			result.add(new JobStatistics(entry.getKey(), (JobStatistics) entry.getValue()));
+		}
+		return (JobStatistics[]) result.toArray(new JobStatistics[result.size()]);
+	}
+
+	private static JobStatistics statisticsFor(Map map, Object key) {
+		JobStatistics statistics = (JobStatistics) map.get(key);
+		if (statistics == null && map.size() < MAX_KEYS) {
+			//the key is filled in by snapshot
+			statistics = new JobStatistics(null);
+			map.put(key, statistics);
+		}
+		return statistics;
+	}
+
+	/**
+	 * Returns a copy of the statistics per job class.
+	 */
+	JobStatistics[] classStatistics() {
+		return snapshot(byClass);
+	}
+
+	/**
+	 * Returns the classes of the given statistics per job class, or null for
+	 * classes that were unloaded.
+	 */
+	Class[] classesOf(JobStatistics[] classStatistics) {
+		Class[] result = new Class[classStatistics.length];
+		for (int i = 0; i < result.length; i++) {
+			WeakReference type = (WeakReference) classes.get(classStatistics[i].getKey());
+			result[i] = type == null ? null : (Class) type.get();
+		}
+		return result;
+	}
+
+	/**
+	 * Discards all recorded statistics.
+	 */
+	void clear() {
+		byClass.clear();
+		byFamily.clear();
+		classes.clear();
+	}
+
+	/**
+	 * Returns a copy of the statistics per family.
+	 */
+	JobStatistics[] familyStatistics() {
+		return snapshot(byFamily);
+	}
+
+	/**
+	 * Records a job that is done, with its result.
+	 */
+	void record(InternalJob job, IStatus result) {
+		//thread jobs are the rules of threads, not jobs of their own
+		if (job instanceof ThreadJob)
+			return;
+		int severity = result.getSeverity();
+		String className = job.getClass().getName();
+		JobStatistics statistics = statisticsFor(byClass, className);
+		if (statistics != null) {
+			statistics.record(job, severity);
+			if (!classes.containsKey(className))
+				classes.put(className, new WeakReference(job.getClass()));
+		}
+		Object[] families = job.internalGetFamilies();
+		if (families == null)
+			return;
+		for (int i = 0; i < families.length; i++) {
+			statistics = statisticsFor(byFamily, families[i]);
+			if (statistics != null)
+				statistics.record(job, severity);
+		}
+	}
+}
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2005, 2007 IBM Corporation and others.
+ * Copyright (c) 2005, 2012 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -10,6 +10,8 @@
  *******************************************************************************/
 package org.eclipse.core.internal.jobs;
 
+import java.util.Map;
+import java.util.StringTokenizer;
 import org.eclipse.core.runtime.jobs.IJobManager;
 import org.eclipse.osgi.service.debug.DebugOptions;
 import org.osgi.framework.Bundle;
@@ -94,22 +96,112 @@ class JobOSGiUtils {
 	 * <code>null</code> if the bundle could not be determined.
 	 */
 	public String getBundleId(Object object) {
+		return object == null ? null : getBundleId(object.getClass());
+	}
+
+	/**
+	 * Returns the bundle id of the bundle that contains the provided class, or
+	 * <code>null</code> if the bundle could not be determined.
+	 */
+	String getBundleId(Class clazz) {
 		if (bundleTracker == null) {
 			if (JobManager.DEBUG)
 				JobMessages.message("Bundle tracker is not set"); //$NON-NLS-1$
 			return null;
 		}
 		PackageAdmin packageAdmin = (PackageAdmin) bundleTracker.getService();
-		if (object == null)
-			return null;
 		if (packageAdmin == null)
 			return null;
-		Bundle source = packageAdmin.getBundle(object.getClass());
+		Bundle source = packageAdmin.getBundle(clazz);
 		if (source != null && source.getSymbolicName() != null)
 			return source.getSymbolicName();
 		return null;
 	}
 
+	/**
+	 * Returns whether the job manager should keep its queues in binary heaps
+	 * rather than linked lists. Defaults to <code>false</code>.
+	 */
+	boolean useHeapQueues() {
+		return "true".equalsIgnoreCase(getProperty(JobManager.PROP_HEAP_QUEUES)); //$NON-NLS-1$
+	}
+
+	/**
+	 * Returns the integer value of the given property, or the default value if
+	 * the property is absent or not a valid integer.
+	 */
+	int getIntProperty(String key, int defaultValue) {
+		String value = getProperty(key);
+		if (value == null)
+			return defaultValue;
+		try {
+			return Integer.parseInt(value.trim());
+		} catch (NumberFormatException e) {
+			return defaultValue;
+		}
+	}
+
+	/**
+	 * Returns the value of the given property from the bundle context, or from
+	 * the system properties when running stand-alone.
+	 */
+	private String getProperty(String key) {
+		BundleContext context = JobActivator.getContext();
+		return context == null ? System.getProperty(key) : context.getProperty(key);
+	}
+
+	/**
+	 * Returns the policy that orders the jobs of one priority in the wait
+	 * queue. Defaults to ordering them by the time they became due.
+	 */
+	QueueOrder getQueueOrder(Map weights) {
+		return QueueOrder.forName(getProperty(JobManager.PROP_QUEUE_ORDER), weights);
+	}
+
+	/**
+	 * Returns the limit on the number of queued jobs, or null if the number
+	 * is not limited.
+	 */
+	AdmissionLimit getQueueLimit() {
+		int maxDepth = getIntProperty(JobManager.PROP_QUEUE_MAX_DEPTH, 0);
+		if (maxDepth <= 0)
+			return null;
+		return new AdmissionLimit(maxDepth, AdmissionLimit.policyForName(getProperty(JobManager.PROP_QUEUE_POLICY)));
+	}
+
+	/**
+	 * Adds the fair share weights of the job families from the share weights
+	 * property to the given map, in the form "family=weight,family=weight".
+	 * Entries that are not well formed or whose weight is not positive are ignored.
+	 */
+	void getShareWeights(Map weights) {
+		String value = getProperty(JobManager.PROP_SHARE_WEIGHTS);
+		if (value == null)
+			return;
+		StringTokenizer entries = new StringTokenizer(value, ","); //$NON-NLS-1$
+		while (entries.hasMoreTokens()) {
+			String entry = entries.nextToken();
+			int separator = entry.lastIndexOf('=');
+			if (separator <= 0)
+				continue;
+			try {
+				int weight = Integer.parseInt(entry.substring(separator + 1).trim());
+				if (weight > 0)
+					weights.put(entry.substring(0, separator).trim(), new Integer(weight));
+			} catch (NumberFormatException e) {
+				//ignore this entry
+			}
+		}
+	}
+
+	/**
+	 * Returns whether the job manager should run jobs on virtual threads.
+	 * Defaults to <code>false</code>.
+	 */
+	boolean useVirtualThreads() {
+		return "true".equalsIgnoreCase(getProperty(IJobManager.PROP_USE_VIRTUAL_THREADS)); //$NON-NLS-1$
+	}
+
 	/**
 	 * Calculates whether the job plugin should set worker threads to be daemon 
 	 * threads.  When workers are daemon threads, the job plugin does not need
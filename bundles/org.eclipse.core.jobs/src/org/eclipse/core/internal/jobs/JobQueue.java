@@ -1,5 +1,5 @@
 /*******************************************************************************
- *  Copyright (c) 2003, 2010 IBM Corporation and others.
+ *  Copyright (c) 2003, 2012 IBM Corporation and others.
  *  All rights reserved. This program and the accompanying materials
  *  are made available under the terms of the Eclipse Public License v1.0
  *  which accompanies this distribution, and is available at
@@ -14,7 +14,9 @@ import java.util.Iterator;
 import org.eclipse.core.runtime.*;
 
 /**
- * A linked list based priority queue. 
+ * A linked list based priority queue. A queue can alternatively be backed by a
+ * binary heap, which avoids walking the list when many jobs are queued.
+ * @see JobHeap
  */
 public final class JobQueue {
 	/**
@@ -32,6 +34,12 @@ public final class JobQueue {
 
 	private final boolean allowPriorityOvertaking;
 
+	/**
+	 * The heap holding the jobs of this queue, or null if the jobs are
+	 * kept in the linked list.
+	 */
+	private final JobHeap heap;
+
 	/**
 	 * Create a new job queue. 
 	 */
@@ -43,6 +51,16 @@ public final class JobQueue {
 	 * Create a new job queue. 
 	 */
 	public JobQueue(boolean allowConflictOvertaking, boolean allowPriorityOvertaking) {
+		this(allowConflictOvertaking, allowPriorityOvertaking, false);
+	}
+
+	/**
+	 * Create a new job queue. 
+	 * @param useHeap <code>true</code> if the queue should be backed by a
+	 * binary heap, and <code>false</code> if it should be a linked list
+	 */
+	public JobQueue(boolean allowConflictOvertaking, boolean allowPriorityOvertaking, boolean useHeap) {
+		this.heap = useHeap ? new JobHeap(allowConflictOvertaking, allowPriorityOvertaking) : null;
 		this.allowPriorityOvertaking = allowPriorityOvertaking;
 		//compareTo on dummy is never called
 		dummy = new InternalJob("Queue-Head") {//$NON-NLS-1$
@@ -59,6 +77,10 @@ public final class JobQueue {
 	 * remove all elements 
 	 */
 	public void clear() {
+		if (heap != null) {
+			heap.clear();
+			return;
+		}
 		dummy.setNext(dummy);
 		dummy.setPrevious(dummy);
 	}
@@ -67,6 +89,8 @@ public final class JobQueue {
 	 * Return and remove the element with highest priority, or null if empty. 
 	 */
 	public InternalJob dequeue() {
+		if (heap != null)
+			return heap.dequeue();
 		InternalJob toRemove = dummy.previous();
 		if (toRemove == dummy)
 			return null;
@@ -77,6 +101,10 @@ public final class JobQueue {
 	 * Adds an item to the queue 
 	 */
 	public void enqueue(InternalJob newEntry) {
+		if (heap != null) {
+			heap.enqueue(newEntry);
+			return;
+		}
 		//assert new entry is does not already belong to some other data structure
 		Assert.isTrue(newEntry.next() == null);
 		Assert.isTrue(newEntry.previous() == null);
@@ -115,15 +143,21 @@ public final class JobQueue {
 	 * Removes the given element from the queue. 
 	 */
 	public void remove(InternalJob toRemove) {
+		if (heap != null) {
+			heap.remove(toRemove);
+			return;
+		}
 		toRemove.remove();
 		//previous of toRemove might now bubble up
 	}
 
 	/**
 	 * The given object has changed priority. Reshuffle the heap until it is
-	 * valid.
+	 * valid. Has no effect on a heap backed queue if the element is not in it.
 	 */
 	public void resort(InternalJob entry) {
+		if (heap != null && entry.getQueueIndex() < 0)
+			return;
 		remove(entry);
 		enqueue(entry);
 	}
@@ -132,6 +166,8 @@ public final class JobQueue {
 	 * Returns true if the queue is empty, and false otherwise. 
 	 */
 	public boolean isEmpty() {
+		if (heap != null)
+			return heap.isEmpty();
 		return dummy.next() == dummy;
 	}
 
@@ -139,10 +175,27 @@ public final class JobQueue {
 	 * Return greatest element without removing it, or null if empty 
 	 */
 	public InternalJob peek() {
+		if (heap != null)
+			return heap.peek();
 		return dummy.previous() == dummy ? null : dummy.previous();
 	}
 
+	/**
+	 * Returns the greatest element whose priority is at least the given
+	 * priority without removing it, or null if there is none.
+	 */
+	public InternalJob peek(int lowestPriority) {
+		if (heap != null)
+			return heap.peek(lowestPriority);
+		for (InternalJob job = dummy.previous(); job != dummy; job = job.previous())
+			if (job.getPriority() <= lowestPriority)
+				return job;
+		return null;
+	}
+
 	public Iterator iterator() {
+		if (heap != null)
+			return heap.iterator();
 		return new Iterator() {
 			InternalJob pointer = dummy;
 
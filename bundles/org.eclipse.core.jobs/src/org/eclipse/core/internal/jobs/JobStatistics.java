@@ -0,0 +1,243 @@
+/*******************************************************************************
+ * Copyright (c) 2012 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.core.internal.jobs;
+
+import org.eclipse.core.runtime.IStatus;
+
+/**
+ * Timing and resource statistics of the finished jobs of one job class,
+ * family or bundle. The time a job spends in each state, and the CPU time
+ * and memory it used while running, are recorded when the job is done.
+ * Resources that the VM cannot measure, for example on virtual threads, are
+ * not counted, and the number of jobs whose resources were measured is kept
+ * along with the totals.
+ *
+ * Implementation note: recording is not thread safe. Statistics that are
+ * handed out to clients are copies that are never changed.
+ */
+public final class JobStatistics {
+	private final Object key;
+	private long count;
+	private long canceled;
+	private long errors;
+	private long warnings;
+	private long missedDeadlines;
+	private long cpuTime;
+	private long allocatedBytes;
+	/**
+	 * The number of jobs whose CPU time and allocated memory were measured.
+	 */
+	private long cpuMeasured;
+	private long allocationMeasured;
+	private final Histogram queueTime;
+	private final Histogram blockedTime;
+	private final Histogram runTime;
+	private final Histogram lateness;
+
+	JobStatistics(Object key) {
+		this.key = key;
+		queueTime = new Histogram();
+		blockedTime = new Histogram();
+		runTime = new Histogram();
+		lateness = new Histogram();
+	}
+
+	/**
+	 * Creates a copy of the given statistics with the given key.
+	 */
+	JobStatistics(Object key, JobStatistics other) {
+		this.key = key;
+		count = other.count;
+		canceled = other.canceled;
+		errors = other.errors;
+		warnings = other.warnings;
+		missedDeadlines = other.missedDeadlines;
+		cpuTime = other.cpuTime;
+		allocatedBytes = other.allocatedBytes;
+		cpuMeasured = other.cpuMeasured;
+		allocationMeasured = other.allocationMeasured;
+		queueTime = new Histogram(other.queueTime);
+		blockedTime = new Histogram(other.blockedTime);
+		runTime = new Histogram(other.runTime);
+		lateness = new Histogram(other.lateness);
+	}
+
+	/**
+	 * Adds the statistics of the given jobs to these statistics.
+	 */
+	void add(JobStatistics other) {
+		count += other.count;
+		canceled += other.canceled;
+		errors += other.errors;
+		warnings += other.warnings;
+		missedDeadlines += other.missedDeadlines;
+		cpuTime += other.cpuTime;
+		allocatedBytes += other.allocatedBytes;
+		cpuMeasured += other.cpuMeasured;
+		allocationMeasured += other.allocationMeasured;
+		queueTime.add(other.queueTime);
+		blockedTime.add(other.blockedTime);
+		runTime.add(other.runTime);
+		lateness.add(other.lateness);
+	}
+
+	/**
+	 * Returns the total number of bytes allocated while running by the jobs
+	 * whose allocations could be measured, or -1 if there were jobs but none
+	 * of them could be measured.
+	 */
+	public long getAllocatedBytes() {
+		return allocationMeasured == 0 && count > 0 ? -1 : allocatedBytes;
+	}
+
+	/**
+	 * Returns the number of jobs whose allocated memory could be measured.
+	 */
+	public long getAllocationMeasuredCount() {
+		return allocationMeasured;
+	}
+
+	/**
+	 * Returns the time the jobs spent blocked by conflicting jobs, including
+	 * the time they spent yielding.
+	 */
+	public Histogram getBlockedTime() {
+		return blockedTime;
+	}
+
+	/**
+	 * Returns the number of jobs that were canceled.
+	 */
+	public long getCanceled() {
+		return canceled;
+	}
+
+	/**
+	 * Returns the total CPU time in nanoseconds used while running by the jobs
+	 * whose CPU time could be measured, or -1 if there were jobs but none of
+	 * them could be measured.
+	 */
+	public long getCpuTime() {
+		return cpuMeasured == 0 && count > 0 ? -1 : cpuTime;
+	}
+
+	/**
+	 * Returns the number of jobs whose CPU time could be measured.
+	 */
+	public long getCpuMeasuredCount() {
+		return cpuMeasured;
+	}
+
+	/**
+	 * Returns the number of jobs that are done.
+	 */
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * Returns the number of jobs that finished with an error.
+	 */
+	public long getErrors() {
+		return errors;
+	}
+
+	/**
+	 * Returns the job class name, the family or the bundle these statistics
+	 * belong to.
+	 */
+	public Object getKey() {
+		return key;
+	}
+
+	/**
+	 * Returns the time by which the jobs that missed their deadline started
+	 * late.
+	 */
+	public Histogram getLateness() {
+		return lateness;
+	}
+
+	/**
+	 * Returns the number of jobs that started after their deadline.
+	 */
+	public long getMissedDeadlines() {
+		return missedDeadlines;
+	}
+
+	/**
+	 * Returns the time the jobs spent in the wait queue.
+	 */
+	public Histogram getQueueTime() {
+		return queueTime;
+	}
+
+	/**
+	 * Returns the time the jobs spent running.
+	 */
+	public Histogram getRunTime() {
+		return runTime;
+	}
+
+	/**
+	 * Returns the number of jobs that finished with a warning.
+	 */
+	public long getWarnings() {
+		return warnings;
+	}
+
+	/**
+	 * Records a job that is done, with the severity of its result.
+	 */
+	void record(InternalJob job, int severity) {
+		count++;
+		if (severity == IStatus.CANCEL)
+			canceled++;
+		else if (severity == IStatus.ERROR)
+			errors++;
+		else if (severity == IStatus.WARNING)
+			warnings++;
+		queueTime.record(job.getQueueTime());
+		blockedTime.record(job.getBlockedTime());
+		runTime.record(job.getRunTime());
+		long cpu = job.getCpuTime();
+		if (cpu >= 0) {
+			cpuTime += cpu;
+			cpuMeasured++;
+		}
+		long allocated = job.getAllocatedBytes();
+		if (allocated >= 0) {
+			allocatedBytes += allocated;
+			allocationMeasured++;
+		}
+		long late = job.getLateness();
+		if (late > 0) {
+			missedDeadlines++;
+			lateness.record(late);
+		}
+	}
+
+	public String toString() {
+		StringBuffer buf = new StringBuffer("JobStatistics("); //$NON-NLS-1$
+		buf.append(key);
+		buf.append(", count=").append(count); //$NON-NLS-1$
+		buf.append(", canceled=").append(canceled); //$NON-NLS-1$
+		buf.append(", errors=").append(errors); //$NON-NLS-1$
+		buf.append(", warnings=").append(warnings); //$NON-NLS-1$
+		buf.append(", missedDeadlines=").append(missedDeadlines); //$NON-NLS-1$
+		buf.append(", queue=").append(queueTime); //$NON-NLS-1$
+		buf.append(", blocked=").append(blockedTime); //$NON-NLS-1$
+		buf.append(", run=").append(runTime); //$NON-NLS-1$
+		buf.append(", cpuTime=").append(cpuTime / 1000000).append("ms/").append(cpuMeasured); //$NON-NLS-1$ //$NON-NLS-2$
+		buf.append(", allocated=").append(allocatedBytes).append('/').append(allocationMeasured).append(')'); //$NON-NLS-1$
+		return buf.toString();
+	}
+}
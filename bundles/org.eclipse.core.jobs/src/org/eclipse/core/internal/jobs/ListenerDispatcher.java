@@ -0,0 +1,205 @@
+/*******************************************************************************
+ * Copyright (c) 2012 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.core.internal.jobs;
+
+import java.util.*;
+import org.eclipse.core.internal.jobs.JobListeners.IListenerDoit;
+import org.eclipse.core.runtime.jobs.IJobChangeEvent;
+import org.eclipse.core.runtime.jobs.IJobChangeListener;
+
+/**
+ * Delivers the notifications of asynchronous job change listeners on a
+ * thread of its own. Notifications are delivered in the order they were
+ * posted. Each time the thread wakes up, it takes all queued notifications
+ * and delivers them one listener at a time, so that a listener receives its
+ * notifications in a batch.
+ * <p>
+ * When the queue is full, the posting thread delivers the queued notifications
+ * itself, once the batch that is being delivered is done, so that a listener
+ * always receives the notifications of a job in order. Like synchronous
+ * listeners, asynchronous listeners must therefore not wait for jobs, rules or
+ * locks that the threads changing job states may hold.
+ * </p>
+ */
+class ListenerDispatcher extends Thread {
+	/**
+	 * The number of queued notifications at which posting threads deliver
+	 * the queued notifications themselves.
+	 */
+	static final int MAX_QUEUED = 1000;
+
+	/**
+	 * A notification waiting to be delivered.
+	 */
+	private static class Notification {
+		final IListenerDoit doit;
+		final IJobChangeListener listener;
+		final IJobChangeEvent event;
+
+		Notification(IListenerDoit doit, IJobChangeListener listener, IJobChangeEvent event) {
+			this.doit = doit;
+			this.listener = listener;
+			this.event = event;
+		}
+	}
+
+	private final JobListeners listeners;
+
+	/**
+	 * Held while a batch is delivered, so that batches are delivered one
+	 * after the other in the order they were taken from the queue.
+	 */
+	private final Object deliveryLock = new Object();
+
+	/**
+	 * Maps each job to the number of its notifications that are queued or
+	 * being delivered (Job -> int[1]).
+	 * @GuardedBy("this")
+	 */
+	private final IdentityHashMap pending = new IdentityHashMap();
+
+	/**
+	 * The notifications that have not been delivered yet.
+	 * @GuardedBy("this")
+	 */
+	private final LinkedList queue = new LinkedList();
+
+	/**
+	 * @GuardedBy("this")
+	 */
+	private boolean canceled = false;
+
+	ListenerDispatcher(JobListeners listeners) {
+		super("Worker-JM-Listeners"); //$NON-NLS-1$
+		this.listeners = listeners;
+	}
+
+	/**
+	 * Delivers the given notifications, grouped by listener. The listeners are
+	 * notified in the order of their first notification, and the notifications
+	 * of each listener are delivered in their original order.
+	 */
+	private void deliver(ArrayList batch) {
+		//maps listener -> List of its notifications
+		IdentityHashMap byListener = new IdentityHashMap();
+		ArrayList groups = new ArrayList();
+		for (int i = 0, size = batch.size(); i < size; i++) {
+			Notification notification = (Notification) batch.get(i);
+			List group = (List) byListener.get(notification.listener);
+			if (group == null) {
+				group = new ArrayList();
+				byListener.put(notification.listener, group);
+				groups.add(group);
+			}
+			group.add(notification);
+		}
+		for (int i = 0, size = groups.size(); i < size; i++) {
+			List group = (List) groups.get(i);
+			for (int j = 0, count = group.size(); j < count; j++) {
+				Notification next = (Notification) group.get(j);
+				listeners.notifyListener(next.doit, next.listener, next.event);
+			}
+		}
+		synchronized (this) {
+			for (int i = 0, size = batch.size(); i < size; i++) {
+				Object job = ((Notification) batch.get(i)).event.getJob();
+				int[] count = (int[]) pending.get(job);
+				if (--count[0] == 0)
+					pending.remove(job);
+			}
+			notifyAll();
+		}
+	}
+
+	/**
+	 * Delivers all queued notifications on the calling thread, after the
+	 * batch that is being delivered, if any.
+	 */
+	void flush() {
+		synchronized (deliveryLock) {
+			ArrayList batch;
+			synchronized (this) {
+				if (queue.isEmpty())
+					return;
+				batch = new ArrayList(queue);
+				queue.clear();
+			}
+			deliver(batch);
+		}
+	}
+
+	/**
+	 * Waits until the notifications about the given job that are queued or
+	 * being delivered have been delivered.
+	 */
+	synchronized void waitForDelivery(Object job) {
+		while (pending.containsKey(job) && Thread.currentThread() != this) {
+			try {
+				wait();
+			} catch (InterruptedException e) {
+				//loop
+			}
+		}
+	}
+
+	/**
+	 * Queues a notification. If this dispatcher has been canceled or its queue
+	 * is full, the calling thread delivers the queued notifications itself.
+	 */
+	void post(IListenerDoit doit, IJobChangeListener listener, IJobChangeEvent event) {
+		boolean flush;
+		synchronized (this) {
+			queue.add(new Notification(doit, listener, event));
+			Object job = event.getJob();
+			int[] count = (int[]) pending.get(job);
+			if (count == null)
+				pending.put(job, new int[] {1});
+			else
+				count[0]++;
+			//the dispatcher delivers what its listeners post once they return
+			flush = (canceled || queue.size() > MAX_QUEUED) && Thread.currentThread() != this;
+			if (!flush)
+				notifyAll();
+		}
+		if (flush)
+			flush();
+	}
+
+	/**
+	 * Delivers queued notifications until this dispatcher is canceled and
+	 * the queue is empty.
+	 */
+	public void run() {
+		while (true) {
+			synchronized (this) {
+				while (queue.isEmpty() && !canceled) {
+					try {
+						wait();
+					} catch (InterruptedException e) {
+						//loop
+					}
+				}
+				if (queue.isEmpty())
+					return;
+			}
+			flush();
+		}
+	}
+
+	/**
+	 * Terminates this thread once the queued notifications are delivered.
+	 * Notifications posted afterwards are rejected.
+	 */
+	synchronized void cancel() {
+		canceled = true;
+		notifyAll();
+	}
+}
@@ -1,5 +1,5 @@
 /*******************************************************************************
- *  Copyright (c) 2003, 2010 IBM Corporation and others.
+ *  Copyright (c) 2003, 2012 IBM Corporation and others.
  *  All rights reserved. This program and the accompanying materials
  *  are made available under the terms of the Eclipse Public License v1.0
  *  which accompanies this distribution, and is available at
@@ -65,6 +65,8 @@ public class LockManager {
 
 	//the lock listener for this lock manager
 	protected LockListener lockListener;
+	//records lock waits and deadlocks, or null
+	private FlightRecorder recorder;
 	/* 
 	 * The internal data structure that stores all the relationships 
 	 * between the locks (or rules) and the threads that own them.
@@ -149,6 +151,8 @@ public class LockManager {
 	 * This thread has just been refused a lock.  Update graph and check for deadlock.
 	 */
 	void addLockWaitThread(Thread thread, ISchedulingRule lock) {
+		if (recorder != null)
+			recorder.record(FlightRecorder.LOCK_WAIT, lock);
 		DeadlockDetector tempLocks = locks;
 		if (tempLocks == null)
 			return;
@@ -159,6 +163,8 @@ public class LockManager {
 			}
 			if (found == null)
 				return;
+			if (recorder != null)
+				recorder.record(FlightRecorder.DEADLOCK, found.getCandidate());
 			// if deadlock was detected, the found variable will contain all the information about it,
 			// including which locks to suspend for which thread to resolve the deadlock.
 			ISchedulingRule[] toSuspend = found.getLocks();
@@ -209,6 +215,14 @@ public class LockManager {
 		locks = null;
 	}
 
+	/**
+	 * Sets the recorder of lock waits and deadlocks. Must be called before
+	 * the lock manager is used.
+	 */
+	void setFlightRecorder(FlightRecorder recorder) {
+		this.recorder = recorder;
+	}
+
 	/**
 	 * Returns true IFF the underlying graph is empty.
 	 * For debugging purposes only.
@@ -223,8 +237,7 @@ public class LockManager {
 	public boolean isLockOwner() {
 		//all job threads have to be treated as lock owners because UI thread 
 		//may try to join a job
-		Thread current = Thread.currentThread();
-		if (current instanceof Worker)
+		if (Worker.current() != null)
 			return true;
 		DeadlockDetector tempLocks = locks;
 		if (tempLocks == null)
@@ -279,6 +292,8 @@ public class LockManager {
 	 * for the lock) then the graph remains unchanged.
 	 */
 	void removeLockWaitThread(Thread thread, ISchedulingRule lock) {
+		if (recorder != null)
+			recorder.record(FlightRecorder.LOCK_WAIT_END, lock);
 		DeadlockDetector tempLocks = locks;
 		if (tempLocks == null)
 			return;
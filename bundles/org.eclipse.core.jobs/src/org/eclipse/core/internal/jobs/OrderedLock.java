@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2003, 2010 IBM Corporation and others.
+ * Copyright (c) 2003, 2012 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -31,7 +31,11 @@ import org.eclipse.core.runtime.jobs.ISchedulingRule;
  * The lock implementation prevents starvation by granting the
  * lock in the same order in which acquire() requests arrive. In
  * this scheme, starvation is only possible if a thread retains
- * a lock indefinitely.
+ * a lock indefinitely. A released lock is handed to the first waiting
+ * thread, and only that thread is woken up.
+ * 
+ * The thread that owns the lock acquires it again without synchronizing
+ * on the lock, and a free lock is acquired with a single synchronization.
  */
 public class OrderedLock implements ILock, ISchedulingRule {
 
@@ -47,7 +51,9 @@ public class OrderedLock implements ILock, ISchedulingRule {
 	/**
 	 * Records the number of successive acquires in the same
 	 * thread. The lock is released only when the depth
-	 * reaches zero.
+	 * reaches zero. Only changed by the owning thread, or while
+	 * the owning thread waits for another lock and this lock is
+	 * suspended.
 	 */
 	private int depth;
 	/**
@@ -98,6 +104,12 @@ public class OrderedLock implements ILock, ISchedulingRule {
 	public boolean acquire(long delay) throws InterruptedException {
 		if (Thread.interrupted())
 			throw new InterruptedException();
+		//the owner can acquire the lock again without synchronizing on it
+		if (currentOperationThread == Thread.currentThread()) {
+			depth++;
+			manager.addLockThread(currentOperationThread, this);
+			return true;
+		}
 
 		boolean success = false;
 		if (delay <= 0)
@@ -122,6 +134,15 @@ public class OrderedLock implements ILock, ISchedulingRule {
 	 * true if the lock has been successfully acquired.
 	 */
 	private synchronized boolean attempt() {
+		return grant();
+	}
+
+	/**
+	 * Grants the lock to the current thread if it already owns the lock, or if
+	 * the lock is free and nobody is waiting. Returns whether the lock was granted.
+	 * @GuardedBy("this")
+	 */
+	private boolean grant() {
 		//return true if we already own the lock
 		//also, if nobody is waiting, grant the lock immediately
 		if ((currentOperationThread == Thread.currentThread()) || (currentOperationThread == null && operations.isEmpty())) {
@@ -145,7 +166,7 @@ public class OrderedLock implements ILock, ISchedulingRule {
 	 * otherwise a new semaphore will be created, enqueued, and returned.
 	 */
 	private synchronized Semaphore createSemaphore() {
-		return attempt() ? null : enqueue(new Semaphore(Thread.currentThread()));
+		return grant() ? null : enqueue(new Semaphore(Thread.currentThread()));
 	}
 
 	/**
@@ -200,8 +221,9 @@ public class OrderedLock implements ILock, ISchedulingRule {
 	/**
 	 * If there is another semaphore with the same runnable in the
 	 * queue, the other is returned and the new one is not added.
+	 * @GuardedBy("this")
 	 */
-	private synchronized Semaphore enqueue(Semaphore newSemaphore) {
+	private Semaphore enqueue(Semaphore newSemaphore) {
 		Semaphore semaphore = (Semaphore) operations.get(newSemaphore);
 		if (semaphore == null) {
 			operations.enqueue(newSemaphore);
@@ -290,8 +312,9 @@ public class OrderedLock implements ILock, ISchedulingRule {
 	/**
 	 * This lock has just been granted to a new thread (the thread waited for it).
 	 * Remove the request from the queue and update both the graph and the lock.
+	 * @GuardedBy("this")
 	 */
-	private synchronized void updateCurrentOperation() {
+	private void updateCurrentOperation() {
 		operations.dequeue();
 		setCurrentOperationThread(Thread.currentThread());
 	}
@@ -312,7 +335,7 @@ public class OrderedLock implements ILock, ISchedulingRule {
 			depth++;
 			updateCurrentOperation();
 		} else {
-			removeFromQueue(semaphore);
+			operations.remove(semaphore);
 			manager.removeLockWaitThread(Thread.currentThread(), this);
 		}
 		return acquired;
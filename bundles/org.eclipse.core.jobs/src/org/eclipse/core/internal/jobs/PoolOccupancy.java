@@ -0,0 +1,88 @@
+/*******************************************************************************
+ * Copyright (c) 2012 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.core.internal.jobs;
+
+/**
+ * A snapshot of the occupancy of the worker pool, used to choose the size
+ * of the pool.
+ */
+public final class PoolOccupancy {
+	private final int threads;
+	private final int busyThreads;
+	private final int runningJobs;
+	private final int peakThreads;
+	private final int maxThreads;
+	private final int saturations;
+
+	PoolOccupancy(int threads, int busyThreads, int runningJobs, int peakThreads, int maxThreads, int saturations) {
+		this.threads = threads;
+		this.busyThreads = busyThreads;
+		this.runningJobs = runningJobs;
+		this.peakThreads = peakThreads;
+		this.maxThreads = maxThreads;
+		this.saturations = saturations;
+	}
+
+	/**
+	 * Returns the number of worker threads that are not sleeping.
+	 */
+	public int getBusyThreads() {
+		return busyThreads;
+	}
+
+	/**
+	 * Returns the maximum number of worker threads, or Integer.MAX_VALUE if
+	 * the pool is not bounded.
+	 */
+	public int getMaxThreads() {
+		return maxThreads;
+	}
+
+	/**
+	 * Returns the largest number of worker threads that existed at the same time.
+	 */
+	public int getPeakThreads() {
+		return peakThreads;
+	}
+
+	/**
+	 * Returns the number of worker threads that are running a job.
+	 */
+	public int getRunningJobs() {
+		return runningJobs;
+	}
+
+	/**
+	 * Returns the number of times a job could not get a new worker thread
+	 * because the pool was at its maximum size.
+	 */
+	public int getSaturations() {
+		return saturations;
+	}
+
+	/**
+	 * Returns the number of worker threads.
+	 */
+	public int getThreads() {
+		return threads;
+	}
+
+	public String toString() {
+		StringBuffer buf = new StringBuffer("PoolOccupancy(threads="); //$NON-NLS-1$
+		buf.append(threads);
+		buf.append(", busy=").append(busyThreads); //$NON-NLS-1$
+		buf.append(", running=").append(runningJobs); //$NON-NLS-1$
+		buf.append(", peak=").append(peakThreads); //$NON-NLS-1$
+		buf.append(", max=").append(maxThreads); //$NON-NLS-1$
+		buf.append(", saturations=").append(saturations).append(')'); //$NON-NLS-1$
+		return buf.toString();
+	}
+}
@@ -0,0 +1,103 @@
+/*******************************************************************************
+ * Copyright (c) 2012 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.core.internal.jobs;
+
+import java.util.Map;
+
+/**
+ * The policy that orders the wait queue. Both the linked list and the heap
+ * backed queues order jobs by their start time, which the job manager sets
+ * when a job is due to run: the time returned by the policy plus the offset
+ * of the priority class of the job. The policy thus decides the order of the
+ * jobs of one priority, while the priority offsets keep the classes apart.
+ * @see FairShareOrder
+ */
+abstract class QueueOrder {
+	/**
+	 * Orders the jobs of one priority by the time they became due. This is the
+	 * default policy.
+	 */
+	static final QueueOrder PRIORITY = new QueueOrder("priority") { //$NON-NLS-1$
+		long getQueueTime(InternalJob job, long due) {
+			return due;
+		}
+	};
+
+	/**
+	 * Orders jobs by their priority, and the jobs of one priority by their
+	 * deadline, earliest deadline first. Jobs without a deadline come after
+	 * the jobs of their priority that have one, in the order they became due.
+	 * Unlike the other policies, a job that waits long does not overtake jobs
+	 * of a higher priority.
+	 */
+	static final QueueOrder DEADLINE = new QueueOrder("deadline") { //$NON-NLS-1$
+		/**
+		 * The deadline that jobs without one are ordered by. Longer deadlines
+		 * are cut to it, so that the deadline never moves a job into the
+		 * start times of the next class.
+		 */
+		private static final long NO_DEADLINE = 1L << 34;
+
+		/**
+		 * The start times of the priority classes are this many times the
+		 * delay of the class apart, which is far more than any deadline.
+		 */
+		private static final long CLASS_SCALE = 1L << 30;
+
+		long getQueueTime(InternalJob job, long due) {
+			long deadline = job.getDeadline();
+			return due + (deadline > 0 ? Math.min(deadline, NO_DEADLINE) : NO_DEADLINE);
+		}
+
+		long getPriorityOffset(long delay) {
+			return delay * CLASS_SCALE;
+		}
+	};
+
+	private final String name;
+
+	/**
+	 * Returns the policy with the given name, or the default policy if there
+	 * is no such policy. The fair share policy keeps state, so a new instance
+	 * is returned for it that takes the weights of its tenants from the given map.
+	 */
+	static QueueOrder forName(String name, Map weights) {
+		if (DEADLINE.name.equalsIgnoreCase(name))
+			return DEADLINE;
+		if ("fair".equalsIgnoreCase(name)) //$NON-NLS-1$
+			return new FairShareOrder(weights);
+		return PRIORITY;
+	}
+
+	QueueOrder(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * Returns the time that orders the given job among the jobs of its
+	 * priority, for a job that became due at the given time.
+	 */
+	abstract long getQueueTime(InternalJob job, long due);
+
+	/**
+	 * Returns the offset that is added to the queue time of the jobs of a
+	 * priority that tolerates the given delay. By default, the offset is the
+	 * delay itself, so that a job that has waited longer than the delay of its
+	 * priority overtakes jobs of a higher priority that became due later.
+	 */
+	long getPriorityOffset(long delay) {
+		return delay;
+	}
+
+	public String toString() {
+		return name;
+	}
+}
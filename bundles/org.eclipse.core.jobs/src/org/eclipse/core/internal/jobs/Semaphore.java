@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2003, 2010 IBM Corporation and others.
+ * Copyright (c) 2003, 2012 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -11,6 +11,11 @@
  *******************************************************************************/
 package org.eclipse.core.internal.jobs;
 
+/**
+ * A semaphore that one thread waits on. Each thread that waits for an
+ * OrderedLock or joins a job waits on a semaphore of its own, so a release
+ * only needs to wake up that thread.
+ */
 public class Semaphore {
 	protected long notifications;
 	protected Runnable runnable;
@@ -63,7 +68,7 @@ public class Semaphore {
 
 	public synchronized void release() {
 		notifications++;
-		notifyAll();
+		notify();
 	}
 
 	// for debug only
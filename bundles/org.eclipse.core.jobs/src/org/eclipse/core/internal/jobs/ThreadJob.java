@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2004, 2011 IBM Corporation and others.
+ * Copyright (c) 2004, 2012 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -54,6 +54,7 @@ class ThreadJob extends Job {
 	protected Job realJob;
 	/**
 	 * The stack of rules that have been begun in this thread, but not yet ended.
+	 * Nested rules are pushed and popped by the owning thread without the lock.
 	 * 	@GuardedBy("JobManager.implicitJobs")
 	 */
 	private ISchedulingRule[] ruleStack;
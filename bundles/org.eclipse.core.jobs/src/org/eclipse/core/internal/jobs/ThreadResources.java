@@ -0,0 +1,107 @@
+/*******************************************************************************
+ * Copyright (c) 2012 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.core.internal.jobs;
+
+import java.lang.reflect.Method;
+
+/**
+ * Measures the CPU time and the allocated memory of the current thread, so
+ * that the resources a job uses can be attributed to it. The thread management
+ * bean is looked up reflectively, because it is not available on all the
+ * runtimes that the job manager supports. Measurements that the VM does not
+ * support, or that are turned off through the thread management bean, are
+ * reported as -1.
+ */
+final class ThreadResources {
+	/**
+	 * The thread management bean, or null if it is not available.
+	 */
+	private static Object threadBean;
+
+	/**
+	 * ThreadMXBean.getCurrentThreadCpuTime(), or null if the VM cannot measure
+	 * the CPU time of the current thread.
+	 */
+	private static Method currentThreadCpuTime;
+
+	/**
+	 * com.sun.management.ThreadMXBean.getThreadAllocatedBytes(long) and
+	 * Thread.getId(), or null if the VM cannot measure allocated memory.
+	 */
+	private static Method threadAllocatedBytes, threadId;
+
+	static {
+		try {
+			Class factory = Class.forName("java.lang.management.ManagementFactory"); //$NON-NLS-1$
+			threadBean = factory.getMethod("getThreadMXBean", new Class[0]).invoke(null, new Object[0]); //$NON-NLS-1$
+			Class beanClass = Class.forName("java.lang.management.ThreadMXBean"); //$NON-NLS-1$
+			if (Boolean.TRUE.equals(beanClass.getMethod("isCurrentThreadCpuTimeSupported", new Class[0]).invoke(threadBean, new Object[0]))) //$NON-NLS-1$
+				currentThreadCpuTime = beanClass.getMethod("getCurrentThreadCpuTime", new Class[0]); //$NON-NLS-1$
+		} catch (Exception e) {
+			//thread management is not available before Java 5
+		} catch (LinkageError e) {
+			//thread management is not available on this runtime
+		}
+		try {
+			Class beanClass = Class.forName("com.sun.management.ThreadMXBean"); //$NON-NLS-1$
+			if (beanClass.isInstance(threadBean) && Boolean.TRUE.equals(beanClass.getMethod("isThreadAllocatedMemorySupported", new Class[0]).invoke(threadBean, new Object[0]))) { //$NON-NLS-1$
+				threadId = Thread.class.getMethod("getId", new Class[0]); //$NON-NLS-1$
+				threadAllocatedBytes = beanClass.getMethod("getThreadAllocatedBytes", new Class[] {long.class}); //$NON-NLS-1$
+			}
+		} catch (Exception e) {
+			//allocated memory can only be measured on some VMs
+		} catch (LinkageError e) {
+			//allocated memory can only be measured on some VMs
+		}
+	}
+
+	private ThreadResources() {
+		super();
+	}
+
+	/**
+	 * Returns the number of bytes the current thread has allocated, or -1 if
+	 * it cannot be measured.
+	 */
+	static long getAllocatedBytes() {
+		if (threadAllocatedBytes == null)
+			return -1;
+		try {
+			Object id = threadId.invoke(Thread.currentThread(), new Object[0]);
+			return ((Long) threadAllocatedBytes.invoke(threadBean, new Object[] {id})).longValue();
+		} catch (Exception e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * Returns the CPU time of the current thread in nanoseconds, or -1 if it
+	 * cannot be measured.
+	 */
+	static long getCpuTime() {
+		if (currentThreadCpuTime == null)
+			return -1;
+		try {
+			return ((Long) currentThreadCpuTime.invoke(threadBean, new Object[0])).longValue();
+		} catch (Exception e) {
+			//some threads, such as virtual threads, cannot be measured
+			return -1;
+		}
+	}
+
+	/**
+	 * Returns the amount of a resource used between two measurements, or -1
+	 * if either measurement failed.
+	 */
+	static long used(long start, long end) {
+		return start < 0 || end < 0 ? -1 : Math.max(0, end - start);
+	}
+}
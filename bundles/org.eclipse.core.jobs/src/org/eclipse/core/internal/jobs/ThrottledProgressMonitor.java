@@ -0,0 +1,147 @@
+/*******************************************************************************
+ * Copyright (c) 2012 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.core.internal.jobs;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.ProgressMonitorWrapper;
+
+/**
+ * Wraps the progress monitor of a job to limit the rate of updates that reach
+ * the progress provider. Work and subtask changes are accumulated, and are
+ * forwarded at most once per interval, or when the task begins, is renamed or
+ * is done. Progress providers often turn every update into a cross-thread
+ * call, which would otherwise dominate jobs that report work in small steps.
+ * Only the last of several subtasks is forwarded, but the work reported
+ * before it is forwarded before it, so the calls keep their order.
+ * <p>
+ * Cancelation is kept in a volatile field, so {@link #isCanceled()} is cheap.
+ * Cancelation through the wrapped monitor, for example from a cancel button,
+ * is noticed when the wrapped monitor is polled, at most once per interval.
+ * </p><p>
+ * Like other progress monitors, this monitor must only be used by the thread
+ * running the job, except for the cancelation methods.
+ * </p>
+ */
+final class ThrottledProgressMonitor extends ProgressMonitorWrapper {
+	private final long interval;
+
+	private volatile boolean canceled;
+
+	/**
+	 * The time the wrapped monitor was last updated.
+	 */
+	private long lastForward = 0;
+
+	/**
+	 * The time the wrapped monitor was last polled for cancelation.
+	 */
+	private volatile long lastPoll = 0;
+
+	/**
+	 * The work reported before the pending subtask.
+	 */
+	private int workBefore = 0;
+	private double internalWorkBefore = 0;
+
+	/**
+	 * The work reported after the pending subtask, or all the accumulated
+	 * work if there is no pending subtask.
+	 */
+	private int pendingWork = 0;
+	private double pendingInternalWork = 0;
+	private String pendingSubTask = null;
+
+	ThrottledProgressMonitor(IProgressMonitor monitor, long interval) {
+		super(monitor);
+		this.interval = interval;
+		this.canceled = monitor.isCanceled();
+	}
+
+	public void beginTask(String name, int totalWork) {
+		flush();
+		super.beginTask(name, totalWork);
+	}
+
+	public void done() {
+		flush();
+		super.done();
+	}
+
+	/**
+	 * Forwards the accumulated changes to the wrapped monitor.
+	 */
+	private void flush() {
+		lastForward = System.currentTimeMillis();
+		if (pendingSubTask != null) {
+			if (workBefore > 0) {
+				super.worked(workBefore);
+				workBefore = 0;
+			}
+			if (internalWorkBefore > 0) {
+				super.internalWorked(internalWorkBefore);
+				internalWorkBefore = 0;
+			}
+			super.subTask(pendingSubTask);
+			pendingSubTask = null;
+		}
+		if (pendingWork > 0) {
+			super.worked(pendingWork);
+			pendingWork = 0;
+		}
+		if (pendingInternalWork > 0) {
+			super.internalWorked(pendingInternalWork);
+			pendingInternalWork = 0;
+		}
+	}
+
+	public void internalWorked(double work) {
+		pendingInternalWork += work;
+		if (System.currentTimeMillis() - lastForward >= interval)
+			flush();
+	}
+
+	public boolean isCanceled() {
+		if (canceled)
+			return true;
+		long now = System.currentTimeMillis();
+		if (now - lastPoll < interval)
+			return false;
+		lastPoll = now;
+		return canceled = super.isCanceled();
+	}
+
+	public void setCanceled(boolean value) {
+		canceled = value;
+		super.setCanceled(value);
+	}
+
+	public void setTaskName(String name) {
+		flush();
+		super.setTaskName(name);
+	}
+
+	public void subTask(String name) {
+		//all the work so far precedes this subtask, which replaces the pending one
+		workBefore += pendingWork;
+		internalWorkBefore += pendingInternalWork;
+		pendingWork = 0;
+		pendingInternalWork = 0;
+		pendingSubTask = name;
+		if (System.currentTimeMillis() - lastForward >= interval)
+			flush();
+	}
+
+	public void worked(int work) {
+		pendingWork += work;
+		if (System.currentTimeMillis() - lastForward >= interval)
+			flush();
+	}
+}
@@ -0,0 +1,249 @@
+/*******************************************************************************
+ * Copyright (c) 2012 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.core.internal.jobs;
+
+import java.util.*;
+import org.eclipse.core.runtime.Assert;
+
+/**
+ * A hierarchical timing wheel holding the sleeping jobs. Each job is stored
+ * in a slot according to the time it should wake up, so adding, removing and
+ * waking up a job take constant time regardless of the number of sleeping jobs.
+ * <p>
+ * The wheel has LEVELS levels of SLOTS slots. A slot on level <code>n</code>
+ * covers <code>SLOTS^n</code> milliseconds, so slots on level 0 hold jobs that
+ * wake up at one exact millisecond. When the wheel advances to the start of a
+ * slot on a higher level, the jobs in that slot are moved down to the level
+ * matching their remaining delay. Jobs that sleep until woken are kept in a
+ * separate list, as they never become due.
+ * </p>
+ * A job in the wheel is linked to the other jobs in its slot using its
+ * next and previous links, and remembers its slot in its queue index.
+ * <p>
+ * Implementation note: this class is not thread safe. All access must be
+ * synchronized on the job manager lock.
+ * </p>
+ */
+final class TimingWheel {
+	/**
+	 * The number of bits of the wake up time used to index the slots of one level.
+	 */
+	private static final int BITS = 6;
+	private static final int SLOTS = 1 << BITS;
+	private static final int MASK = SLOTS - 1;
+	/**
+	 * Enough levels to cover every positive time in milliseconds.
+	 */
+	private static final int LEVELS = (63 + BITS - 1) / BITS;
+	/**
+	 * The slot index used for jobs that sleep until they are woken.
+	 */
+	private static final int INFINITE = LEVELS * SLOTS;
+
+	/**
+	 * The first job in each slot, and the list of jobs sleeping indefinitely.
+	 */
+	private final InternalJob[] heads = new InternalJob[INFINITE + 1];
+	/**
+	 * The last job in each slot, and the list of jobs sleeping indefinitely.
+	 */
+	private final InternalJob[] tails = new InternalJob[INFINITE + 1];
+	/**
+	 * For each level, a bit mask of the slots that hold jobs.
+	 */
+	private final long[] occupied = new long[LEVELS];
+
+	/**
+	 * The time the wheel has advanced to. All jobs in the wheel wake up at
+	 * or after this time.
+	 */
+	private long current;
+	private int size = 0;
+
+	TimingWheel(long now) {
+		this.current = now;
+	}
+
+	/**
+	 * Adds a job to the wheel, in the slot matching its start time.
+	 */
+	void add(InternalJob job) {
+		//assert new entry does not already belong to some other data structure
+		Assert.isTrue(job.next() == null && job.previous() == null && job.getQueueIndex() == -1);
+		link(job, slotFor(job.getStartTime()));
+		size++;
+	}
+
+	/**
+	 * Moves the wheel forward to the given time, and adds the jobs that are due
+	 * by then to the given list, in the order they became due. Returns true if
+	 * any job was added.
+	 */
+	boolean advance(long now, List due) {
+		boolean found = false;
+		while (true) {
+			int level = lowestOccupiedLevel();
+			if (level < 0)
+				break;
+			int slot = lowestSlot(occupied[level]);
+			long start = slotStart(level, slot);
+			if (start > now)
+				break;
+			current = start;
+			InternalJob job = heads[level * SLOTS + slot];
+			heads[level * SLOTS + slot] = tails[level * SLOTS + slot] = null;
+			occupied[level] &= ~(1L << slot);
+			while (job != null) {
+				InternalJob next = job.previous();
+				job.setNext(null);
+				job.setPrevious(null);
+				if (level == 0) {
+					job.setQueueIndex(-1);
+					size--;
+					due.add(job);
+					found = true;
+				} else {
+					//cascade the job down to a lower level
+					link(job, slotFor(job.getStartTime()));
+				}
+				job = next;
+			}
+		}
+		if (now > current)
+			current = now;
+		return found;
+	}
+
+	void clear() {
+		for (int i = 0; i < heads.length; i++) {
+			for (InternalJob job = heads[i]; job != null;) {
+				InternalJob next = job.previous();
+				job.setNext(null);
+				job.setPrevious(null);
+				job.setQueueIndex(-1);
+				job = next;
+			}
+			heads[i] = tails[i] = null;
+		}
+		for (int i = 0; i < LEVELS; i++)
+			occupied[i] = 0;
+		size = 0;
+	}
+
+	boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Returns all jobs in the wheel. The iterator works on a copy, and does
+	 * not support removal.
+	 */
+	Iterator iterator() {
+		InternalJob[] jobs = new InternalJob[size];
+		int count = 0;
+		for (int i = 0; i < heads.length; i++)
+			for (InternalJob job = heads[i]; job != null; job = job.previous())
+				jobs[count++] = job;
+		return Arrays.asList(jobs).iterator();
+	}
+
+	private void link(InternalJob job, int index) {
+		InternalJob tail = tails[index];
+		if (tail == null) {
+			heads[index] = job;
+			if (index < INFINITE)
+				occupied[index / SLOTS] |= 1L << (index & MASK);
+		} else {
+			tail.setPrevious(job);
+			job.setNext(tail);
+		}
+		tails[index] = job;
+		job.setQueueIndex(index);
+	}
+
+	private int lowestOccupiedLevel() {
+		for (int level = 0; level < LEVELS; level++)
+			if (occupied[level] != 0)
+				return level;
+		return -1;
+	}
+
+	private static int lowestSlot(long bits) {
+		int slot = 0;
+		while ((bits & (1L << slot)) == 0)
+			slot++;
+		return slot;
+	}
+
+	/**
+	 * Returns the earliest time at which a job in the wheel may become due, or
+	 * InternalJob.T_INFINITE if there are no such jobs. The result is exact if
+	 * the job is in a slot of the lowest level, and a lower bound otherwise.
+	 */
+	long nextDueTime() {
+		int level = lowestOccupiedLevel();
+		if (level < 0)
+			return InternalJob.T_INFINITE;
+		return slotStart(level, lowestSlot(occupied[level]));
+	}
+
+	/**
+	 * Removes a job from the wheel. Has no effect if the job is not in the wheel.
+	 */
+	void remove(InternalJob job) {
+		int index = job.getQueueIndex();
+		if (index < 0)
+			return;
+		InternalJob ahead = job.next();
+		InternalJob behind = job.previous();
+		if (ahead == null)
+			heads[index] = behind;
+		else
+			ahead.setPrevious(behind);
+		if (behind == null)
+			tails[index] = ahead;
+		else
+			behind.setNext(ahead);
+		if (heads[index] == null && index < INFINITE)
+			occupied[index / SLOTS] &= ~(1L << (index & MASK));
+		job.setNext(null);
+		job.setPrevious(null);
+		job.setQueueIndex(-1);
+		size--;
+	}
+
+	/**
+	 * Returns the time at which the given slot starts. Slots on each level
+	 * always start after the current time of the wheel.
+	 */
+	private long slotStart(int level, int slot) {
+		int shift = level * BITS;
+		long base = shift + BITS >= 64 ? 0 : current & ~((1L << (shift + BITS)) - 1);
+		return base | ((long) slot << shift);
+	}
+
+	/**
+	 * Returns the index of the slot for a job that wakes up at the given time.
+	 * Jobs that are already due go in the current slot of the lowest level.
+	 */
+	private int slotFor(long time) {
+		if (time == InternalJob.T_INFINITE)
+			return INFINITE;
+		if (time < current)
+			time = current;
+		//find the highest group of bits where the time differs from the current time
+		long diff = time ^ current;
+		int level = 0;
+		while ((diff >>>= BITS) != 0)
+			level++;
+		return level * SLOTS + (int) ((time >>> (level * BITS)) & MASK);
+	}
+}
@@ -1,5 +1,5 @@
 /*******************************************************************************
- *  Copyright (c) 2003, 2010 IBM Corporation and others.
+ *  Copyright (c) 2003, 2012 IBM Corporation and others.
  *  All rights reserved. This program and the accompanying materials
  *  are made available under the terms of the Eclipse Public License v1.0
  *  which accompanies this distribution, and is available at
@@ -10,6 +10,7 @@
  *******************************************************************************/
 package org.eclipse.core.internal.jobs;
 
+import java.lang.reflect.Method;
 import org.eclipse.core.runtime.*;
 import org.eclipse.core.runtime.jobs.Job;
 import org.eclipse.osgi.util.NLS;
@@ -17,19 +18,84 @@ import org.eclipse.osgi.util.NLS;
 /**
  * A worker thread processes jobs supplied to it by the worker pool.  When
  * the worker pool gives it a null job, the worker dies.
+ * <p>
+ * A worker may also run on a virtual thread, in which case the worker itself
+ * is never started, and its jobs run on the virtual thread returned by
+ * {@link #getJobThread()}.
+ * </p>
  */
 public class Worker extends Thread {
 	//worker number used for debugging purposes only
 	private static int nextWorkerNumber = 0;
+	/**
+	 * The worker running on the current thread, for workers that run on a
+	 * virtual thread.
+	 */
+	private static final ThreadLocal virtualWorker = new ThreadLocal();
+	/**
+	 * Whether any worker has been created to run on a virtual thread. Avoids
+	 * looking up the virtual worker for threads that cannot be workers.
+	 */
+	private static volatile boolean virtualWorkers = false;
+	/**
+	 * Thread.ofVirtual(), Thread.Builder.name(String) and Thread.Builder.unstarted(Runnable),
+	 * or null if the VM does not support virtual threads.
+	 */
+	private static Method ofVirtual, builderName, builderUnstarted;
+
+	static {
+		try {
+			Class builderClass = Class.forName("java.lang.Thread$Builder"); //$NON-NLS-1$
+			builderName = builderClass.getMethod("name", new Class[] {String.class}); //$NON-NLS-1$
+			builderUnstarted = builderClass.getMethod("unstarted", new Class[] {Runnable.class}); //$NON-NLS-1$
+			ofVirtual = Thread.class.getMethod("ofVirtual", new Class[0]); //$NON-NLS-1$
+		} catch (Exception e) {
+			//virtual threads are not available before Java 21
+		}
+	}
+
 	private volatile InternalJob currentJob;
 	private final WorkerPool pool;
+	/**
+	 * Whether this worker occupies one of the threads available to jobs other
+	 * than interactive ones. Only accessed while holding the worker pool lock.
+	 */
+	boolean limited = false;
+	/**
+	 * The thread that runs the jobs of this worker. This is either the worker
+	 * itself, or a virtual thread running the worker.
+	 */
+	private final Thread jobThread;
 
 	public Worker(WorkerPool pool) {
+		this(pool, false);
+	}
+
+	/**
+	 * Creates a worker. If <code>virtual</code> is true and the VM supports
+	 * virtual threads, the worker runs its jobs on a new virtual thread.
+	 */
+	Worker(WorkerPool pool, boolean virtual) {
 		super("Worker-" + nextWorkerNumber++); //$NON-NLS-1$
 		this.pool = pool;
+		Thread thread = virtual ? newVirtualThread(this, getName()) : null;
+		if (thread != null)
+			virtualWorkers = true;
+		this.jobThread = thread == null ? this : thread;
 		//set the context loader to avoid leaking the current context loader
 		//for the thread that spawns this worker (bug 98376)
-		setContextClassLoader(pool.defaultContextLoader);
+		jobThread.setContextClassLoader(pool.defaultContextLoader);
+	}
+
+	/**
+	 * Returns the worker running on the current thread, or null if the current
+	 * thread is not a worker thread.
+	 */
+	static Worker current() {
+		Thread current = Thread.currentThread();
+		if (current instanceof Worker)
+			return (Worker) current;
+		return virtualWorkers ? (Worker) virtualWorker.get() : null;
 	}
 
 	/**
@@ -39,17 +105,54 @@ public class Worker extends Thread {
 		return (Job) currentJob;
 	}
 
+	/**
+	 * Returns the thread that runs the jobs of this worker. This is the
+	 * thread that must be started to start the worker.
+	 */
+	Thread getJobThread() {
+		return jobThread;
+	}
+
 	private IStatus handleException(InternalJob job, Throwable t) {
 		String message = NLS.bind(JobMessages.jobs_internalError, job.getName());
 		return new Status(IStatus.ERROR, JobManager.PI_JOBS, JobManager.PLUGIN_ERROR, message, t);
 	}
 
+	/**
+	 * Returns whether this worker runs its jobs on a virtual thread.
+	 */
+	boolean runsOnVirtualThread() {
+		return jobThread != this;
+	}
+
+	/**
+	 * Creates an unstarted virtual thread with the given name, or returns null
+	 * if the VM does not support virtual threads.
+	 */
+	private static Thread newVirtualThread(Runnable runnable, String name) {
+		if (ofVirtual == null)
+			return null;
+		try {
+			Object builder = ofVirtual.invoke(null, new Object[0]);
+			builder = builderName.invoke(builder, new Object[] {name});
+			return (Thread) builderUnstarted.invoke(builder, new Object[] {runnable});
+		} catch (Exception e) {
+			//virtual threads are a preview feature in Java 19 and 20
+			return null;
+		}
+	}
+
 	public void run() {
-		setPriority(Thread.NORM_PRIORITY);
+		if (runsOnVirtualThread())
+			virtualWorker.set(this);
+		//virtual threads ignore priorities
+		jobThread.setPriority(Thread.NORM_PRIORITY);
 		try {
 			while ((currentJob = pool.startJob(this)) != null) {
-				currentJob.setThread(this);
+				currentJob.setThread(jobThread);
 				IStatus result = Status.OK_STATUS;
+				long cpuTime = ThreadResources.getCpuTime();
+				long allocatedBytes = ThreadResources.getAllocatedBytes();
 				try {
 					result = currentJob.run(currentJob.getProgressMonitor());
 				} catch (OperationCanceledException e) {
@@ -68,10 +171,12 @@ public class Worker extends Thread {
 					//result must not be null
 					if (result == null)
 						result = handleException(currentJob, new NullPointerException());
-					pool.endJob(currentJob, result);
+					//charge the resources used by the job before it is done, and not its listeners
+					currentJob.addResourceUsage(ThreadResources.used(cpuTime, ThreadResources.getCpuTime()), ThreadResources.used(allocatedBytes, ThreadResources.getAllocatedBytes()));
+					pool.endJob(this, currentJob, result);
 					currentJob = null;
 					//reset thread priority in case job changed it
-					setPriority(Thread.NORM_PRIORITY);
+					jobThread.setPriority(Thread.NORM_PRIORITY);
 				}
 			}
 		} catch (Throwable t) {
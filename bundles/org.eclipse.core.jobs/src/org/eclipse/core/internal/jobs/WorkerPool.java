@@ -18,6 +18,12 @@ import org.eclipse.core.runtime.jobs.Job;
  * Maintains a pool of worker threads. Threads are constructed lazily as
  * required, and are eventually discarded if not in use for awhile. This class
  * maintains the thread creation/destruction policies for the job manager.
+ * <p>
+ * The pool may be bounded to a maximum number of threads, in which case jobs
+ * wait in the queue while all threads are busy. Some of those threads may be
+ * reserved for interactive jobs, so that interactive jobs can start even when
+ * jobs of other priorities occupy all other threads.
+ * </p>
  * 
  * Implementation note: all the data structures of this class are protected
  * by the instance's object monitor.  To avoid deadlock with third party code,
@@ -26,11 +32,17 @@ import org.eclipse.core.runtime.jobs.Job;
  */
 class WorkerPool {
 	/**
-	 * Threads not used by their best before timestamp are destroyed. 
+	 * The default time after which threads beyond the core size that are not
+	 * used are destroyed.
 	 */
-	private static final int BEST_BEFORE = 60000;
+	static final int DEFAULT_KEEP_ALIVE = 60000;
 	/**
-	 * There will always be at least MIN_THREADS workers in the pool.
+	 * The default number of threads that are kept alive when not used.
+	 */
+	static final int DEFAULT_CORE_THREADS = 1;
+	/**
+	 * There will always be at least MIN_THREADS idle workers in the pool,
+	 * to start sleeping jobs when they wake up.
 	 */
 	private static final int MIN_THREADS = 1;
 	/**
@@ -39,6 +51,36 @@ class WorkerPool {
 	 */
 	private int busyThreads = 0;
 
+	/**
+	 * Threads not used by their keep alive time are destroyed, unless there
+	 * are no more than coreThreads threads.
+	 */
+	private long keepAlive = DEFAULT_KEEP_ALIVE;
+	private int coreThreads = DEFAULT_CORE_THREADS;
+	private int maxThreads = Integer.MAX_VALUE;
+	/**
+	 * The number of threads that jobs other than interactive ones may not use.
+	 */
+	private int reservedThreads = 0;
+	/**
+	 * The number of workers that occupy one of the threads available to jobs
+	 * other than interactive ones.
+	 */
+	private int limitedThreads = 0;
+	/**
+	 * The number of workers that are running a job.
+	 */
+	private int runningJobs = 0;
+	/**
+	 * The largest number of workers that were in the pool at the same time.
+	 */
+	private int peakThreads = 0;
+	/**
+	 * The number of times a job could not get a new worker because the pool
+	 * was at its maximum size.
+	 */
+	private int saturations = 0;
+
 	/**
 	 * The default context class loader to use when creating worker threads.
 	 */
@@ -49,6 +91,11 @@ class WorkerPool {
 	 */
 	private boolean isDaemon = false;
 
+	/**
+	 * Records whether new workers should run on virtual threads.
+	 */
+	private boolean isVirtual = false;
+
 	private JobManager manager;
 	/**
 	 * The number of workers in the threads array
@@ -79,6 +126,23 @@ class WorkerPool {
 			threads = newThreads;
 		}
 		threads[numThreads++] = worker;
+		if (numThreads > peakThreads)
+			peakThreads = numThreads;
+	}
+
+	/**
+	 * Returns the lowest priority of the jobs the given worker may start, and
+	 * if the worker may start jobs other than interactive ones, sets aside one
+	 * of the threads available to those jobs for the worker.
+	 */
+	private synchronized int acquireThread(Worker worker) {
+		if (reservedThreads == 0)
+			return Job.DECORATE;
+		if (!worker.limited && limitedThreads < maxThreads - reservedThreads) {
+			worker.limited = true;
+			limitedThreads++;
+		}
+		return worker.limited ? Job.DECORATE : Job.INTERACTIVE;
 	}
 
 	private synchronized void decrementBusyThreads() {
@@ -94,7 +158,7 @@ class WorkerPool {
 	 * Signals the end of a job.  Note that this method can be called under
 	 * OutOfMemoryError conditions and thus must be paranoid about allocating objects.
 	 */
-	protected void endJob(InternalJob job, IStatus result) {
+	protected void endJob(Worker worker, InternalJob job, IStatus result) {
 		try {
 			//need to end rule in graph before ending job so that 2 threads
 			//do not become the owners of the same rule in the graph
@@ -106,7 +170,11 @@ class WorkerPool {
 			//ensure this thread no longer owns any scheduling rules
 			manager.implicitJobs.endJob(job);
 		} finally {
-			decrementBusyThreads();
+			synchronized (this) {
+				runningJobs--;
+				releaseThread(worker);
+				decrementBusyThreads();
+			}
 		}
 	}
 
@@ -140,13 +208,65 @@ class WorkerPool {
 		}
 		//create a thread if all threads are busy
 		if (busyThreads >= numThreads) {
-			Worker worker = new Worker(this);
-			worker.setDaemon(isDaemon);
+			//the job waits in the queue until a worker is done with its current job
+			if (numThreads >= maxThreads) {
+				saturations++;
+				return;
+			}
+			Worker worker = new Worker(this, isVirtual);
+			//virtual threads are always daemon threads
+			if (!worker.runsOnVirtualThread())
+				worker.setDaemon(isDaemon);
 			add(worker);
 			if (JobManager.DEBUG)
-				JobManager.debug("worker added to pool: " + worker); //$NON-NLS-1$
-			worker.start();
+				JobManager.debug("worker added to pool: " + worker.getJobThread()); //$NON-NLS-1$
+			worker.getJobThread().start();
+			return;
+		}
+	}
+
+	/**
+	 * Notification that several jobs have been added to the queue. Wakes as many
+	 * sleeping workers as there are jobs ready to run, and creates a new worker
+	 * if all workers are busy. Workers that start a job wake further workers
+	 * while there is work left in the queue.
+	 */
+	protected synchronized void jobsQueued(int count) {
+		if (count <= 0)
 			return;
+		if (sleepingThreads > 0) {
+			for (int i = Math.min(count, sleepingThreads); i > 0; i--)
+				notify();
+			return;
+		}
+		jobQueued();
+	}
+
+	/**
+	 * Returns the lowest priority of the jobs that may be started by a worker
+	 * that does not occupy one of the threads available to jobs other than
+	 * interactive ones.
+	 */
+	private synchronized int lowestPriority() {
+		if (reservedThreads == 0 || limitedThreads < maxThreads - reservedThreads)
+			return Job.DECORATE;
+		return Job.INTERACTIVE;
+	}
+
+	/**
+	 * Returns the occupancy of the pool.
+	 */
+	synchronized PoolOccupancy occupancy() {
+		return new PoolOccupancy(numThreads, busyThreads, runningJobs, peakThreads, maxThreads, saturations);
+	}
+
+	/**
+	 * Gives back the thread set aside for the given worker by acquireThread, if any.
+	 */
+	private synchronized void releaseThread(Worker worker) {
+		if (worker.limited) {
+			worker.limited = false;
+			limitedThreads--;
 		}
 	}
 
@@ -172,6 +292,33 @@ class WorkerPool {
 		this.isDaemon = value;
 	}
 
+	/**
+	 * Sets the time after which threads beyond the core size that are not used
+	 * are destroyed.
+	 */
+	synchronized void setKeepAlive(long value) {
+		this.keepAlive = Math.max(1, value);
+	}
+
+	/**
+	 * Sets the number of threads kept alive when not used, the maximum number of
+	 * threads, and the number of threads reserved for interactive jobs. Values
+	 * out of range are adjusted to the nearest valid value.
+	 */
+	synchronized void setPoolSize(int core, int max, int reserved) {
+		this.maxThreads = Math.max(1, max);
+		this.coreThreads = Math.max(0, Math.min(core, maxThreads));
+		this.reservedThreads = Math.max(0, Math.min(reserved, maxThreads - 1));
+	}
+
+	/**
+	 * Sets whether workers created in the worker pool should run on virtual
+	 * threads. Has no effect if the VM does not support virtual threads.
+	 */
+	void setVirtual(boolean value) {
+		this.isVirtual = value;
+	}
+
 	protected synchronized void shutdown() {
 		notifyAll();
 	}
@@ -211,28 +358,42 @@ class WorkerPool {
 		}
 		Job job = null;
 		try {
-			job = manager.startJob();
+			job = nextJob(worker);
 			//spin until a job is found or until we have been idle for too long
 			long idleStart = System.currentTimeMillis();
 			while (manager.isActive() && job == null) {
-				long hint = manager.sleepHint();
-				if (hint > 0)
-					sleep(Math.min(hint, BEST_BEFORE));
-				job = manager.startJob();
+				//a hint of zero or less means a sleeping job is due or the wheel of sleeping
+				//jobs must advance, and the next call to startJob does both. The hint is then
+				//accurate, so there is no need to nap to avoid a tight loop (bug 260724).
+				//Waiting jobs this worker may not start are ignored, as the worker that ends
+				//a job of the same kind starts them
+				long hint = manager.sleepHint(lowestPriority());
+				if (hint > 0) {
+					//virtual workers are cheap to create, so surplus ones end rather than
+					//sleep, which would pin their carrier thread while waiting
+					synchronized (this) {
+						if (worker.runsOnVirtualThread() && (numThreads - busyThreads) > MIN_THREADS) {
+							endWorker(worker);
+							return null;
+						}
+					}
+					sleep(Math.min(hint, keepAlive));
+				}
+				job = nextJob(worker);
 				//if we were already idle, and there are still no new jobs, then
 				// the thread can expire
 				synchronized (this) {
-					if (job == null && (System.currentTimeMillis() - idleStart > BEST_BEFORE) && (numThreads - busyThreads) > MIN_THREADS) {
+					if (job == null && (System.currentTimeMillis() - idleStart > keepAlive) && numThreads > coreThreads && (numThreads - busyThreads) > MIN_THREADS) {
 						//must remove the worker immediately to prevent all threads from expiring
 						endWorker(worker);
 						return null;
 					}
 				}
-				//if we didn't sleep but there was no job available, make sure we sleep to avoid a tight loop (bug 260724)
-				if (hint <= 0 && job == null)
-					sleep(50);
 			}
 			if (job != null) {
+				synchronized (this) {
+					runningJobs++;
+				}
 				//if this job has a rule, then we are essentially acquiring a lock
 				if ((job.getRule() != null) && !(job instanceof ThreadJob)) {
 					//don't need to re-acquire locks because it was not recorded in the graph
@@ -250,4 +411,20 @@ class WorkerPool {
 		}
 		return job;
 	}
+
+	/**
+	 * Starts and returns the next job the given worker may run, or returns null
+	 * if there is no such job.
+	 */
+	private Job nextJob(Worker worker) {
+		Job job = null;
+		try {
+			job = manager.startJob(acquireThread(worker));
+		} finally {
+			//interactive jobs do not occupy the threads available to other jobs
+			if (job == null || job.getPriority() == Job.INTERACTIVE)
+				releaseThread(worker);
+		}
+		return job;
+	}
 }
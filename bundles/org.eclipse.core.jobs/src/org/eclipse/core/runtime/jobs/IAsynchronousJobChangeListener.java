@@ -0,0 +1,39 @@
+/*******************************************************************************
+ *  Copyright (c) 2012 IBM Corporation and others.
+ *  All rights reserved. This program and the accompanying materials
+ *  are made available under the terms of the Eclipse Public License v1.0
+ *  which accompanies this distribution, and is available at
+ *  http://www.eclipse.org/legal/epl-v10.html
+ *
+ *  Contributors:
+ *     IBM - Initial API and implementation
+ *******************************************************************************/
+package org.eclipse.core.runtime.jobs;
+
+/**
+ * A job change listener that is notified asynchronously.  Notifications for
+ * such listeners are queued and delivered by a separate thread of the job
+ * manager, so that a slow listener does not delay the thread that changed the
+ * state of the job.
+ * <p>
+ * Notifications are delivered in the order the state changes occurred.  The
+ * job manager delivers queued notifications in batches, one listener at a
+ * time.  When too many notifications are queued, threads that change the state
+ * of jobs deliver their notifications themselves until the listeners catch up,
+ * rather than waiting for them; such a notification may overtake notifications
+ * that are still queued.  Because the job may already be in
+ * a later state by the time a notification is delivered, listeners must rely on
+ * the event rather than on <code>Job#getState()</code>.
+ * </p><p>
+ * The <code>aboutToRun</code> notification is always delivered synchronously,
+ * because listeners may sleep or cancel the job before it runs.
+ * </p><p>
+ * Clients may implement this interface.
+ * </p>
+ *
+ * @see IJobChangeListener
+ * @since 3.6
+ */
+public interface IAsynchronousJobChangeListener extends IJobChangeListener {
+	//no additional methods
+}
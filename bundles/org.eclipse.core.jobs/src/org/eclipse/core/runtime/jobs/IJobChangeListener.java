@@ -23,9 +23,14 @@ package org.eclipse.core.runtime.jobs;
  * all job state changes, but whether the state change occurs before, during, or 
  * after listeners are notified is unspecified.
  * </p><p>
+ * Listeners that implement <code>IAsynchronousJobChangeListener</code> are
+ * notified on a separate thread rather than on the thread that changed the
+ * state of the job.
+ * </p><p>
  * Clients may implement this interface.
  * </p>
  * @see JobChangeAdapter
+ * @see IAsynchronousJobChangeListener
  * @see IJobManager#addJobChangeListener(IJobChangeListener)
  * @see IJobManager#removeJobChangeListener(IJobChangeListener)
  * @see Job#addJobChangeListener(IJobChangeListener)
@@ -0,0 +1,80 @@
+/*******************************************************************************
+ *  Copyright (c) 2012 IBM Corporation and others.
+ *  All rights reserved. This program and the accompanying materials
+ *  are made available under the terms of the Eclipse Public License v1.0
+ *  which accompanies this distribution, and is available at
+ *  http://www.eclipse.org/legal/epl-v10.html
+ *
+ *  Contributors:
+ *     IBM - Initial API and implementation
+ *******************************************************************************/
+package org.eclipse.core.runtime.jobs;
+
+import org.eclipse.core.runtime.IStatus;
+
+/**
+ * The pending result of a scheduled job, or of all the jobs of a family.
+ * A future is done as soon as the job it represents leaves the
+ * {@link Job#RUNNING} state, or is canceled before it runs.  A future is
+ * completed by the thread that ends the job, so it can be used to wait for
+ * a job with a timeout, or to chain jobs without blocking a thread.
+ * <p>
+ * A future represents a single run of a job.  If the job is scheduled
+ * again, the next run has a new future.
+ * </p><p>
+ * This interface is not intended to be implemented by clients.
+ * </p>
+ *
+ * @see Job#getFuture()
+ * @see IJobManager#getFuture(Object)
+ * @since 3.6
+ */
+public interface IJobFuture {
+	/**
+	 * Returns the result of the run this future represents, or <code>null</code>
+	 * if this future is not done.  The result of a family future is the most
+	 * severe result of the jobs of the family.
+	 *
+	 * @return the result, or <code>null</code>
+	 */
+	public IStatus getResult();
+
+	/**
+	 * Returns whether the run this future represents has finished.
+	 *
+	 * @return <code>true</code> if this future is done, and <code>false</code>
+	 * otherwise
+	 */
+	public boolean isDone();
+
+	/**
+	 * Waits until this future is done, or until the given time has elapsed.
+	 * This method returns immediately if this future is already done.
+	 * <p>
+	 * Note that there is a deadlock risk when waiting for a job.  If the
+	 * calling thread owns a lock or object monitor that the job is waiting for,
+	 * the wait will only end when it times out.
+	 * </p>
+	 *
+	 * @param timeout the maximum time to wait in milliseconds, or zero to
+	 * return immediately
+	 * @return the result, or <code>null</code> if this future is still not done
+	 * @exception InterruptedException if this thread is interrupted while waiting
+	 * @see Job#join()
+	 */
+	public IStatus join(long timeout) throws InterruptedException;
+
+	/**
+	 * Schedules the given job once this future is done.  If this future is
+	 * already done, the job is scheduled immediately.  The job is scheduled
+	 * by the thread that completes this future, regardless of the result.
+	 * If the job is then not scheduled, for example because it refuses to run
+	 * or the job manager has been shut down, the returned future is done with
+	 * a cancel status.
+	 *
+	 * @param job the job to schedule
+	 * @return the future of the next run of the given job, or of its current
+	 * run if it is already scheduled
+	 */
+	public IJobFuture then(Job job);
+}
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2003, 2010 IBM Corporation and others.
+ * Copyright (c) 2003, 2012 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -46,6 +46,16 @@ public interface IJobManager {
 	 */
 	public static final String PROP_USE_DAEMON_THREADS = "eclipse.jobs.daemon"; //$NON-NLS-1$
 
+	/**
+	 * A system property key indicating whether the job manager should run jobs
+	 * on virtual threads rather than on platform worker threads. Set to 
+	 * <code>true</code> to run jobs on virtual threads when the virtual machine
+	 * supports them. Virtual threads are always daemon threads, so
+	 * {@link #PROP_USE_DAEMON_THREADS} has no effect in this mode.
+	 * @since 3.6
+	 */
+	public static final String PROP_USE_VIRTUAL_THREADS = "eclipse.jobs.virtual"; //$NON-NLS-1$
+
 	/**
 	 * Registers a job listener with the job manager.  
 	 * Has no effect if an identical listener is already registered.
@@ -192,6 +202,25 @@ public interface IJobManager {
 	 */
 	public Job[] find(Object family);
 
+	/**
+	 * Returns a future that is done when all jobs of the given family that are
+	 * currently waiting, sleeping or running are done.  Unlike
+	 * {@link #join(Object, IProgressMonitor)}, jobs of the family that are
+	 * scheduled after this method returns are not included.  If there are no
+	 * such jobs, the returned future is already done.
+	 * <p>
+	 * The result of the future is the most severe result of the jobs, or an
+	 * OK status if none of them reported a problem.
+	 * </p>
+	 * 
+	 * @param family the job family, or <code>null</code> for all jobs
+	 * @return the future of the jobs of the family
+	 * @see Job#getFuture()
+	 * @see Job#belongsTo(Object)
+	 * @since 3.6
+	 */
+	public IJobFuture getFuture(Object family);
+
 	/**
 	 * Returns whether the job manager is currently idle.  The job manager is
 	 * idle if no jobs are currently running or waiting to run.
@@ -293,6 +322,27 @@ public interface IJobManager {
 	 */
 	public void resume();
 
+	/**
+	 * Schedules the given jobs to be run after a specified delay.  This has the
+	 * same effect as calling {@link Job#schedule(long)} on each job in turn, except
+	 * that the jobs enter the queue together.  Jobs with conflicting scheduling
+	 * rules and equal priority run in the order they appear in the array.
+	 * <p>
+	 * Scheduling many jobs with this method is cheaper than scheduling them one
+	 * at a time, because listeners are notified of all jobs in one pass and only
+	 * as many worker threads are woken as there are jobs ready to run.
+	 * </p><p>
+	 * Jobs that are already waiting or sleeping are ignored, and running jobs are
+	 * rescheduled when they finish, as with {@link Job#schedule(long)}.
+	 * </p>
+	 * 
+	 * @param jobs the jobs to schedule
+	 * @param delay a time delay in milliseconds before the jobs should run
+	 * @see Job#schedule(long)
+	 * @since 3.6
+	 */
+	public void schedule(Job[] jobs, long delay);
+
 	/**
 	 * Provides a hook that is notified whenever a thread is about to wait on a lock,
 	 * or when a thread is about to release a lock.  This hook must only be set once.
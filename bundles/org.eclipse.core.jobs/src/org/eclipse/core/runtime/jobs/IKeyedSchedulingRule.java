@@ -0,0 +1,52 @@
+/*******************************************************************************
+ *  Copyright (c) 2012 IBM Corporation and others.
+ *  All rights reserved. This program and the accompanying materials
+ *  are made available under the terms of the Eclipse Public License v1.0
+ *  which accompanies this distribution, and is available at
+ *  http://www.eclipse.org/legal/epl-v10.html
+ *
+ *  Contributors:
+ *     IBM - Initial API and implementation
+ *******************************************************************************/
+package org.eclipse.core.runtime.jobs;
+
+/**
+ * A scheduling rule that exposes a hierarchical conflict key.  The job manager
+ * uses conflict keys to index running and blocked jobs, so that finding a job
+ * that conflicts with a keyed rule becomes a lookup rather than a scan over all
+ * running jobs.
+ * <p>
+ * A conflict key is an array of segments, compared element-wise with
+ * <code>equals</code>.  Implementations must guarantee that two keyed rules can
+ * only conflict if the key of one rule is a prefix of (or equal to) the key of the
+ * other.  Likewise, a keyed rule may only contain another keyed rule if its key is
+ * a prefix of (or equal to) the key of the other rule.  For example, a rule on a
+ * resource path could return the path segments as its key: the rule for
+ * <code>/a</code> has key <code>{"a"}</code> and may conflict with or contain the
+ * rule for <code>/a/b</code>, but never the rule for <code>/c</code>.  An empty
+ * key is a prefix of every key.
+ * </p><p>
+ * {@link MultiRule} relies on these guarantees to check only those of its children
+ * whose keys are related to the key of the other rule.
+ * </p><p>
+ * Keys are only used to narrow the set of candidates; <code>isConflicting</code>
+ * is still consulted for every candidate.  Keyed rules are always checked against
+ * rules that do not expose a key.  A rule that returns <code>null</code> is
+ * treated as if it did not implement this interface.  The key of a rule must not
+ * change while a job or thread owning the rule is scheduled, running, or blocked.
+ * </p><p>
+ * Clients may implement this interface.
+ * </p>
+ *
+ * @see ISchedulingRule#isConflicting(ISchedulingRule)
+ * @since 3.6
+ */
+public interface IKeyedSchedulingRule extends ISchedulingRule {
+	/**
+	 * Returns the hierarchical conflict key of this rule, or <code>null</code>
+	 * if this rule cannot be indexed.
+	 *
+	 * @return the conflict key segments, or <code>null</code>
+	 */
+	public Object[] getConflictKey();
+}
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2003, 2010 IBM Corporation and others.
+ * Copyright (c) 2003, 2012 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -168,9 +168,10 @@ public abstract class Job extends InternalJob implements IAdaptable {
 	 * by the job manager.  Thus, a job can choose to belong to any number of
 	 * families.
 	 * <p>
-	 * Clients may override this method.  This default implementation always returns
-	 * <code>false</code>.  Overriding implementations must return <code>false</code>
-	 * for families they do not recognize.
+	 * Clients may override this method.  This default implementation returns
+	 * <code>true</code> if the family is one of the families declared with
+	 * {@link #setFamilies(Object[])}, and <code>false</code> otherwise.  Overriding
+	 * implementations must return <code>false</code> for families they do not recognize.
 	 * </p>
 	 * 
 	 * @param family the job family identifier
@@ -178,7 +179,7 @@ public abstract class Job extends InternalJob implements IAdaptable {
 	 * <code>false</code> otherwise.
 	 */
 	public boolean belongsTo(Object family) {
-		return false;
+		return super.belongsTo(family);
 	}
 
 	/**
@@ -226,6 +227,50 @@ public abstract class Job extends InternalJob implements IAdaptable {
 		super.done(result);
 	}
 
+	/**
+	 * Returns the number of requests to schedule this job that were merged
+	 * into an earlier request because this job coalesces schedule requests.
+	 * 
+	 * @return the number of merged schedule requests
+	 * @see #setCoalescing(long, long)
+	 * @since 3.6
+	 */
+	public final int getCoalescedCount() {
+		return super.getCoalescedCount();
+	}
+
+	/**
+	 * Returns the deadline of this job.
+	 * 
+	 * @return the time in milliseconds after it is due by which this job
+	 * should start, or zero if this job has no deadline
+	 * @see #setDeadline(long)
+	 * @since 3.6
+	 */
+	public final long getDeadline() {
+		return super.getDeadline();
+	}
+
+	/**
+	 * Returns the future of this job's current run.  If this job is waiting,
+	 * sleeping or running, the future is done when this job finishes running or
+	 * is canceled.  If this job is not scheduled, the returned future is already
+	 * done and holds the result of this job's last run, or a cancel status
+	 * if this job has never finished running.
+	 * <p>
+	 * As with {@link #join()}, if this job reschedules itself, the future is done
+	 * at the end of the first execution.
+	 * </p>
+	 * 
+	 * @return the future of this job's current run
+	 * @see IJobFuture#then(Job)
+	 * @see IJobManager#getFuture(Object)
+	 * @since 3.6
+	 */
+	public final IJobFuture getFuture() {
+		return super.getFuture();
+	}
+
 	/**
 	 * Returns the human readable name of this job.  The name is never 
 	 * <code>null</code>.
@@ -270,6 +315,42 @@ public abstract class Job extends InternalJob implements IAdaptable {
 		return super.getResult();
 	}
 
+	/**
+	 * Returns the families declared by this job, or <code>null</code> if this job
+	 * does not declare its families.
+	 * 
+	 * @return the declared families of this job, or <code>null</code>
+	 * @see #setFamilies(Object[])
+	 * @since 3.6
+	 */
+	public final Object[] getFamilies() {
+		return super.getFamilies();
+	}
+
+	/**
+	 * Returns the group this job belongs to, or <code>null</code> if this job
+	 * does not belong to a group.
+	 * 
+	 * @return the group of this job, or <code>null</code>
+	 * @see #setJobGroup(JobGroup)
+	 * @since 3.6
+	 */
+	public final JobGroup getJobGroup() {
+		return super.getJobGroup();
+	}
+
+	/**
+	 * Returns the jobs that this job waits for when it is scheduled, or
+	 * <code>null</code> if this job has no predecessors.
+	 * 
+	 * @return the predecessors of this job, or <code>null</code>
+	 * @see #setPredecessors(Job[])
+	 * @since 3.6
+	 */
+	public final Job[] getPredecessors() {
+		return super.getPredecessors();
+	}
+
 	/**
 	 * Returns the scheduling rule for this job.  Returns <code>null</code> if this job has no
 	 * scheduling rule.
@@ -532,6 +613,112 @@ public abstract class Job extends InternalJob implements IAdaptable {
 		super.setProperty(key, value);
 	}
 
+	/**
+	 * Makes this job coalesce requests to schedule it, for jobs that are
+	 * scheduled again on every change to some data, such as every keystroke
+	 * or resource delta.  This replaces canceling and rescheduling the job
+	 * on every change, and is much cheaper.
+	 * <p>
+	 * A coalescing job that is scheduled sleeps for at least <code>window</code>
+	 * milliseconds.  Scheduling it again while it sleeps postpones its run until
+	 * <code>window</code> milliseconds after the latest request, but never later
+	 * than <code>maxLatency</code> milliseconds after the request that scheduled
+	 * it.  Requests made while the job is waiting to run are merged into that run.
+	 * Requests made while the job is running make it run once more when done.
+	 * The number of merged requests is available from {@link #getCoalescedCount()}.
+	 * </p>
+	 * 
+	 * @param window the time in milliseconds to wait for further requests before
+	 * running the job, or zero if this job does not coalesce schedule requests
+	 * @param maxLatency the maximum time in milliseconds from the request that
+	 * scheduled the job until it runs.  Must not be less than <code>window</code>.
+	 * @see #getCoalescedCount()
+	 * @since 3.6
+	 */
+	public final void setCoalescing(long window, long maxLatency) {
+		super.setCoalescing(window, maxLatency);
+	}
+
+	/**
+	 * Declares the families this job belongs to.  A job that declares its
+	 * families is indexed by them, so that family queries on the job manager
+	 * such as {@link IJobManager#find(Object)} do not need to ask every job
+	 * whether it belongs to the family.  Families are compared using
+	 * <code>equals</code>.  This method must be called before the job is scheduled.
+	 * <p>
+	 * A job that declares its families is only found by family queries for
+	 * those families, even if it overrides {@link #belongsTo(Object)}.
+	 * </p>
+	 * 
+	 * @param families the families of this job, or <code>null</code> if this
+	 * job does not declare its families
+	 * @see #getFamilies()
+	 * @see #belongsTo(Object)
+	 * @since 3.6
+	 */
+	public final void setFamilies(Object[] families) {
+		super.setFamilies(families);
+	}
+
+	/**
+	 * Sets the time by which this job should start, in milliseconds after it is
+	 * due to run.  A job is due when it is scheduled, or when its scheduling
+	 * delay has elapsed.  A deadline does not change how this job is scheduled,
+	 * unless the job manager is configured to order waiting jobs of the same
+	 * priority by their deadline.  Either way, the job manager keeps statistics
+	 * on the jobs that start after their deadline.  Changing the deadline of a
+	 * job that is already waiting only affects its next run.
+	 * 
+	 * @param deadline the time in milliseconds after it is due by which this
+	 * job should start, or zero if this job has no deadline
+	 * @see #getDeadline()
+	 * @since 3.6
+	 */
+	public final void setDeadline(long deadline) {
+		super.setDeadline(deadline);
+	}
+
+	/**
+	 * Adds this job to a group that limits how many of its members run at once.
+	 * This method must be called before the job is scheduled.
+	 * 
+	 * @param group the group of this job, or <code>null</code> if this job
+	 * does not belong to a group
+	 * @see #getJobGroup()
+	 * @since 3.6
+	 */
+	public final void setJobGroup(JobGroup group) {
+		super.setJobGroup(group);
+	}
+
+	/**
+	 * Declares the jobs that must finish before this job may run.  When this job
+	 * is scheduled, it waits for those of its predecessors that are waiting,
+	 * sleeping or running at that time, and joins the queue of waiting jobs as
+	 * soon as the last of them is done.  Predecessors that are not scheduled
+	 * when this job is scheduled are ignored, so predecessors should be
+	 * scheduled first, for example by passing the jobs in order to
+	 * {@link IJobManager#schedule(Job[], long)}.  This method must be called
+	 * before the job is scheduled.
+	 * <p>
+	 * While it waits for its predecessors, this job is in the {@link #WAITING}
+	 * state, and any scheduling delay elapses at the same time.  If a predecessor
+	 * is canceled, or finishes with a cancel status, this job is canceled too.
+	 * Independent jobs are not affected, so separate branches of a graph of
+	 * jobs run in parallel.
+	 * </p>
+	 * 
+	 * @param jobs the predecessors of this job, or <code>null</code> if this
+	 * job has no predecessors
+	 * @exception IllegalArgumentException if this job is scheduled, or if the
+	 * predecessors would make this job depend on itself
+	 * @see #getPredecessors()
+	 * @since 3.6
+	 */
+	public final void setPredecessors(Job[] jobs) {
+		super.setPredecessors(jobs);
+	}
+
 	/**
 	 * Sets the scheduling rule to be used when scheduling this job.  This method
 	 * must be called before the job is scheduled.
@@ -637,8 +824,9 @@ public abstract class Job extends InternalJob implements IAdaptable {
 	 * <p>
 	 * Sleeping jobs can be resumed using <code>wakeUp</code>.
 	 * 
-	 * @return <code>false</code> if the job is currently running (and thus cannot
-	 * be put to sleep), and <code>true</code> in all other cases
+	 * @return <code>false</code> if the job is currently running or waiting for
+	 * its predecessors (and thus cannot be put to sleep), and <code>true</code>
+	 * in all other cases
 	 * @see #wakeUp()
 	 */
 	public final boolean sleep() {
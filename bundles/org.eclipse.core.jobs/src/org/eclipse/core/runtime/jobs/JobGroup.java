@@ -0,0 +1,120 @@
+/*******************************************************************************
+ * Copyright (c) 2012 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.core.runtime.jobs;
+
+import org.eclipse.core.internal.jobs.InternalJobGroup;
+
+/**
+ * A group of jobs that limits how many of its members run at once.  Jobs are
+ * added to a group with {@link Job#setJobGroup(JobGroup)}.  When the maximum
+ * number of members are running, the other members that are ready to run wait
+ * in the job manager until a running member is done, without occupying a
+ * worker thread.  Unlike a shared scheduling rule, which lets only one of the
+ * jobs run at a time, a group lets up to {@link #getMaxThreads()} of its
+ * members run in parallel.
+ * <p>
+ * A group also provides aggregate operations on its members: they can be
+ * found, canceled and waited for together.
+ * </p><p>
+ * Clients may instantiate this class.  This class is not intended to be
+ * subclassed by clients.
+ * </p>
+ *
+ * @see Job#setJobGroup(JobGroup)
+ * @since 3.6
+ */
+public class JobGroup extends InternalJobGroup {
+	/**
+	 * Creates a new job group.
+	 *
+	 * @param name the human readable name of this group
+	 * @param maxThreads the maximum number of members that may run at once
+	 * @exception IllegalArgumentException if the maximum is not positive
+	 */
+	public JobGroup(String name, int maxThreads) {
+		super(name, maxThreads);
+	}
+
+	/**
+	 * Cancels all members of this group that are waiting, sleeping or running.
+	 *
+	 * @see Job#cancel()
+	 */
+	public final void cancel() {
+		super.cancel();
+	}
+
+	/**
+	 * Returns the members of this group that are waiting, sleeping or running.
+	 *
+	 * @return the active members of this group
+	 */
+	public final Job[] getActiveJobs() {
+		return super.getActiveJobs();
+	}
+
+	/**
+	 * Returns the number of times that members of this group finished running
+	 * or were canceled.  Together with {@link #getActiveJobs()}, this can be used
+	 * to report the progress of the group.
+	 *
+	 * @return the number of finished runs of members of this group
+	 */
+	public final int getDoneCount() {
+		return super.getDoneCount();
+	}
+
+	/**
+	 * Returns a future that is done when all members of this group that are
+	 * currently waiting, sleeping or running are done.  If there are no such
+	 * members, the returned future is already done.  The result of the future
+	 * is the most severe result of the members.
+	 *
+	 * @return the future of the active members of this group
+	 * @see IJobManager#getFuture(Object)
+	 */
+	public final IJobFuture getFuture() {
+		return super.getFuture();
+	}
+
+	/**
+	 * Returns the maximum number of members of this group that may run at once.
+	 *
+	 * @return the maximum number of running members
+	 */
+	public final int getMaxThreads() {
+		return super.getMaxThreads();
+	}
+
+	/**
+	 * Returns the human readable name of this group.
+	 *
+	 * @return the name of this group
+	 */
+	public final String getName() {
+		return super.getName();
+	}
+
+	/**
+	 * Waits until all members of this group that are currently waiting,
+	 * sleeping or running are done, or until the given time has elapsed.
+	 *
+	 * @param timeout the maximum time to wait in milliseconds, or zero to
+	 * return immediately
+	 * @return <code>true</code> if the members are done, and <code>false</code>
+	 * if the time elapsed first
+	 * @exception InterruptedException if this thread is interrupted while waiting
+	 * @see IJobFuture#join(long)
+	 */
+	public final boolean join(long timeout) throws InterruptedException {
+		return getFuture().join(timeout) != null;
+	}
+}
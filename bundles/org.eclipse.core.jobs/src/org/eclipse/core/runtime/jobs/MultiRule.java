@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2003, 2008 IBM Corporation and others.
+ * Copyright (c) 2003, 2012 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -10,7 +10,7 @@
  *******************************************************************************/
 package org.eclipse.core.runtime.jobs;
 
-import java.util.ArrayList;
+import java.util.*;
 
 /**
  * A MultiRule is a compound scheduling rule that represents a fixed group of child 
@@ -20,15 +20,268 @@ import java.util.ArrayList;
  * relation.
  * <p>
  * A MultiRule will never contain other MultiRules as children.  If a MultiRule is provided
- * as a child, its children will be added instead.
+ * as a child, its children will be added instead.  The children are kept in a canonical
+ * form: children that are equal to an earlier child are dropped, and children that
+ * are {@link IKeyedSchedulingRule}s come first, in an order given by their conflict
+ * keys.  Children whose keys cannot be told apart, and children without a key, keep
+ * the order in which they were given.
+ * </p><p>
+ * A MultiRule whose children all expose a conflict key exposes the longest common
+ * prefix of their keys as its own key.  A MultiRule with many children also summarizes
+ * the keys of its children the first time it is checked against another rule, so that
+ * only children whose keys may conflict are consulted.  The keys of the children must
+ * therefore not change once the MultiRule is in use.
  * </p>
  * 
  * @since 3.0
  * @noextend This class is not intended to be subclassed by clients.
  */
-public class MultiRule implements ISchedulingRule {
+public class MultiRule implements IKeyedSchedulingRule {
+	/**
+	 * The conflict key of a child of a multi-rule, or a prefix of it.
+	 */
+	private static final class Key {
+		final Object[] segments;
+		final int length;
+		final int hash;
+
+		Key(Object[] segments, int length, int hash) {
+			this.segments = segments;
+			this.length = length;
+			this.hash = hash;
+		}
+
+		public boolean equals(Object o) {
+			if (!(o instanceof Key))
+				return false;
+			Key other = (Key) o;
+			if (hash != other.hash || length != other.length)
+				return false;
+			for (int i = 0; i < length; i++)
+				if (segments[i] == null ? other.segments[i] != null : !segments[i].equals(other.segments[i]))
+					return false;
+			return true;
+		}
+
+		public int hashCode() {
+			return hash;
+		}
+
+		/**
+		 * Returns the hash of a key that extends a key with the given hash by
+		 * the given segment.
+		 */
+		static int extend(int hash, Object segment) {
+			return 31 * hash + (segment == null ? 0 : segment.hashCode());
+		}
+
+		/**
+		 * Returns the hash of the given key.
+		 */
+		static int hashOf(Object[] key) {
+			int hash = 1;
+			for (int i = 0; i < key.length; i++)
+				hash = extend(hash, key[i]);
+			return hash;
+		}
+	}
+
+	/**
+	 * A child rule with its conflict key and the hash of the key, while the
+	 * children of a new multi-rule are sorted.
+	 */
+	private static final class Child {
+		final ISchedulingRule rule;
+		/**
+		 * The conflict key of the rule, or null if it has none.
+		 */
+		final Object[] key;
+		final int hash;
+
+		Child(ISchedulingRule rule) {
+			this.rule = rule;
+			this.key = keyOf(rule);
+			this.hash = key == null ? 0 : Key.hashOf(key);
+		}
+	}
+
+	/**
+	 * Indexes the children of a multi-rule by their conflict keys. Two keyed
+	 * rules can only conflict if the key of one is a prefix of the key of the
+	 * other, so only the children whose keys are prefixes or extensions of the
+	 * key of another rule need to be checked against that rule. Bloom filters
+	 * over the full keys and the proper prefixes of the children reject most
+	 * rules without a lookup.
+	 */
+	private static final class Summary {
+		private static final int BITS = 1024;
+
+		/**
+		 * The longest common prefix of the keys of the children, or null if
+		 * some child has no key.
+		 */
+		final Object[] commonKey;
+
+		/**
+		 * The children without a key, which are checked against every rule.
+		 */
+		final ISchedulingRule[] unkeyed;
+
+		/**
+		 * Maps Key -> List of the children with that key.
+		 */
+		final HashMap byKey = new HashMap();
+
+		/**
+		 * Maps Key -> List of the children whose key has that key as a proper prefix.
+		 */
+		final HashMap byPrefix = new HashMap();
+
+		final long[] keyBits = new long[BITS / 64];
+		final long[] prefixBits = new long[BITS / 64];
+
+		Summary(ISchedulingRule[] rules, boolean index) {
+			ArrayList others = new ArrayList();
+			Object[] common = null;
+			int commonLength = 0;
+			for (int i = 0; i < rules.length; i++) {
+				Object[] key = keyOf(rules[i]);
+				if (key == null) {
+					others.add(rules[i]);
+					continue;
+				}
+				if (common == null) {
+					common = key;
+					commonLength = key.length;
+				} else {
+					int length = 0;
+					while (length < commonLength && length < key.length && (common[length] == null ? key[length] == null : common[length].equals(key[length])))
+						length++;
+					commonLength = length;
+				}
+				if (index)
+					add(rules[i], key);
+			}
+			unkeyed = (ISchedulingRule[]) others.toArray(new ISchedulingRule[others.size()]);
+			if (common == null || unkeyed.length > 0) {
+				commonKey = null;
+			} else {
+				commonKey = new Object[commonLength];
+				System.arraycopy(common, 0, commonKey, 0, commonLength);
+			}
+		}
+
+		private void add(ISchedulingRule rule, Object[] key) {
+			int hash = 1;
+			for (int i = 0; i < key.length; i++) {
+				add(byPrefix, prefixBits, new Key(key, i, hash), rule);
+				hash = Key.extend(hash, key[i]);
+			}
+			add(byKey, keyBits, new Key(key, key.length, hash), rule);
+		}
+
+		private static void add(HashMap map, long[] bits, Key key, ISchedulingRule rule) {
+			List list = (List) map.get(key);
+			if (list == null)
+				map.put(key, list = new ArrayList(2));
+			list.add(rule);
+			int mixed = key.hash * 0x9E3779B9;
+			bits[(mixed >>> 22) >>> 6] |= 1L << (mixed >>> 22);
+			bits[((mixed >>> 12) & (BITS - 1)) >>> 6] |= 1L << (mixed >>> 12);
+		}
+
+		private static boolean mayContain(long[] bits, int hash) {
+			int mixed = hash * 0x9E3779B9;
+			return (bits[(mixed >>> 22) >>> 6] & (1L << (mixed >>> 22))) != 0 && (bits[((mixed >>> 12) & (BITS - 1)) >>> 6] & (1L << (mixed >>> 12))) != 0;
+		}
+
+		/**
+		 * Returns the children that have the given key, or null if the filter
+		 * rules them out.
+		 */
+		List childrenWithKey(Object[] key, int length, int hash) {
+			if (!mayContain(keyBits, hash))
+				return null;
+			return (List) byKey.get(new Key(key, length, hash));
+		}
+
+		/**
+		 * Returns whether a child of the summarized rule contains the given
+		 * rule with the given key.
+		 */
+		boolean contains(ISchedulingRule rule, Object[] key) {
+			for (int i = 0; i < unkeyed.length; i++)
+				if (unkeyed[i].contains(rule))
+					return true;
+			//only children whose key is a prefix of the key can contain the rule
+			int hash = 1;
+			for (int i = 0; i <= key.length; i++) {
+				if (i > 0)
+					hash = Key.extend(hash, key[i - 1]);
+				List candidates = childrenWithKey(key, i, hash);
+				if (candidates != null)
+					for (int j = 0, size = candidates.size(); j < size; j++)
+						if (((ISchedulingRule) candidates.get(j)).contains(rule))
+							return true;
+			}
+			return false;
+		}
+
+		/**
+		 * Returns whether a child of the summarized rule conflicts with the
+		 * given rule with the given key.
+		 */
+		boolean isConflicting(ISchedulingRule rule, Object[] key) {
+			for (int i = 0; i < unkeyed.length; i++)
+				if (unkeyed[i].isConflicting(rule))
+					return true;
+			//children whose key is a prefix of the key
+			int hash = 1;
+			for (int i = 0; i <= key.length; i++) {
+				if (i > 0)
+					hash = Key.extend(hash, key[i - 1]);
+				if (isConflicting(childrenWithKey(key, i, hash), rule))
+					return true;
+			}
+			//children whose key extends the key
+			if (mayContain(prefixBits, hash))
+				return isConflicting((List) byPrefix.get(new Key(key, key.length, hash)), rule);
+			return false;
+		}
+
+		private static boolean isConflicting(List candidates, ISchedulingRule rule) {
+			if (candidates != null)
+				for (int i = 0, size = candidates.size(); i < size; i++)
+					if (((ISchedulingRule) candidates.get(i)).isConflicting(rule))
+						return true;
+			return false;
+		}
+
+		/**
+		 * Returns whether the filters show that no keyed child of this summary
+		 * can conflict with a keyed child of the given summary.
+		 */
+		boolean isDisjoint(Summary other) {
+			for (int i = 0; i < keyBits.length; i++)
+				if ((keyBits[i] & (other.keyBits[i] | other.prefixBits[i])) != 0 || (prefixBits[i] & other.keyBits[i]) != 0)
+					return false;
+			return true;
+		}
+	}
+
+	/**
+	 * The number of children from which a multi-rule indexes its children
+	 * rather than checking each of them.
+	 */
+	private static final int INDEX_THRESHOLD = 8;
+
 	private ISchedulingRule[] rules;
 
+	/**
+	 * The summary of the children, created when first needed.
+	 */
+	private volatile Summary summary;
+
 	/**
 	 * Returns a scheduling rule that encompasses all provided rules.  The resulting
 	 * rule may or may not be an instance of <code>MultiRule</code>.  If all
@@ -40,19 +293,45 @@ public class MultiRule implements ISchedulingRule {
 	 * @since 3.1
 	 */
 	public static ISchedulingRule combine(ISchedulingRule[] ruleArray) {
-		ISchedulingRule result = null;
+		//collect the rules that are not contained in the ones before them, and flatten once
+		ArrayList kept = new ArrayList(ruleArray.length);
 		for (int i = 0; i < ruleArray.length; i++) {
-			if (ruleArray[i] == null)
+			ISchedulingRule rule = ruleArray[i];
+			if (rule == null || isContained(rule, kept))
 				continue;
-			if (result == null) {
-				result = ruleArray[i];
-				continue;
-			}
-			result = combine(result, ruleArray[i]);
+			if (containsAll(rule, kept))
+				kept.clear();
+			kept.add(rule);
 		}
+		if (kept.size() <= 1)
+			return kept.isEmpty() ? null : (ISchedulingRule) kept.get(0);
+		MultiRule result = new MultiRule();
+		result.rules = flatten((ISchedulingRule[]) kept.toArray(new ISchedulingRule[kept.size()]));
 		return result;
 	}
 
+	/*
+	 * Returns whether one of the given rules contains the given rule.
+	 */
+	private static boolean isContained(ISchedulingRule rule, List rules) {
+		for (int i = 0, size = rules.size(); i < size; i++) {
+			ISchedulingRule other = (ISchedulingRule) rules.get(i);
+			if (other == rule || other.contains(rule))
+				return true;
+		}
+		return false;
+	}
+
+	/*
+	 * Returns whether the given rule contains all of the given rules.
+	 */
+	private static boolean containsAll(ISchedulingRule rule, List rules) {
+		for (int i = 0, size = rules.size(); i < size; i++)
+			if (!rule.contains((ISchedulingRule) rules.get(i)))
+				return false;
+		return true;
+	}
+
 	/**
 	 * Returns a scheduling rule that encompasses both provided rules.  The resulting
 	 * rule may or may not be an instance of <code>MultiRule</code>.  If both
@@ -75,29 +354,79 @@ public class MultiRule implements ISchedulingRule {
 		if (rule2.contains(rule1))
 			return rule2;
 		MultiRule result = new MultiRule();
-		result.rules = new ISchedulingRule[] {rule1, rule2};
 		//make sure we don't end up with nested multi-rules
-		if (rule1 instanceof MultiRule || rule2 instanceof MultiRule)
-			result.rules = flatten(result.rules);
+		result.rules = flatten(new ISchedulingRule[] {rule1, rule2});
 		return result;
 	}
 
 	/*
 	 * Collapses an array of rules that may contain MultiRules into an
-	 * array in which no rules are MultiRules.
+	 * array in which no rules are MultiRules, in canonical form.
 	 */
 	private static ISchedulingRule[] flatten(ISchedulingRule[] nestedRules) {
-		ArrayList myRules = new ArrayList(nestedRules.length);
+		Set myRules = new LinkedHashSet(nestedRules.length * 2);
 		for (int i = 0; i < nestedRules.length; i++) {
 			if (nestedRules[i] instanceof MultiRule) {
-				ISchedulingRule[] children = ((MultiRule) nestedRules[i]).getChildren();
+				ISchedulingRule[] children = ((MultiRule) nestedRules[i]).rules;
 				for (int j = 0; j < children.length; j++)
 					myRules.add(children[j]);
 			} else {
 				myRules.add(nestedRules[i]);
 			}
 		}
-		return (ISchedulingRule[]) myRules.toArray(new ISchedulingRule[myRules.size()]);
+		//look up the key and hash of each child once, rather than on every comparison
+		Child[] children = new Child[myRules.size()];
+		int count = 0;
+		for (Iterator it = myRules.iterator(); it.hasNext();)
+			children[count++] = new Child((ISchedulingRule) it.next());
+		//order keyed children by key, and keep the others in order after them
+		Arrays.sort(children, new Comparator() {
+			public int compare(Object o1, Object o2) {
+				Child child1 = (Child) o1, child2 = (Child) o2;
+				if (child1.key == null || child2.key == null)
+					return child1.key == null ? (child2.key == null ? 0 : 1) : -1;
+				if (child1.hash != child2.hash)
+					return child1.hash < child2.hash ? -1 : 1;
+				return compareKeys(child1.key, child2.key);
+			}
+		});
+		ISchedulingRule[] result = new ISchedulingRule[count];
+		for (int i = 0; i < count; i++)
+			result[i] = children[i].rule;
+		return result;
+	}
+
+	/*
+	 * Orders conflict keys with the same hash segment by segment, by the hash
+	 * and then the string form of each segment. Returns 0 for keys whose
+	 * segments cannot be told apart that way.
+	 */
+	private static int compareKeys(Object[] key1, Object[] key2) {
+		int length = Math.min(key1.length, key2.length);
+		for (int i = 0; i < length; i++) {
+			int result = compareSegments(key1[i], key2[i]);
+			if (result != 0)
+				return result;
+		}
+		return key1.length - key2.length;
+	}
+
+	private static int compareSegments(Object segment1, Object segment2) {
+		if (segment1 == null || segment2 == null)
+			return segment1 == null ? (segment2 == null ? 0 : -1) : 1;
+		int hash1 = segment1.hashCode(), hash2 = segment2.hashCode();
+		if (hash1 != hash2)
+			return hash1 < hash2 ? -1 : 1;
+		return segment1.toString().compareTo(segment2.toString());
+	}
+
+	/*
+	 * Returns the conflict key of the given rule, or null if it has none.
+	 */
+	private static Object[] keyOf(ISchedulingRule rule) {
+		if (rule instanceof IKeyedSchedulingRule)
+			return ((IKeyedSchedulingRule) rule).getConflictKey();
+		return null;
 	}
 
 	/**
@@ -125,6 +454,36 @@ public class MultiRule implements ISchedulingRule {
 		return (ISchedulingRule[]) rules.clone();
 	}
 
+	/**
+	 * Returns the longest common prefix of the conflict keys of the children,
+	 * or <code>null</code> if some child does not expose a conflict key.
+	 * 
+	 * @return the conflict key of this rule, or <code>null</code>
+	 * @since 3.6
+	 */
+	public Object[] getConflictKey() {
+		Object[] key = getSummary().commonKey;
+		return key == null ? null : (Object[]) key.clone();
+	}
+
+	/*
+	 * Returns the summary of the children, and creates it if needed. The
+	 * children are only indexed if there are enough of them.
+	 */
+	private Summary getSummary() {
+		Summary result = summary;
+		if (result == null)
+			summary = result = new Summary(rules, rules.length >= INDEX_THRESHOLD);
+		return result;
+	}
+
+	/*
+	 * Returns whether the children of this rule are indexed.
+	 */
+	private boolean isIndexed() {
+		return rules.length >= INDEX_THRESHOLD;
+	}
+
 	/* (non-Javadoc)
 	 * @see org.eclipse.core.runtime.jobs.ISchedulingRule#contains(org.eclipse.core.runtime.jobs.ISchedulingRule)
 	 */
@@ -132,17 +491,24 @@ public class MultiRule implements ISchedulingRule {
 		if (this == rule)
 			return true;
 		if (rule instanceof MultiRule) {
-			ISchedulingRule[] otherRules = ((MultiRule) rule).getChildren();
+			ISchedulingRule[] otherRules = ((MultiRule) rule).rules;
 			//for each child of the target, there must be some child in this rule that contains it.
-			for (int other = 0; other < otherRules.length; other++) {
-				boolean found = false;
-				for (int mine = 0; !found && mine < rules.length; mine++)
-					found = rules[mine].contains(otherRules[other]);
-				if (!found)
+			for (int other = 0; other < otherRules.length; other++)
+				if (!containsChild(otherRules[other]))
 					return false;
-			}
 			return true;
 		}
+		return containsChild(rule);
+	}
+
+	/*
+	 * Returns whether some child of this rule contains the given rule, which
+	 * is not a MultiRule.
+	 */
+	private boolean containsChild(ISchedulingRule rule) {
+		Object[] key;
+		if (isIndexed() && (key = keyOf(rule)) != null)
+			return getSummary().contains(rule, key);
 		for (int i = 0; i < rules.length; i++)
 			if (rules[i].contains(rule))
 				return true;
@@ -156,16 +522,35 @@ public class MultiRule implements ISchedulingRule {
 		if (this == rule)
 			return true;
 		if (rule instanceof MultiRule) {
-			ISchedulingRule[] otherRules = ((MultiRule) rule).getChildren();
+			MultiRule other = (MultiRule) rule;
+			//check the children of the smaller rule against the larger one
+			if (other.rules.length > rules.length)
+				return other.isConflicting(this);
+			if (isIndexed() && other.isIndexed()) {
+				Summary mine = getSummary(), others = other.getSummary();
+				if (mine.unkeyed.length == 0 && others.unkeyed.length == 0 && mine.isDisjoint(others))
+					return false;
+			}
+			ISchedulingRule[] otherRules = other.rules;
 			for (int j = 0; j < otherRules.length; j++)
-				for (int i = 0; i < rules.length; i++)
-					if (rules[i].isConflicting(otherRules[j]))
-						return true;
-		} else {
-			for (int i = 0; i < rules.length; i++)
-				if (rules[i].isConflicting(rule))
+				if (isConflictingChild(otherRules[j]))
 					return true;
+			return false;
 		}
+		return isConflictingChild(rule);
+	}
+
+	/*
+	 * Returns whether some child of this rule conflicts with the given rule,
+	 * which is not a MultiRule.
+	 */
+	private boolean isConflictingChild(ISchedulingRule rule) {
+		Object[] key;
+		if (isIndexed() && (key = keyOf(rule)) != null)
+			return getSummary().isConflicting(rule, key);
+		for (int i = 0; i < rules.length; i++)
+			if (rules[i].isConflicting(rule))
+				return true;
 		return false;
 	}
 
@@ -29,6 +29,7 @@ public class AllTests extends TestCase {
 		suite.addTestSuite(YieldTest.class);
 		suite.addTestSuite(IJobManagerTest.class);
 		suite.addTestSuite(JobQueueTest.class);
+		suite.addTestSuite(JobHeapQueueTest.class);
 		suite.addTestSuite(OrderedLockTest.class);
 		suite.addTestSuite(BeginEndRuleTest.class);
 		suite.addTestSuite(JobTest.class);
@@ -42,6 +43,8 @@ public class AllTests extends TestCase {
 		suite.addTestSuite(Bug_311863.class);
 		suite.addTestSuite(Bug_316839.class);
 		suite.addTestSuite(Bug_320329.class);
+		suite.addTestSuite(KeyedRuleTest.class);
+		suite.addTestSuite(JobGroupTest.class);
 		return suite;
 	}
 }
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2003, 2010 IBM Corporation and others.
+ * Copyright (c) 2003, 2012 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -10,8 +10,13 @@
  *******************************************************************************/
 package org.eclipse.core.tests.runtime.jobs;
 
+import java.io.*;
 import java.util.*;
 import junit.framework.*;
+import org.eclipse.core.internal.jobs.FlightRecordDecoder;
+import org.eclipse.core.internal.jobs.JobManager;
+import org.eclipse.core.internal.jobs.JobStatistics;
+import org.eclipse.core.internal.jobs.PoolOccupancy;
 import org.eclipse.core.runtime.*;
 import org.eclipse.core.runtime.jobs.*;
 import org.eclipse.core.tests.harness.*;
@@ -137,6 +142,147 @@ public class IJobManagerTest extends AbstractJobManagerTest {
 		//		manager.startup();
 	}
 
+	/**
+	 * Tests that asynchronous listeners are notified in order on another
+	 * thread, except for aboutToRun.
+	 */
+	public void testAsynchronousListener() {
+		final Thread[] jobThread = new Thread[1];
+		final Thread[] aboutToRunThread = new Thread[1];
+		final List events = Collections.synchronizedList(new ArrayList());
+		final List threads = Collections.synchronizedList(new ArrayList());
+		Job job = new Job("testAsynchronousListener") {
+			protected IStatus run(IProgressMonitor monitor) {
+				jobThread[0] = Thread.currentThread();
+				return Status.OK_STATUS;
+			}
+		};
+		class AsynchronousListener extends JobChangeAdapter implements IAsynchronousJobChangeListener {
+			private void record(String event) {
+				threads.add(Thread.currentThread());
+				events.add(event);
+			}
+
+			public void aboutToRun(IJobChangeEvent event) {
+				aboutToRunThread[0] = Thread.currentThread();
+			}
+
+			public void done(IJobChangeEvent event) {
+				record("done");
+			}
+
+			public void running(IJobChangeEvent event) {
+				record("running");
+			}
+
+			public void scheduled(IJobChangeEvent event) {
+				record("scheduled");
+			}
+		}
+		job.addJobChangeListener(new AsynchronousListener());
+		job.schedule();
+		waitForCompletion(job);
+		for (int i = 0; events.size() < 3 && i < 500; i++) {
+			try {
+				Thread.sleep(10);
+			} catch (InterruptedException e) {
+				//ignore
+			}
+		}
+		assertEquals("1.0", Arrays.asList(new String[] {"scheduled", "running", "done"}), events);
+		assertSame("1.1", jobThread[0], aboutToRunThread[0]);
+		for (int i = 0; i < threads.size(); i++) {
+			assertNotSame("1.2." + i, jobThread[0], threads.get(i));
+			assertNotSame("1.3." + i, Thread.currentThread(), threads.get(i));
+		}
+	}
+
+	/**
+	 * Tests that an asynchronous listener receives the notifications of a job
+	 * in order when their queue is full.
+	 */
+	public void testAsynchronousListenerQueueFull() {
+		final List events = Collections.synchronizedList(new ArrayList());
+		final Job job = new Job("testAsynchronousListenerQueueFull") {
+			protected IStatus run(IProgressMonitor monitor) {
+				return Status.OK_STATUS;
+			}
+		};
+		class AsynchronousListener extends JobChangeAdapter implements IAsynchronousJobChangeListener {
+			public void done(IJobChangeEvent event) {
+				if (event.getJob() == job)
+					events.add("done");
+			}
+
+			public void scheduled(IJobChangeEvent event) {
+				if (event.getJob() != job)
+					return;
+				//let the queue fill up
+				if (events.isEmpty())
+					sleep(200);
+				events.add(new Long(event.getDelay()));
+			}
+		}
+		IJobChangeListener listener = new AsynchronousListener();
+		manager.addJobChangeListener(listener);
+		try {
+			for (int i = 0; i < 1500; i++) {
+				job.schedule(60000 + i);
+				job.cancel();
+			}
+			for (int i = 0; events.size() < 3000 && i < 500; i++)
+				sleep(10);
+			assertEquals("1.0", 3000, events.size());
+			for (int i = 0; i < 3000; i++)
+				assertEquals("1.1." + i, i % 2 == 0 ? (Object) new Long(60000 + i / 2) : "done", events.get(i));
+		} finally {
+			manager.removeJobChangeListener(listener);
+		}
+	}
+
+	/**
+	 * Tests that an asynchronous listener receives the queued notifications
+	 * of a job before its aboutToRun notification.
+	 */
+	public void testAsynchronousListenerAboutToRun() {
+		final List events = Collections.synchronizedList(new ArrayList());
+		final Job slow = new Job("testAsynchronousListenerAboutToRun.slow") {
+			protected IStatus run(IProgressMonitor monitor) {
+				return Status.OK_STATUS;
+			}
+		};
+		final Job job = new Job("testAsynchronousListenerAboutToRun") {
+			protected IStatus run(IProgressMonitor monitor) {
+				return Status.OK_STATUS;
+			}
+		};
+		class AsynchronousListener extends JobChangeAdapter implements IAsynchronousJobChangeListener {
+			public void aboutToRun(IJobChangeEvent event) {
+				if (event.getJob() == job)
+					events.add("aboutToRun");
+			}
+
+			public void scheduled(IJobChangeEvent event) {
+				//hold up the notifications that follow
+				if (event.getJob() == slow)
+					sleep(500);
+				else if (event.getJob() == job)
+					events.add("scheduled");
+			}
+		}
+		IJobChangeListener listener = new AsynchronousListener();
+		manager.addJobChangeListener(listener);
+		try {
+			slow.schedule(60000);
+			job.schedule();
+			waitForCompletion(job);
+			slow.cancel();
+			assertEquals("1.0", Arrays.asList(new String[] {"scheduled", "aboutToRun"}), events);
+		} finally {
+			manager.removeJobChangeListener(listener);
+		}
+	}
+
 	/**
 	 * Tests running a job that begins a rule but never ends it
 	 */
@@ -376,6 +522,36 @@ public class IJobManagerTest extends AbstractJobManagerTest {
 		}
 	}
 
+	public void testDelayedJobOrder() {
+		//schedule many delayed jobs at once, and ensure they run in the order of their delays
+		final int[] delays = new int[] {400, 50, 250, 0, 100, 5000, 200, 80, 300, 150};
+		final List started = Collections.synchronizedList(new ArrayList());
+		final long[] startTimes = new long[delays.length];
+		ISchedulingRule rule = new IdentityRule();
+		Job[] jobs = new Job[delays.length];
+		long start = System.currentTimeMillis();
+		for (int i = 0; i < jobs.length; i++) {
+			final int index = i;
+			jobs[i] = new Job("testDelayedJobOrder" + i) {
+				protected IStatus run(IProgressMonitor monitor) {
+					startTimes[index] = System.currentTimeMillis();
+					started.add(new Integer(delays[index]));
+					return Status.OK_STATUS;
+				}
+			};
+			jobs[i].setRule(rule);
+			jobs[i].schedule(delays[i]);
+		}
+		//the longest delay can be cut short by waking the job up
+		jobs[5].wakeUp();
+		waitForJobsCompletion(jobs, 5000);
+		assertEquals("1.0", "[0, 5000, 50, 80, 100, 150, 200, 250, 300, 400]", started.toString());
+		for (int i = 0; i < jobs.length; i++) {
+			if (i != 5)
+				assertTrue("2." + i, startTimes[i] - start >= delays[i]);
+		}
+	}
+
 	public void testJobFamilyCancel() {
 		//test the cancellation of a family of jobs
 		final int NUM_JOBS = 20;
@@ -452,6 +628,57 @@ public class IJobManagerTest extends AbstractJobManagerTest {
 		}
 	}
 
+	public void testJobFamilyDeclared() {
+		//jobs that declare their families are found along with jobs that override belongsTo
+		final String declared = "testJobFamilyDeclared"; //$NON-NLS-1$
+		TestJobFamily undeclared = new TestJobFamily(TestJobFamily.TYPE_ONE);
+		TestJob[] jobs = new TestJob[6];
+		for (int i = 0; i < jobs.length; i++) {
+			if (i % 2 == 0) {
+				jobs[i] = new TestJob("TestDeclaredFamily", 1000000, 10);
+				jobs[i].setFamilies(new Object[] {declared, undeclared});
+			} else {
+				jobs[i] = new FamilyTestJob("TestUndeclaredFamily", 1000000, 10, TestJobFamily.TYPE_ONE);
+			}
+		}
+		assertTrue("1.0", jobs[0].belongsTo(declared));
+		assertTrue("1.1", jobs[0].belongsTo(new String(declared)));
+		assertTrue("1.2", !jobs[0].belongsTo(null));
+		assertTrue("1.3", !jobs[1].belongsTo(declared));
+		assertEquals("1.4", 2, jobs[0].getFamilies().length);
+		assertNull("1.5", jobs[1].getFamilies());
+
+		for (int i = 0; i < jobs.length; i++)
+			jobs[i].schedule(1000000);
+		//the families of a scheduled job cannot change
+		try {
+			jobs[0].setFamilies(null);
+			fail("2.0");
+		} catch (RuntimeException e) {
+			//expected
+		}
+		assertEquals("2.1", 3, manager.find(declared).length);
+		assertEquals("2.2", 6, manager.find(undeclared).length);
+
+		//wake up the declared jobs, and cancel them once they are running
+		manager.wakeUp(declared);
+		for (int i = 0; i < jobs.length; i += 2)
+			waitForStart(jobs[i]);
+		assertEquals("3.0", 3, manager.find(declared).length);
+		assertEquals("3.1", 3, manager.find(undeclared).length - manager.find(declared).length);
+		manager.cancel(declared);
+		for (int i = 0; i < jobs.length; i += 2)
+			waitForCompletion(jobs[i]);
+		assertEquals("4.0", 0, manager.find(declared).length);
+		assertEquals("4.1", 3, manager.find(undeclared).length);
+
+		//the families of a job can change once it is no longer scheduled
+		jobs[0].setFamilies(null);
+		assertTrue("5.0", !jobs[0].belongsTo(declared));
+		manager.cancel(undeclared);
+		assertEquals("5.1", 0, manager.find(undeclared).length);
+	}
+
 	public void testJobFamilyFind() {
 		//test of finding jobs based on the job family they belong to
 		final int NUM_JOBS = 20;
@@ -702,6 +929,37 @@ public class IJobManagerTest extends AbstractJobManagerTest {
 		}
 	}
 
+	public void testJobFamilyFuture() throws InterruptedException {
+		final TestJobFamily first = new TestJobFamily(TestJobFamily.TYPE_ONE);
+		final TestJobFamily second = new TestJobFamily(TestJobFamily.TYPE_TWO);
+		//a family without jobs has a future that is already done
+		IJobFuture future = manager.getFuture(first);
+		assertTrue("1.0", future.isDone());
+		assertEquals("1.1", IStatus.OK, future.getResult().getSeverity());
+
+		Job[] jobs = new Job[4];
+		for (int i = 0; i < jobs.length; i++) {
+			jobs[i] = new FamilyTestJob("testJobFamilyFuture", 1000000, 10, TestJobFamily.TYPE_ONE);
+			jobs[i].schedule();
+		}
+		Job other = new FamilyTestJob("testJobFamilyFuture", 1000000, 10, TestJobFamily.TYPE_TWO);
+		other.schedule();
+		future = manager.getFuture(first);
+		assertNull("2.0", future.join(100));
+		//canceling all but one job of the family is not enough
+		for (int i = 1; i < jobs.length; i++)
+			jobs[i].cancel();
+		assertNull("2.1", future.join(100));
+		//the future is done once the last job is done, regardless of other families
+		jobs[0].cancel();
+		IStatus result = future.join(10000);
+		assertNotNull("2.2", result);
+		assertEquals("2.3", IStatus.CANCEL, result.getSeverity());
+		assertTrue("2.4", !manager.getFuture(second).isDone());
+		other.cancel();
+		assertNotNull("2.5", manager.getFuture(second).join(10000));
+	}
+
 	public void testJobFamilyJoinCancelJobs() {
 		//test the join method on a family of jobs, then cancel the jobs that are blocking the join call
 		final int[] status = new int[1];
@@ -1308,6 +1566,360 @@ public class IJobManagerTest extends AbstractJobManagerTest {
 		}
 	}
 
+	/**
+	 * Tests that jobs of the same priority are queued in the order of their
+	 * deadline when the queue is ordered by deadline, with the jobs without a
+	 * deadline last, and that missed deadlines are counted in the job statistics.
+	 */
+	public void testDeadlineOrder() {
+		final Object family = new Object();
+		long[] deadlines = new long[] {100, 2000, 4000, 0};
+		Job[] jobs = new Job[deadlines.length];
+		JobManager jobManager = (JobManager) manager;
+		assertEquals("1.0", "priority", jobManager.getQueueOrder());
+		jobManager.resetStatistics();
+		manager.suspend();
+		try {
+			jobManager.setQueueOrder("deadline");
+			//schedule in the reverse order of the deadlines
+			for (int i = jobs.length - 1; i >= 0; i--) {
+				jobs[i] = new TestJob("testDeadlineOrder(" + i + ")", 1, 1);
+				jobs[i].setFamilies(new Object[] {family});
+				jobs[i].setDeadline(deadlines[i]);
+				assertEquals("1.1." + i, deadlines[i], jobs[i].getDeadline());
+				jobs[i].schedule();
+			}
+			//the wait queue is found in order
+			List queued = new ArrayList(Arrays.asList(manager.find(null)));
+			queued.retainAll(Arrays.asList(jobs));
+			assertEquals("2.0", Arrays.asList(jobs), queued);
+			//let the shortest deadline pass
+			sleep(300);
+		} finally {
+			jobManager.setQueueOrder("priority");
+			manager.resume();
+		}
+		for (int i = 0; i < jobs.length; i++)
+			waitForCompletion(jobs[i]);
+		JobStatistics[] statistics = jobManager.getFamilyStatistics();
+		assertEquals("3.0", 1, statistics.length);
+		assertEquals("3.1 " + statistics[0], 1, statistics[0].getMissedDeadlines());
+		assertTrue("3.2 " + statistics[0], statistics[0].getLateness().getMax() >= 150);
+	}
+
+	/**
+	 * Tests that ordering the queue by deadline keeps the priority classes
+	 * apart, however long the deadlines are.
+	 */
+	public void testDeadlineOrderPriorities() {
+		int[] priorities = new int[] {Job.INTERACTIVE, Job.SHORT, Job.SHORT, Job.LONG, Job.DECORATE};
+		long[] deadlines = new long[] {0, 10, 2000, 10, 0};
+		Job[] jobs = new Job[priorities.length];
+		JobManager jobManager = (JobManager) manager;
+		manager.suspend();
+		try {
+			jobManager.setQueueOrder("deadline");
+			//schedule in the reverse order of the priorities
+			for (int i = jobs.length - 1; i >= 0; i--) {
+				jobs[i] = new TestJob("testDeadlineOrderPriorities(" + i + ")", 1, 1);
+				jobs[i].setPriority(priorities[i]);
+				jobs[i].setDeadline(deadlines[i]);
+				jobs[i].schedule();
+			}
+			//the wait queue is found in order
+			List queued = new ArrayList(Arrays.asList(manager.find(null)));
+			queued.retainAll(Arrays.asList(jobs));
+			assertEquals("1.0", Arrays.asList(jobs), queued);
+		} finally {
+			jobManager.setQueueOrder("priority");
+			manager.resume();
+		}
+		for (int i = 0; i < jobs.length; i++)
+			waitForCompletion(jobs[i]);
+	}
+
+	public void testFlightRecord() throws IOException {
+		final ISchedulingRule rule = new PathRule("/testFlightRecord");
+		Job job = new Job("testFlightRecord") {
+			protected IStatus run(IProgressMonitor monitor) {
+				manager.beginRule(rule, null);
+				manager.endRule(rule);
+				return Status.OK_STATUS;
+			}
+		};
+		job.schedule();
+		waitForCompletion(job);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		((JobManager) manager).writeFlightRecord(out);
+		FlightRecordDecoder decoder = new FlightRecordDecoder(new ByteArrayInputStream(out.toByteArray()));
+		assertTrue("1.0", decoder.getEventCount() > 0);
+		//the last job of that name is the one scheduled above
+		String[] timeline = null;
+		int[] jobs = decoder.getJobs();
+		for (int i = 0; i < jobs.length; i++)
+			if ("testFlightRecord".equals(decoder.getName(jobs[i])))
+				timeline = decoder.getTimeline(jobs[i]);
+		assertNotNull("1.1", timeline);
+		String[] expected = {"NONE -> ABOUT_TO_SCHEDULE", "ABOUT_TO_SCHEDULE -> WAITING", "WAITING -> ABOUT_TO_RUN", "ABOUT_TO_RUN -> RUNNING", "RULE_BEGIN", "RULE_END", "RUNNING -> NONE"};
+		assertEquals("1.2 " + Arrays.asList(timeline), expected.length, timeline.length);
+		for (int i = 0; i < expected.length; i++)
+			assertTrue("1.3." + i + " " + timeline[i], timeline[i].indexOf(expected[i]) >= 0);
+		try {
+			new FlightRecordDecoder(new ByteArrayInputStream(new byte[8]));
+			fail("2.0");
+		} catch (IOException e) {
+			//expected
+		}
+	}
+
+	/**
+	 * Tests that a job is named in the flight record after the ring of events
+	 * has wrapped since it was scheduled, and that long names are cut.
+	 */
+	public void testFlightRecordNames() throws IOException {
+		final ISchedulingRule rule = new PathRule("/testFlightRecordNames");
+		StringBuffer name = new StringBuffer("testFlightRecordNames");
+		while (name.length() < 70000)
+			name.append('x');
+		final boolean[] finish = new boolean[1];
+		Job job = new Job(name.toString()) {
+			protected IStatus run(IProgressMonitor monitor) {
+				synchronized (finish) {
+					while (!finish[0]) {
+						try {
+							finish.wait();
+						} catch (InterruptedException e) {
+							//ignore
+						}
+					}
+				}
+				return Status.OK_STATUS;
+			}
+		};
+		job.schedule();
+		//push the scheduling of the job out of the ring
+		for (int i = 0; i < 5000; i++) {
+			manager.beginRule(rule, null);
+			manager.endRule(rule);
+		}
+		synchronized (finish) {
+			finish[0] = true;
+			finish.notifyAll();
+		}
+		waitForCompletion(job);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		((JobManager) manager).writeFlightRecord(out);
+		FlightRecordDecoder decoder = new FlightRecordDecoder(new ByteArrayInputStream(out.toByteArray()));
+		String recorded = null;
+		int[] jobs = decoder.getJobs();
+		for (int i = 0; i < jobs.length; i++) {
+			String next = decoder.getName(jobs[i]);
+			if (next != null && next.startsWith("testFlightRecordNames"))
+				recorded = next;
+		}
+		assertNotNull("1.0", recorded);
+		assertEquals("1.1", name.substring(0, recorded.length()), recorded);
+		assertTrue("1.2", recorded.length() < name.length());
+	}
+
+	/**
+	 * Schedules the given number of jobs of the given family and returns them.
+	 */
+	private Job[] scheduleFamily(String name, Object family, int count) {
+		Job[] jobs = new Job[count];
+		for (int i = 0; i < count; i++) {
+			jobs[i] = new TestJob(name + "(" + i + ")", 1, 1);
+			jobs[i].setFamilies(new Object[] {family});
+			jobs[i].schedule();
+		}
+		return jobs;
+	}
+
+	public void testFairShareOrder() {
+		Object flooding = new Object();
+		Object other = new Object();
+		Object weighted = new Object();
+		Object heavy = new Object();
+		Object burst = new Object();
+		JobManager jobManager = (JobManager) manager;
+		Job[] floodingJobs, otherJobs, weightedJobs, lateJobs, heavyJobs, lightJobs, burstJobs;
+		Job longJob;
+		List queued;
+		manager.suspend();
+		try {
+			jobManager.setQueueOrder("fair");
+			assertEquals("1.0", "fair", jobManager.getQueueOrder());
+			//a family that floods the queue does not keep a later family waiting
+			floodingJobs = scheduleFamily("testFairShareOrder.flooding", flooding, 10);
+			otherJobs = scheduleFamily("testFairShareOrder.other", other, 3);
+			queued = Arrays.asList(manager.find(null));
+			assertTrue("1.1", queued.indexOf(otherJobs[0]) < queued.indexOf(floodingJobs[2]));
+			assertTrue("1.2", queued.indexOf(otherJobs[2]) < queued.indexOf(floodingJobs[9]));
+			//a family with three times the weight gets three turns for each turn of another family
+			jobManager.setShareWeight(weighted, 3);
+			weightedJobs = scheduleFamily("testFairShareOrder.weighted", weighted, 9);
+			lateJobs = scheduleFamily("testFairShareOrder.late", new Object(), 2);
+			queued = Arrays.asList(manager.find(null));
+			assertTrue("2.0", queued.indexOf(weightedJobs[3]) < queued.indexOf(lateJobs[1]));
+			assertTrue("2.1", queued.indexOf(lateJobs[1]) < queued.indexOf(weightedJobs[8]));
+			//a family with a weight above the quantum still takes turns
+			jobManager.setShareWeight(heavy, 20);
+			heavyJobs = scheduleFamily("testFairShareOrder.heavy", heavy, 40);
+			lightJobs = scheduleFamily("testFairShareOrder.light", new Object(), 2);
+			queued = Arrays.asList(manager.find(null));
+			assertTrue("2.2", queued.indexOf(lightJobs[1]) < queued.indexOf(heavyJobs[39]));
+			//a burst of jobs is not pushed behind the jobs of a lower priority
+			burstJobs = new Job[20];
+			for (int i = 0; i < burstJobs.length; i++) {
+				burstJobs[i] = new TestJob("testFairShareOrder.burst(" + i + ")", 1, 1);
+				burstJobs[i].setFamilies(new Object[] {burst});
+				burstJobs[i].setPriority(Job.SHORT);
+				burstJobs[i].schedule();
+			}
+			longJob = new TestJob("testFairShareOrder.long", 1, 1);
+			longJob.setPriority(Job.LONG);
+			longJob.schedule();
+			queued = Arrays.asList(manager.find(null));
+			assertTrue("2.3", queued.indexOf(burstJobs[19]) < queued.indexOf(longJob));
+		} finally {
+			jobManager.setQueueOrder("priority");
+			manager.resume();
+		}
+		try {
+			jobManager.setShareWeight(flooding, 0);
+			fail("3.0");
+		} catch (IllegalArgumentException e) {
+			//expected
+		}
+		waitForCompletion(floodingJobs[9]);
+		waitForCompletion(otherJobs[2]);
+		waitForCompletion(weightedJobs[8]);
+		waitForCompletion(lateJobs[1]);
+		waitForCompletion(heavyJobs[39]);
+		waitForCompletion(lightJobs[1]);
+		waitForCompletion(burstJobs[19]);
+		waitForCompletion(longJob);
+	}
+
+	/**
+	 * Returns whether the given result reports that the job queue is full.
+	 */
+	private boolean isQueueFull(IStatus result) {
+		return result != null && result.getCode() == JobManager.QUEUE_FULL && JobManager.PI_JOBS.equals(result.getPlugin());
+	}
+
+	public void testQueueLimit() throws InterruptedException {
+		final Object family = new Object();
+		final JobManager jobManager = (JobManager) manager;
+		final List refused = Collections.synchronizedList(new ArrayList());
+		IJobChangeListener listener = new JobChangeAdapter() {
+			public void done(IJobChangeEvent event) {
+				if (isQueueFull(event.getResult()))
+					refused.add(event.getJob());
+			}
+		};
+		Job[] jobs = new Job[6];
+		for (int i = 0; i < jobs.length; i++) {
+			jobs[i] = new TestJob("testQueueLimit(" + i + ")", 1, 1);
+			jobs[i].setFamilies(new Object[] {family});
+		}
+		Job duplicate = new TestJob("testQueueLimit(1)", 1, 1);
+		duplicate.setFamilies(new Object[] {family});
+		manager.addJobChangeListener(listener);
+		manager.suspend();
+		try {
+			//reject
+			jobManager.setQueueLimit(family, 2, "reject");
+			jobs[0].schedule();
+			jobs[1].schedule();
+			jobs[2].schedule();
+			assertEquals("1.0", Job.NONE, jobs[2].getState());
+			assertEquals("1.1", IStatus.CANCEL, jobs[2].getResult().getSeverity());
+			assertTrue("1.2", isQueueFull(jobs[2].getResult()));
+			assertEquals("1.3", 2, manager.find(family).length);
+			//unrelated jobs are not limited
+			Job other = new TestJob("testQueueLimit.other", 1, 1);
+			other.schedule();
+			assertEquals("1.4", Job.WAITING, other.getState());
+			other.cancel();
+
+			//drop the oldest, counting the jobs that are already queued
+			jobManager.setQueueLimit(family, 2, "dropOldest");
+			jobs[3].schedule();
+			assertEquals("2.0", Job.WAITING, jobs[3].getState());
+			assertEquals("2.1", Job.NONE, jobs[0].getState());
+			assertEquals("2.2", 2, manager.find(family).length);
+
+			//coalesce into a queued job of the same class and name
+			jobManager.setQueueLimit(family, 2, "coalesce");
+			duplicate.schedule();
+			assertEquals("3.0", Job.NONE, duplicate.getState());
+			assertEquals("3.1", IStatus.OK, duplicate.getResult().getSeverity());
+			assertTrue("3.2", isQueueFull(duplicate.getResult()));
+			jobs[4].schedule();
+			assertEquals("3.3", IStatus.CANCEL, jobs[4].getResult().getSeverity());
+
+			//block until there is room
+			jobManager.setQueueLimit(family, 2, "block");
+			final Job blocked = jobs[5];
+			Thread producer = new Thread("testQueueLimit.producer") {
+				public void run() {
+					blocked.schedule();
+				}
+			};
+			producer.start();
+			producer.join(200);
+			assertTrue("4.0", producer.isAlive());
+			assertEquals("4.1", Job.NONE, blocked.getState());
+			jobs[1].cancel();
+			producer.join(10000);
+			assertTrue("4.2", !producer.isAlive());
+			assertEquals("4.3", Job.WAITING, blocked.getState());
+		} finally {
+			jobManager.setQueueLimit(family, 0, null);
+			manager.resume();
+			manager.removeJobChangeListener(listener);
+		}
+		waitForCompletion(jobs[3]);
+		waitForCompletion(jobs[5]);
+		//the listeners are told about the refused, dropped and merged jobs
+		assertTrue("5.0", refused.containsAll(Arrays.asList(new Job[] {jobs[0], jobs[2], jobs[4], duplicate})));
+		assertTrue("5.1", !refused.contains(jobs[1]));
+	}
+
+	/**
+	 * Tests that a worker thread that schedules a job from the listeners of the
+	 * job it is about to run is refused instead of blocked by a full queue.
+	 */
+	public void testQueueLimitInListener() {
+		final Object family = new Object();
+		final JobManager jobManager = (JobManager) manager;
+		final Job queued = new TestJob("testQueueLimitInListener.queued", 1, 1);
+		queued.setFamilies(new Object[] {family});
+		final Job limited = new TestJob("testQueueLimitInListener.limited", 1, 1);
+		limited.setFamilies(new Object[] {family});
+		final Job trigger = new TestJob("testQueueLimitInListener.trigger", 1, 1);
+		IJobChangeListener listener = new JobChangeAdapter() {
+			public void aboutToRun(IJobChangeEvent event) {
+				if (event.getJob() == trigger)
+					limited.schedule();
+			}
+		};
+		manager.addJobChangeListener(listener);
+		try {
+			jobManager.setQueueLimit(family, 1, "block");
+			queued.schedule(1000000);
+			trigger.schedule();
+			waitForCompletion(trigger, 10000);
+			assertEquals("1.0", Job.NONE, limited.getState());
+			assertTrue("1.1", isQueueFull(limited.getResult()));
+		} finally {
+			manager.removeJobChangeListener(listener);
+			jobManager.setQueueLimit(family, 0, null);
+			queued.cancel();
+		}
+	}
+
 	public void testReverseOrder() {
 		//ensure jobs are run in order from lowest to highest sleep time.
 		final List done = Collections.synchronizedList(new ArrayList());
@@ -1341,6 +1953,59 @@ public class IJobManagerTest extends AbstractJobManagerTest {
 		}
 	}
 
+	/**
+	 * Tests scheduling many jobs in one call.
+	 */
+	public void testScheduleBatch() {
+		final int NUM_JOBS = 50;
+		final List started = Collections.synchronizedList(new ArrayList());
+		final int[] scheduledCount = new int[1];
+		IJobChangeListener listener = new JobChangeAdapter() {
+			public void scheduled(IJobChangeEvent event) {
+				if (event.getJob().belongsTo(started))
+					scheduledCount[0]++;
+			}
+		};
+		ISchedulingRule rule = new IdentityRule();
+		Job[] jobs = new Job[NUM_JOBS + 1];
+		for (int i = 0; i < NUM_JOBS; i++) {
+			final Integer index = new Integer(i);
+			jobs[i] = new Job("testScheduleBatch" + i) {
+				public boolean belongsTo(Object family) {
+					return family == started;
+				}
+
+				protected IStatus run(IProgressMonitor monitor) {
+					started.add(index);
+					return Status.OK_STATUS;
+				}
+			};
+			jobs[i].setRule(rule);
+		}
+		//a job that appears twice is only scheduled once
+		jobs[NUM_JOBS] = jobs[0];
+		manager.addJobChangeListener(listener);
+		try {
+			manager.schedule(jobs, 0L);
+			waitForJobsCompletion(jobs, 5000);
+		} finally {
+			manager.removeJobChangeListener(listener);
+		}
+		assertEquals("1.0", NUM_JOBS, scheduledCount[0]);
+		//jobs with conflicting rules run in the order they were given
+		assertEquals("1.1", NUM_JOBS, started.size());
+		for (int i = 0; i < NUM_JOBS; i++)
+			assertEquals("1.2." + i, new Integer(i), started.get(i));
+
+		//delayed jobs sleep until the delay has elapsed
+		started.clear();
+		manager.schedule(new Job[] {jobs[1], jobs[2]}, 1000000);
+		assertEquals("2.0", 2, manager.find(started).length);
+		assertEquals("2.1", Job.SLEEPING, jobs[1].getState());
+		manager.cancel(started);
+		assertEquals("2.2", 0, started.size());
+	}
+
 	/**
 	 * Tests conditions where there is a race to schedule the same job multiple times.
 	 */
@@ -1455,6 +2120,207 @@ public class IJobManagerTest extends AbstractJobManagerTest {
 		waitForCompletion(job);
 	}
 
+	public void testIsIdle() {
+		Job job = new TestJob("testIsIdle", 1, 1);
+		manager.suspend();
+		try {
+			//a waiting job makes the manager busy even if it cannot run yet
+			job.schedule();
+			assertState("1.0", job, Job.WAITING);
+			assertTrue("1.1", !manager.isIdle());
+		} finally {
+			manager.resume();
+		}
+		waitForCompletion(job);
+		//wait for any other jobs to finish
+		int i = 0;
+		while (!manager.isIdle()) {
+			sleep(100);
+			assertTrue("2.0", ++i < 100);
+		}
+	}
+
+	public void testPoolOccupancy() {
+		final int JOB_COUNT = 3;
+		final int[] status = new int[JOB_COUNT];
+		Job[] jobs = new Job[JOB_COUNT];
+		for (int i = 0; i < JOB_COUNT; i++) {
+			final int index = i;
+			jobs[i] = new Job("testPoolOccupancy" + i) {
+				protected IStatus run(IProgressMonitor monitor) {
+					status[index] = TestBarrier.STATUS_RUNNING;
+					TestBarrier.waitForStatus(status, index, TestBarrier.STATUS_WAIT_FOR_DONE);
+					return Status.OK_STATUS;
+				}
+			};
+			jobs[i].schedule();
+		}
+		for (int i = 0; i < JOB_COUNT; i++)
+			TestBarrier.waitForStatus(status, i, TestBarrier.STATUS_RUNNING);
+		//every running job occupies a worker
+		PoolOccupancy occupancy = ((JobManager) manager).getPoolOccupancy();
+		assertTrue("1.0 " + occupancy, occupancy.getRunningJobs() >= JOB_COUNT);
+		assertTrue("1.1 " + occupancy, occupancy.getBusyThreads() >= occupancy.getRunningJobs());
+		assertTrue("1.2 " + occupancy, occupancy.getThreads() >= occupancy.getBusyThreads());
+		assertTrue("1.3 " + occupancy, occupancy.getPeakThreads() >= occupancy.getThreads());
+		for (int i = 0; i < JOB_COUNT; i++)
+			status[i] = TestBarrier.STATUS_WAIT_FOR_DONE;
+		for (int i = 0; i < JOB_COUNT; i++)
+			waitForCompletion(jobs[i]);
+	}
+
+	public void testJobStatistics() {
+		final Object family = new Object();
+		Job sleepy = new Job("testJobStatistics") {
+			protected IStatus run(IProgressMonitor monitor) {
+				try {
+					Thread.sleep(50);
+				} catch (InterruptedException e) {
+					//ignore
+				}
+				return Status.OK_STATUS;
+			}
+		};
+		Job canceled = new Job("testJobStatistics") {
+			protected IStatus run(IProgressMonitor monitor) {
+				return Status.CANCEL_STATUS;
+			}
+		};
+		sleepy.setFamilies(new Object[] {family});
+		canceled.setFamilies(new Object[] {family});
+		sleepy.schedule();
+		canceled.schedule();
+		waitForCompletion(sleepy);
+		waitForCompletion(canceled);
+
+		JobStatistics[] statistics = ((JobManager) manager).getFamilyStatistics();
+		JobStatistics familyStatistics = null;
+		for (int i = 0; i < statistics.length; i++)
+			if (statistics[i].getKey() == family)
+				familyStatistics = statistics[i];
+		assertNotNull("1.0", familyStatistics);
+		assertEquals("1.1 " + familyStatistics, 2, familyStatistics.getCount());
+		assertEquals("1.2 " + familyStatistics, 1, familyStatistics.getCanceled());
+		assertEquals("1.3 " + familyStatistics, 0, familyStatistics.getErrors());
+		assertEquals("1.4 " + familyStatistics, 2, familyStatistics.getRunTime().getCount());
+		assertTrue("1.5 " + familyStatistics, familyStatistics.getRunTime().getMax() >= 40);
+		assertTrue("1.6 " + familyStatistics, familyStatistics.getRunTime().getPercentile(100) >= 40);
+
+		statistics = ((JobManager) manager).getClassStatistics();
+		boolean found = false;
+		for (int i = 0; i < statistics.length; i++)
+			found |= sleepy.getClass().getName().equals(statistics[i].getKey());
+		assertTrue("2.0", found);
+
+		((JobManager) manager).resetStatistics();
+		assertEquals("3.0", 0, ((JobManager) manager).getFamilyStatistics().length);
+	}
+
+	/**
+	 * Tests that the statistics of a family do not keep the family alive.
+	 */
+	public void testFamilyStatisticsCollected() {
+		//the test progress provider keeps the monitors of jobs, and with them the jobs
+		manager.setProgressProvider(null);
+		((JobManager) manager).resetStatistics();
+		Job job = new Job("testFamilyStatisticsCollected") {
+			protected IStatus run(IProgressMonitor monitor) {
+				return Status.OK_STATUS;
+			}
+		};
+		job.setFamilies(new Object[] {new Object()});
+		job.schedule();
+		waitForCompletion(job);
+		assertEquals("1.0", 1, ((JobManager) manager).getFamilyStatistics().length);
+		job = null;
+		for (int i = 0; i < 50 && ((JobManager) manager).getFamilyStatistics().length > 0; i++) {
+			System.gc();
+			sleep(20);
+		}
+		assertEquals("1.1", 0, ((JobManager) manager).getFamilyStatistics().length);
+	}
+
+	/**
+	 * Tests that the CPU time and memory used by jobs are recorded for their
+	 * family and class, and can be reported per bundle.
+	 */
+	public void testResourceAccounting() {
+		final Object busyFamily = new Object();
+		final Object idleFamily = new Object();
+		final Object[] garbage = new Object[1];
+		Job busy = new Job("testResourceAccounting") {
+			protected IStatus run(IProgressMonitor monitor) {
+				long start = System.currentTimeMillis();
+				while (System.currentTimeMillis() - start < 100)
+					garbage[0] = new byte[1024];
+				return Status.OK_STATUS;
+			}
+		};
+		Job idle = new Job("testResourceAccounting") {
+			protected IStatus run(IProgressMonitor monitor) {
+				try {
+					Thread.sleep(100);
+				} catch (InterruptedException e) {
+					//ignore
+				}
+				return Status.OK_STATUS;
+			}
+		};
+		busy.setFamilies(new Object[] {busyFamily});
+		idle.setFamilies(new Object[] {idleFamily});
+		busy.schedule();
+		idle.schedule();
+		waitForCompletion(busy);
+		waitForCompletion(idle);
+
+		JobStatistics busyStatistics = null, idleStatistics = null;
+		JobStatistics[] statistics = ((JobManager) manager).getFamilyStatistics();
+		for (int i = 0; i < statistics.length; i++) {
+			if (statistics[i].getKey() == busyFamily)
+				busyStatistics = statistics[i];
+			else if (statistics[i].getKey() == idleFamily)
+				idleStatistics = statistics[i];
+		}
+		assertNotNull("1.0", busyStatistics);
+		assertNotNull("1.1", idleStatistics);
+		//some threads, such as virtual threads, cannot be measured
+		if (busyStatistics.getCpuTime() == -1) {
+			assertEquals("1.2 " + busyStatistics, 0, busyStatistics.getCpuMeasuredCount());
+		} else {
+			assertTrue("1.3 " + busyStatistics, busyStatistics.getCpuTime() > 0);
+			assertTrue("1.4 " + idleStatistics, idleStatistics.getCpuTime() < busyStatistics.getCpuTime());
+		}
+		if (busyStatistics.getAllocatedBytes() == -1) {
+			assertEquals("1.5 " + busyStatistics, 0, busyStatistics.getAllocationMeasuredCount());
+		} else {
+			assertTrue("1.6 " + busyStatistics, busyStatistics.getAllocatedBytes() > 1024 * 1024);
+			assertTrue("1.7 " + idleStatistics, idleStatistics.getAllocatedBytes() < busyStatistics.getAllocatedBytes());
+		}
+
+		//the class statistics add up to the bundle statistics
+		long cpuTime = 0, allocatedBytes = 0, count = 0, measured = 0;
+		statistics = ((JobManager) manager).getClassStatistics();
+		for (int i = 0; i < statistics.length; i++) {
+			if (busy.getClass().getName().equals(statistics[i].getKey()))
+				assertEquals("2.0", busyStatistics.getCpuTime(), statistics[i].getCpuTime());
+			cpuTime += Math.max(0, statistics[i].getCpuTime());
+			allocatedBytes += Math.max(0, statistics[i].getAllocatedBytes());
+			count += statistics[i].getCount();
+			measured += statistics[i].getCpuMeasuredCount();
+		}
+		statistics = ((JobManager) manager).getBundleStatistics();
+		for (int i = 0; i < statistics.length; i++) {
+			cpuTime -= Math.max(0, statistics[i].getCpuTime());
+			allocatedBytes -= Math.max(0, statistics[i].getAllocatedBytes());
+			count -= statistics[i].getCount();
+			measured -= statistics[i].getCpuMeasuredCount();
+		}
+		assertEquals("3.0", 0, cpuTime);
+		assertEquals("3.1", 0, allocatedBytes);
+		assertEquals("3.2", 0, count);
+		assertEquals("3.3", 0, measured);
+	}
+
 	public void testSuspend() {
 		assertTrue("1.0", !manager.isSuspended());
 		manager.suspend();
@@ -1712,6 +2578,48 @@ public class IJobManagerTest extends AbstractJobManagerTest {
 			fail("1.0", ender.error);
 	}
 
+	/**
+	 * Tests beginning and ending nested rules in a thread that a rule was
+	 * transferred to, and in the thread that transferred it.
+	 */
+	public void testTransferNested() {
+		final PathRule rule = new PathRule("testTransferNested");
+		final PathRule child = new PathRule("testTransferNested/child");
+		final Exception[] error = new Exception[1];
+		final ISchedulingRule[] currentRules = new ISchedulingRule[2];
+		Thread destination = new Thread() {
+			public void run() {
+				try {
+					manager.beginRule(child, null);
+					currentRules[0] = manager.currentRule();
+					manager.endRule(child);
+					manager.endRule(rule);
+					currentRules[1] = manager.currentRule();
+				} catch (Exception e) {
+					error[0] = e;
+				}
+			}
+		};
+		manager.beginRule(rule, null);
+		manager.beginRule(child, null);
+		manager.endRule(child);
+		manager.transferRule(rule, destination);
+		assertNull("1.0", manager.currentRule());
+		destination.start();
+		try {
+			destination.join();
+		} catch (InterruptedException e) {
+			fail("1.99", e);
+		}
+		if (error[0] != null)
+			fail("1.1", error[0]);
+		assertEquals("1.2", rule, currentRules[0]);
+		assertNull("1.3", currentRules[1]);
+		//the rule is free again
+		manager.beginRule(child, null);
+		manager.endRule(child);
+	}
+
 	/**
 	 * Tests transferring a scheduling rule to a job and back again.
 	 */
@@ -0,0 +1,194 @@
+/*******************************************************************************
+ * Copyright (c) 2012 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM - Initial API and implementation
+ *******************************************************************************/
+package org.eclipse.core.tests.runtime.jobs;
+
+import java.io.*;
+import org.eclipse.core.internal.jobs.FlightRecordDecoder;
+import org.eclipse.core.internal.jobs.JobManager;
+import org.eclipse.core.runtime.*;
+import org.eclipse.core.runtime.jobs.Job;
+import org.eclipse.core.runtime.jobs.JobGroup;
+
+/**
+ * Tests the limit on the number of running members of a job group.
+ */
+public class JobGroupTest extends AbstractJobManagerTest {
+	/**
+	 * A job that records how many members of its group run at once, and runs
+	 * until the test tells it to finish.
+	 */
+	class GroupJob extends Job {
+		GroupJob(JobGroup group) {
+			super("GroupJob");
+			setJobGroup(group);
+		}
+
+		protected IStatus run(IProgressMonitor monitor) {
+			boolean member = getJobGroup() != null;
+			synchronized (running) {
+				running[0]++;
+				if (member)
+					maxRunning = Math.max(maxRunning, ++runningMembers);
+			}
+			try {
+				while (!finish) {
+					if (monitor.isCanceled())
+						return Status.CANCEL_STATUS;
+					JobGroupTest.this.sleep(10);
+				}
+			} finally {
+				synchronized (running) {
+					running[0]--;
+					if (member)
+						runningMembers--;
+				}
+			}
+			return Status.OK_STATUS;
+		}
+	}
+
+	volatile boolean finish;
+	int maxRunning, runningMembers;
+	final int[] running = new int[1];
+
+	public JobGroupTest() {
+		super();
+	}
+
+	public JobGroupTest(String name) {
+		super(name);
+	}
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		finish = false;
+		maxRunning = 0;
+		runningMembers = 0;
+	}
+
+	private GroupJob[] schedule(JobGroup group, int count) {
+		GroupJob[] jobs = new GroupJob[count];
+		for (int i = 0; i < count; i++) {
+			jobs[i] = new GroupJob(group);
+			jobs[i].schedule();
+		}
+		return jobs;
+	}
+
+	public void testCancel() throws InterruptedException {
+		JobGroup group = new JobGroup("testCancel", 2);
+		GroupJob[] jobs = schedule(group, 5);
+		sleep(200);
+		group.cancel();
+		assertTrue("1.0", group.join(10000));
+		assertEquals("1.1", 0, group.getActiveJobs().length);
+		assertEquals("1.2", 5, group.getDoneCount());
+		for (int i = 0; i < jobs.length; i++)
+			assertEquals("1.3." + i, Job.NONE, jobs[i].getState());
+	}
+
+	/**
+	 * Tests that the members held back by a group go back to the wait queue
+	 * once each, rather than every time a member stops running.
+	 */
+	public void testHeldMembers() throws IOException, InterruptedException {
+		JobGroup group = new JobGroup("testHeldMembers", 1);
+		for (int i = 0; i < 5; i++) {
+			Job job = new Job("testHeldMembers" + i) {
+				protected IStatus run(IProgressMonitor monitor) {
+					JobGroupTest.this.sleep(100);
+					return Status.OK_STATUS;
+				}
+			};
+			job.setJobGroup(group);
+			job.schedule();
+		}
+		assertTrue("1.0", group.join(10000));
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		((JobManager) Job.getJobManager()).writeFlightRecord(out);
+		FlightRecordDecoder decoder = new FlightRecordDecoder(new ByteArrayInputStream(out.toByteArray()));
+		int[] recorded = decoder.getJobs();
+		for (int i = 0; i < recorded.length; i++) {
+			String name = decoder.getName(recorded[i]);
+			if (name == null || !name.startsWith("testHeldMembers"))
+				continue;
+			String[] timeline = decoder.getTimeline(recorded[i]);
+			int released = 0;
+			for (int j = 0; j < timeline.length; j++)
+				if (timeline[j].indexOf("BLOCKED -> WAITING") >= 0)
+					released++;
+			assertTrue("1.1." + name + " " + released, released <= 1);
+		}
+	}
+
+	public void testInvalidLimit() {
+		try {
+			new JobGroup("testInvalidLimit", 0);
+			fail("1.0");
+		} catch (IllegalArgumentException e) {
+			//expected
+		}
+	}
+
+	public void testMaxThreads() throws InterruptedException {
+		JobGroup group = new JobGroup("testMaxThreads", 2);
+		assertEquals("1.0", 2, group.getMaxThreads());
+		GroupJob[] jobs = schedule(group, 6);
+		assertSame("1.1", group, jobs[0].getJobGroup());
+		assertEquals("1.2", 6, group.getActiveJobs().length);
+		//unrelated jobs are not limited by the group
+		Job other = new GroupJob(null);
+		other.schedule();
+		sleep(500);
+		synchronized (running) {
+			assertEquals("1.3", 3, running[0]);
+		}
+		assertEquals("1.4", 2, maxRunning);
+		assertTrue("1.5", !group.join(100));
+		finish = true;
+		assertTrue("2.0", group.join(10000));
+		assertEquals("2.1", 2, maxRunning);
+		assertEquals("2.2", 6, group.getDoneCount());
+		waitForCompletion(other, 10000);
+	}
+
+	/**
+	 * A member that yields its rule must not let a member that is held back by
+	 * the group run, otherwise the group runs more members than it may.
+	 */
+	public void testYieldRule() throws InterruptedException {
+		JobGroup group = new JobGroup("testYieldRule", 1);
+		final GroupJob second = new GroupJob(group);
+		final Job[] yieldedTo = new Job[1];
+		GroupJob first = new GroupJob(group) {
+			protected IStatus run(IProgressMonitor monitor) {
+				second.schedule();
+				//give the second member time to be held back by the group
+				JobGroupTest.this.sleep(200);
+				synchronized (yieldedTo) {
+					yieldedTo[0] = yieldRule(null);
+				}
+				return super.run(monitor);
+			}
+		};
+		first.setRule(new IdentityRule());
+		first.schedule();
+		sleep(500);
+		synchronized (yieldedTo) {
+			assertNull("1.0", yieldedTo[0]);
+		}
+		assertEquals("1.1", Job.WAITING, second.getState());
+		finish = true;
+		assertTrue("2.0", group.join(10000));
+		assertEquals("2.1", 1, maxRunning);
+		assertEquals("2.2", 2, group.getDoneCount());
+	}
+}
@@ -0,0 +1,41 @@
+/*******************************************************************************
+ * Copyright (c) 2012 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM - Initial API and implementation
+ *******************************************************************************/
+package org.eclipse.core.tests.runtime.jobs;
+
+import org.eclipse.core.internal.jobs.JobQueue;
+import org.eclipse.core.runtime.jobs.Job;
+
+/**
+ * Runs the job queue tests against a heap backed queue.
+ */
+public class JobHeapQueueTest extends JobQueueTest {
+	public JobHeapQueueTest(String name) {
+		super(name);
+	}
+
+	protected JobQueue createQueue(boolean allowConflictOvertaking, boolean allowPriorityOvertaking) {
+		return new JobQueue(allowConflictOvertaking, allowPriorityOvertaking, true);
+	}
+
+	/**
+	 * Tests that resorting a job that is not in the queue, such as a blocked
+	 * job whose priority changes, does not add it to the queue.
+	 */
+	public void testResortNotQueued() {
+		JobQueue queue = createQueue(false, true);
+		Entry queued = new Entry(Job.LONG);
+		Entry notQueued = new Entry(Job.INTERACTIVE);
+		queue.enqueue(queued);
+		queue.resort(notQueued);
+		assertEquals("1.0", queued, queue.dequeue());
+		assertTrue("1.1", queue.isEmpty());
+	}
+}
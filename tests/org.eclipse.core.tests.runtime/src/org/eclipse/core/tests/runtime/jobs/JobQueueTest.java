@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2003, 2006 IBM Corporation and others.
+ * Copyright (c) 2003, 2012 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -10,10 +10,12 @@
  *******************************************************************************/
 package org.eclipse.core.tests.runtime.jobs;
 
+import java.util.*;
 import junit.framework.TestCase;
 import org.eclipse.core.internal.jobs.InternalJob;
 import org.eclipse.core.internal.jobs.JobQueue;
 import org.eclipse.core.runtime.*;
+import org.eclipse.core.runtime.jobs.ISchedulingRule;
 import org.eclipse.core.runtime.jobs.Job;
 
 /**
@@ -26,6 +28,11 @@ public class JobQueueTest extends TestCase {
 			setPriority(value);
 		}
 
+		Entry(ISchedulingRule rule) {
+			this(Job.LONG);
+			setRule(rule);
+		}
+
 		protected IStatus run(IProgressMonitor monitor) {
 			return Status.OK_STATUS;
 		}
@@ -39,7 +46,14 @@ public class JobQueueTest extends TestCase {
 
 	protected void setUp() throws Exception {
 		super.setUp();
-		this.queue = new JobQueue(false);
+		this.queue = createQueue(false, true);
+	}
+
+	/**
+	 * Creates the queue under test.
+	 */
+	protected JobQueue createQueue(boolean allowConflictOvertaking, boolean allowPriorityOvertaking) {
+		return new JobQueue(allowConflictOvertaking, allowPriorityOvertaking);
 	}
 
 	protected void tearDown() throws Exception {
@@ -60,6 +74,28 @@ public class JobQueueTest extends TestCase {
 		}
 	}
 
+	public void testPeekWithPriority() {
+		Entry longEntry = new Entry(Job.LONG);
+		Entry shortEntry = new Entry(Job.SHORT);
+		Entry interactive1 = new Entry(Job.INTERACTIVE);
+		Entry interactive2 = new Entry(Job.INTERACTIVE);
+		assertNull("1.0", queue.peek(Job.DECORATE));
+		queue.enqueue(longEntry);
+		assertNull("1.1", queue.peek(Job.INTERACTIVE));
+		assertEquals("1.2", longEntry, queue.peek(Job.LONG));
+		queue.enqueue(shortEntry);
+		queue.enqueue(interactive1);
+		queue.enqueue(interactive2);
+		assertEquals("2.0", interactive1, queue.peek(Job.INTERACTIVE));
+		assertEquals("2.1", queue.peek(), queue.peek(Job.DECORATE));
+		queue.remove(interactive1);
+		assertEquals("2.2", interactive2, queue.peek(Job.INTERACTIVE));
+		queue.remove(interactive2);
+		assertNull("2.3", queue.peek(Job.INTERACTIVE));
+		assertEquals("2.4", shortEntry, queue.peek(Job.SHORT));
+		assertEquals("2.5", longEntry, queue.peek(Job.LONG));
+	}
+
 	public void testBasic() {
 		Entry[] entries = createEntries();
 		assertTrue("1.0", queue.isEmpty());
@@ -90,6 +126,45 @@ public class JobQueueTest extends TestCase {
 		assertEquals("3.1", 0, count);
 	}
 
+	public void testConflictingEntries() {
+		//without priority overtaking, new entries overtake all entries they don't conflict with
+		queue = createQueue(false, false);
+		ISchedulingRule rule = new IdentityRule();
+		Entry first = new Entry(rule);
+		Entry unrelated = new Entry(Job.LONG);
+		Entry conflicting = new Entry(rule);
+		Entry last = new Entry(Job.LONG);
+		queue.enqueue(first);
+		queue.enqueue(unrelated);
+		queue.enqueue(conflicting);
+		queue.enqueue(last);
+		List order = new ArrayList();
+		for (Iterator it = queue.iterator(); it.hasNext();)
+			order.add(it.next());
+		assertEquals("1.0", Arrays.asList(new Entry[] {last, unrelated, first, conflicting}), order);
+		//removing an entry keeps the order of the others
+		queue.remove(unrelated);
+		assertEquals("2.0", last, queue.dequeue());
+		assertEquals("2.1", first, queue.dequeue());
+		assertEquals("2.2", conflicting, queue.dequeue());
+		assertTrue("2.3", queue.isEmpty());
+	}
+
+	public void testEntriesBehindSameConflict() {
+		//jobs that are put behind the same conflicting job keep their own order among themselves
+		queue = createQueue(false, false);
+		Entry both = new Entry(new PathRule("/a"));
+		Entry first = new Entry(new PathRule("/a/b"));
+		Entry second = new Entry(new PathRule("/a/c"));
+		queue.enqueue(both);
+		queue.enqueue(first);
+		queue.enqueue(second);
+		assertEquals("1.0", both, queue.dequeue());
+		assertEquals("1.1", second, queue.dequeue());
+		assertEquals("1.2", first, queue.dequeue());
+		assertTrue("1.3", queue.isEmpty());
+	}
+
 	private Entry[] createEntries() {
 		return new Entry[] {new Entry(Job.INTERACTIVE), new Entry(Job.BUILD), new Entry(Job.INTERACTIVE), new Entry(Job.SHORT), new Entry(Job.DECORATE), new Entry(Job.LONG), new Entry(Job.SHORT), new Entry(Job.BUILD), new Entry(Job.LONG), new Entry(Job.DECORATE),};
 	}
@@ -1,5 +1,5 @@
 /*******************************************************************************
- *  Copyright (c) 2003, 2011 IBM Corporation and others.
+ *  Copyright (c) 2003, 2012 IBM Corporation and others.
  *  All rights reserved. This program and the accompanying materials
  *  are made available under the terms of the Eclipse Public License v1.0
  *  which accompanies this distribution, and is available at
@@ -12,6 +12,7 @@
  *******************************************************************************/
 package org.eclipse.core.tests.runtime.jobs;
 
+import java.util.Arrays;
 import junit.framework.*;
 import junit.framework.Assert;
 import org.eclipse.core.internal.jobs.JobManager;
@@ -630,6 +631,86 @@ public class JobTest extends AbstractJobTest {
 		}
 	}
 
+	public void testCoalescing() throws InterruptedException {
+		final int[] runs = new int[1];
+		final int[] status = {TestBarrier.STATUS_START};
+		Job job = new Job("testCoalescing") {
+			protected IStatus run(IProgressMonitor monitor) {
+				runs[0]++;
+				if (status[0] == TestBarrier.STATUS_WAIT_FOR_RUN) {
+					status[0] = TestBarrier.STATUS_RUNNING;
+					TestBarrier.waitForStatus(status, TestBarrier.STATUS_WAIT_FOR_DONE);
+				}
+				return Status.OK_STATUS;
+			}
+		};
+		job.setCoalescing(500, 60000);
+		//requests while the job sleeps are merged into one run
+		for (int i = 0; i < 10; i++)
+			job.schedule();
+		assertEquals("1.0", Job.SLEEPING, job.getState());
+		assertEquals("1.1", 9, job.getCoalescedCount());
+		waitForState(job, Job.NONE);
+		assertEquals("1.2", 1, runs[0]);
+
+		//requests while the job runs make it run once more
+		status[0] = TestBarrier.STATUS_WAIT_FOR_RUN;
+		job.schedule();
+		TestBarrier.waitForStatus(status, TestBarrier.STATUS_RUNNING);
+		job.schedule();
+		job.schedule();
+		assertEquals("2.0", 10, job.getCoalescedCount());
+		status[0] = TestBarrier.STATUS_WAIT_FOR_DONE;
+		long start = System.currentTimeMillis();
+		while (runs[0] < 3) {
+			Thread.sleep(100);
+			assertTrue("2.1", System.currentTimeMillis() - start < 5000);
+		}
+		waitForState(job, Job.NONE);
+
+		//requests keep postponing the run, but only up to the maximum latency
+		job.setCoalescing(200, 600);
+		start = System.currentTimeMillis();
+		while (runs[0] == 3) {
+			job.schedule();
+			Thread.sleep(50);
+			assertTrue("3.0", System.currentTimeMillis() - start < 5000);
+		}
+		waitForState(job, Job.NONE);
+	}
+
+	/**
+	 * Tests that the scheduled listeners see the coalescing delay of a job,
+	 * whether it is scheduled alone or in a batch.
+	 */
+	public void testCoalescingScheduledDelay() {
+		final Job job = new Job("testCoalescingScheduledDelay") {
+			protected IStatus run(IProgressMonitor monitor) {
+				return Status.OK_STATUS;
+			}
+		};
+		final long[] delay = {-1};
+		IJobChangeListener listener = new JobChangeAdapter() {
+			public void scheduled(IJobChangeEvent event) {
+				if (event.getJob() == job)
+					delay[0] = event.getDelay();
+			}
+		};
+		job.setCoalescing(300, 60000);
+		Job.getJobManager().addJobChangeListener(listener);
+		try {
+			job.schedule(10);
+			assertEquals("1.0", 300, delay[0]);
+			waitForState(job, Job.NONE);
+			delay[0] = -1;
+			Job.getJobManager().schedule(new Job[] {job}, 10);
+			assertEquals("1.1", 300, delay[0]);
+			waitForState(job, Job.NONE);
+		} finally {
+			Job.getJobManager().removeJobChangeListener(listener);
+		}
+	}
+
 	public void testGetName() {
 		assertTrue("1.0", shortJob.getName().equals("Short Test Job"));
 		assertTrue("1.1", longJob.getName().equals("Long Test Job"));
@@ -687,6 +768,157 @@ public class JobTest extends AbstractJobTest {
 		assertTrue("2.0", longJob.getResult().getSeverity() == IStatus.CANCEL);
 	}
 
+	public void testGetFuture() throws InterruptedException {
+		//a job that was never scheduled has a future that is already canceled
+		IJobFuture future = shortJob.getFuture();
+		assertTrue("1.0", future.isDone());
+		assertEquals("1.1", IStatus.CANCEL, future.getResult().getSeverity());
+
+		//the future of a running job times out, and is done when the job is canceled
+		longJob.schedule();
+		future = longJob.getFuture();
+		assertSame("2.0", future, longJob.getFuture());
+		assertTrue("2.1", !future.isDone());
+		assertNull("2.2", future.join(100));
+		longJob.cancel();
+		IStatus result = future.join(10000);
+		assertNotNull("2.3", result);
+		assertEquals("2.4", IStatus.CANCEL, result.getSeverity());
+		assertTrue("2.5", future.isDone());
+
+		//a job chained to a future runs once the future is done
+		shortJob.schedule(100);
+		IJobFuture next = shortJob.getFuture().then(longJob);
+		assertTrue("3.0", !next.isDone());
+		waitForState(longJob, Job.RUNNING);
+		assertTrue("3.1", shortJob.getFuture().isDone());
+		assertSame("3.2", next, longJob.getFuture());
+		longJob.cancel();
+		assertNotNull("3.3", next.join(10000));
+
+		//waiting for a done future returns immediately
+		assertEquals("4.0", IStatus.OK, shortJob.getFuture().join(0).getSeverity());
+
+		//the future of a chained job that refuses to be scheduled is canceled
+		Job refusing = new Job("testGetFuture refusing") {
+			protected IStatus run(IProgressMonitor monitor) {
+				return Status.OK_STATUS;
+			}
+
+			public boolean shouldSchedule() {
+				return false;
+			}
+		};
+		next = shortJob.getFuture().then(refusing);
+		assertTrue("5.0", next.isDone());
+		assertEquals("5.1", IStatus.CANCEL, next.getResult().getSeverity());
+		shortJob.schedule(100);
+		next = shortJob.getFuture().then(refusing);
+		assertEquals("5.2", IStatus.CANCEL, next.join(10000).getSeverity());
+	}
+
+	/**
+	 * Tests that a chained job whose shouldSchedule throws does not keep the
+	 * other chained jobs from running, and that its future is canceled.
+	 */
+	public void testGetFutureThrowingContinuation() throws InterruptedException {
+		Job throwing = new Job("testGetFutureThrowingContinuation") {
+			protected IStatus run(IProgressMonitor monitor) {
+				return Status.OK_STATUS;
+			}
+
+			public boolean shouldSchedule() {
+				throw new RuntimeException("Expected exception"); //$NON-NLS-1$
+			}
+		};
+		shortJob.schedule(100);
+		IJobFuture failed = shortJob.getFuture().then(throwing);
+		IJobFuture next = shortJob.getFuture().then(longJob);
+		assertEquals("1.0", IStatus.CANCEL, failed.join(10000).getSeverity());
+		waitForState(longJob, Job.RUNNING);
+		longJob.cancel();
+		assertNotNull("1.1", next.join(10000));
+		//the worker that ran the callbacks is still alive
+		shortJob.schedule();
+		assertEquals("1.2", IStatus.OK, shortJob.getFuture().join(10000).getSeverity());
+	}
+
+	/**
+	 * Returns a job that runs until the given status entry is set to
+	 * TestBarrier.STATUS_DONE.
+	 */
+	private Job gatedJob(String name, final int[] status, final int index) {
+		return new Job(name) {
+			protected IStatus run(IProgressMonitor monitor) {
+				while (status[index] != TestBarrier.STATUS_DONE) {
+					if (monitor.isCanceled())
+						return Status.CANCEL_STATUS;
+					JobTest.this.sleep(10);
+				}
+				return Status.OK_STATUS;
+			}
+		};
+	}
+
+	public void testPredecessors() {
+		final int[] status = new int[] {TestBarrier.STATUS_START, TestBarrier.STATUS_START};
+		Job first = gatedJob("testPredecessors first", status, 0);
+		Job second = gatedJob("testPredecessors second", status, 1);
+		Job last = new TestJob("testPredecessors last", 1, 1);
+		last.setPredecessors(new Job[] {first, second, first});
+		assertEquals("1.0", 2, last.getPredecessors().length);
+
+		//a job may not depend on itself
+		try {
+			first.setPredecessors(new Job[] {last});
+			fail("1.1");
+		} catch (IllegalArgumentException e) {
+			//expected
+		}
+		assertNull("1.2", first.getPredecessors());
+
+		//the dependent job waits until all its predecessors are done
+		first.schedule();
+		second.schedule();
+		last.schedule();
+		waitForState(first, Job.RUNNING);
+		waitForState(second, Job.RUNNING);
+		assertEquals("2.0", Job.WAITING, last.getState());
+		assertTrue("2.1", !last.sleep());
+		assertTrue("2.2", Arrays.asList(Job.getJobManager().find(null)).contains(last));
+		try {
+			last.setPredecessors(null);
+			fail("2.3");
+		} catch (IllegalArgumentException e) {
+			//expected
+		}
+		status[0] = TestBarrier.STATUS_DONE;
+		waitForState(first, Job.NONE);
+		sleep(100);
+		assertEquals("2.4", Job.WAITING, last.getState());
+		status[1] = TestBarrier.STATUS_DONE;
+		waitForState(last, Job.NONE);
+		assertEquals("2.5", 1, ((TestJob) last).getRunCount());
+
+		//canceling a predecessor cancels the dependent job
+		status[0] = TestBarrier.STATUS_START;
+		first.schedule();
+		last.schedule();
+		waitForState(first, Job.RUNNING);
+		assertEquals("3.0", Job.WAITING, last.getState());
+		IJobFuture future = last.getFuture();
+		first.cancel();
+		waitForState(last, Job.NONE);
+		assertEquals("3.1", IStatus.CANCEL, future.getResult().getSeverity());
+		assertEquals("3.2", 1, ((TestJob) last).getRunCount());
+		waitForState(first, Job.NONE);
+
+		//predecessors that are not scheduled are ignored
+		last.schedule();
+		waitForState(last, Job.NONE);
+		assertEquals("4.0", 2, ((TestJob) last).getRunCount());
+	}
+
 	public void testGetRule() {
 		//set several rules for the job, check if getRule returns the rule that was set
 		//no rule was set yet
@@ -721,6 +953,27 @@ public class JobTest extends AbstractJobTest {
 		assertTrue("1.3", shortJob.getThread() == null);
 	}
 
+	public void testGetThreadWhileRunning() {
+		//while a job runs, it knows its thread, and the job manager knows the job of that thread,
+		//regardless of the kind of thread the worker pool runs jobs on
+		final Thread[] threads = new Thread[2];
+		final Job[] current = new Job[1];
+		Job job = new Job("testGetThreadWhileRunning") {
+			protected IStatus run(IProgressMonitor monitor) {
+				threads[0] = getThread();
+				threads[1] = Thread.currentThread();
+				current[0] = Job.getJobManager().currentJob();
+				return Status.OK_STATUS;
+			}
+		};
+		job.schedule();
+		waitForState(job, Job.NONE);
+		assertNotNull("1.0", threads[0]);
+		assertTrue("1.1", threads[0] == threads[1]);
+		assertTrue("1.2", current[0] == job);
+		assertNull("1.3", job.getThread());
+	}
+
 	public void testIsBlocking() {
 		IdentityRule rule = new IdentityRule();
 		TestJob high = new TestJob("TestIsBlocking.long", 10000, 100);
@@ -1227,6 +1480,51 @@ public class JobTest extends AbstractJobTest {
 		}
 	}
 
+	/**
+	 * Tests changing the priority of a job that is blocked by a conflicting job.
+	 * The job must stay blocked, and must not keep the workers from running
+	 * other jobs.
+	 */
+	public void testSetPriorityBlocked() {
+		final ISchedulingRule rule = new IdentityRule();
+		final TestBarrier barrier = new TestBarrier();
+		Job holder = new Job("testSetPriorityBlocked.holder") {
+			protected IStatus run(IProgressMonitor monitor) {
+				barrier.setStatus(TestBarrier.STATUS_RUNNING);
+				barrier.waitForStatus(TestBarrier.STATUS_WAIT_FOR_DONE);
+				return Status.OK_STATUS;
+			}
+		};
+		final boolean[] ran = new boolean[1];
+		Job blocked = new Job("testSetPriorityBlocked.blocked") {
+			protected IStatus run(IProgressMonitor monitor) {
+				ran[0] = true;
+				return Status.OK_STATUS;
+			}
+		};
+		Job other = new Job("testSetPriorityBlocked.other") {
+			protected IStatus run(IProgressMonitor monitor) {
+				return Status.OK_STATUS;
+			}
+		};
+		holder.setRule(rule);
+		blocked.setRule(rule);
+		blocked.setPriority(Job.DECORATE);
+		holder.schedule();
+		barrier.waitForStatus(TestBarrier.STATUS_RUNNING);
+		blocked.schedule();
+		//give a worker the chance to find the job blocked
+		sleep(200);
+		blocked.setPriority(Job.INTERACTIVE);
+		other.schedule();
+		waitForState(other, Job.NONE);
+		assertTrue("1.0", !ran[0]);
+		assertEquals("1.1", Job.WAITING, blocked.getState());
+		barrier.setStatus(TestBarrier.STATUS_WAIT_FOR_DONE);
+		waitForState(blocked, Job.NONE);
+		assertTrue("1.2", ran[0]);
+	}
+
 	/**
 	 * Tests the API methods Job.setProgressGroup
 	 */
@@ -1267,6 +1565,78 @@ public class JobTest extends AbstractJobTest {
 		group.done();
 	}
 
+	/**
+	 * Tests that job progress reaches the progress provider at a limited rate
+	 * without losing work or changing the order of the calls, and that
+	 * cancelation by the provider is noticed.
+	 */
+	public void testThrottledProgress() {
+		final int[] updates = new int[1];
+		final int[] worked = new int[1];
+		final int[] misordered = new int[1];
+		final IProgressMonitor[] provided = new IProgressMonitor[1];
+		Job.getJobManager().setProgressProvider(new ProgressProvider() {
+			public IProgressMonitor createMonitor(Job job) {
+				return provided[0] = new ProgressMonitorWrapper(new NullProgressMonitor()) {
+					public void subTask(String name) {
+						//the subtasks are named after the work reported before them
+						if (!name.equals(String.valueOf(worked[0])))
+							misordered[0]++;
+					}
+
+					public void worked(int work) {
+						updates[0]++;
+						worked[0] += work;
+					}
+				};
+			}
+		});
+		final int ticks = 100000;
+		Job job = new Job("testThrottledProgress") {
+			protected IStatus run(IProgressMonitor monitor) {
+				monitor.beginTask(getName(), ticks);
+				for (int i = 0; i < ticks; i++)
+					monitor.worked(1);
+				monitor.done();
+				return Status.OK_STATUS;
+			}
+		};
+		job.schedule();
+		waitForState(job, Job.NONE);
+		assertEquals("1.0", ticks, worked[0]);
+		assertTrue("1.1 " + updates[0], updates[0] < ticks / 10);
+
+		job = new Job("testThrottledProgress.cancel") {
+			protected IStatus run(IProgressMonitor monitor) {
+				while (!monitor.isCanceled())
+					Thread.yield();
+				return Status.CANCEL_STATUS;
+			}
+		};
+		job.schedule();
+		waitForState(job, Job.RUNNING);
+		provided[0].setCanceled(true);
+		waitForState(job, Job.NONE);
+		assertEquals("2.0", IStatus.CANCEL, job.getResult().getSeverity());
+
+		job = new Job("testThrottledProgress.order") {
+			protected IStatus run(IProgressMonitor monitor) {
+				monitor.beginTask(getName(), ticks);
+				for (int i = 0; i < ticks; i++) {
+					monitor.subTask(String.valueOf(i));
+					monitor.worked(1);
+				}
+				monitor.done();
+				return Status.OK_STATUS;
+			}
+		};
+		worked[0] = 0;
+		job.schedule();
+		waitForState(job, Job.NONE);
+		assertEquals("3.0", ticks, worked[0]);
+		assertEquals("3.1", 0, misordered[0]);
+	}
+
 	/*
 	 * see bug #43459
 	 */
@@ -0,0 +1,30 @@
+/*******************************************************************************
+ * Copyright (c) 2012 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *     IBM - Initial API and implementation
+ *******************************************************************************/
+package org.eclipse.core.tests.runtime.jobs;
+
+import org.eclipse.core.runtime.jobs.IKeyedSchedulingRule;
+
+/**
+ * A path rule that exposes its path segments as a conflict key.
+ */
+public class KeyedPathRule extends PathRule implements IKeyedSchedulingRule {
+	public KeyedPathRule(String pathString) {
+		super(pathString);
+	}
+
+	public Object[] getConflictKey() {
+		return getFullPath().segments();
+	}
+
+	public String toString() {
+		return "KeyedPathRule(" + getFullPath() + ")";
+	}
+}
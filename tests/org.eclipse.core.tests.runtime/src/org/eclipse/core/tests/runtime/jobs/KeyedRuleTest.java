@@ -0,0 +1,149 @@
+/*******************************************************************************
+ * Copyright (c) 2012 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *     IBM - Initial API and implementation
+ *******************************************************************************/
+package org.eclipse.core.tests.runtime.jobs;
+
+import org.eclipse.core.runtime.*;
+import org.eclipse.core.runtime.jobs.ISchedulingRule;
+import org.eclipse.core.runtime.jobs.Job;
+import org.eclipse.core.tests.harness.TestBarrier;
+
+/**
+ * Tests conflict detection between jobs whose rules expose a conflict key.
+ */
+public class KeyedRuleTest extends AbstractJobManagerTest {
+	/**
+	 * A job that holds its rule until told to finish.
+	 */
+	class BlockingJob extends Job {
+		final TestBarrier barrier = new TestBarrier(TestBarrier.STATUS_WAIT_FOR_START);
+
+		BlockingJob(ISchedulingRule rule) {
+			super("BlockingJob");
+			setRule(rule);
+		}
+
+		protected IStatus run(IProgressMonitor monitor) {
+			barrier.setStatus(TestBarrier.STATUS_RUNNING);
+			barrier.waitForStatus(TestBarrier.STATUS_WAIT_FOR_DONE);
+			return Status.OK_STATUS;
+		}
+	}
+
+	public KeyedRuleTest() {
+		super();
+	}
+
+	public KeyedRuleTest(String name) {
+		super(name);
+	}
+
+	/**
+	 * Asserts that a job with the given rule is blocked by a running job with the
+	 * given blocking rule, and runs as soon as the blocking job ends.
+	 */
+	private void assertBlocked(ISchedulingRule blockingRule, ISchedulingRule rule) {
+		BlockingJob blocking = new BlockingJob(blockingRule);
+		blocking.schedule();
+		blocking.barrier.waitForStatus(TestBarrier.STATUS_RUNNING);
+		BlockingJob job = new BlockingJob(rule);
+		job.schedule();
+		sleep(200);
+		assertEquals(blocking + " should block " + job, Job.WAITING, job.getState());
+		blocking.barrier.setStatus(TestBarrier.STATUS_WAIT_FOR_DONE);
+		job.barrier.waitForStatus(TestBarrier.STATUS_RUNNING);
+		job.barrier.setStatus(TestBarrier.STATUS_WAIT_FOR_DONE);
+		waitForCompletion(blocking);
+		waitForCompletion(job);
+	}
+
+	/**
+	 * Asserts that jobs with the given rules can run at the same time.
+	 */
+	private void assertNotBlocked(ISchedulingRule rule1, ISchedulingRule rule2) {
+		BlockingJob job1 = new BlockingJob(rule1);
+		BlockingJob job2 = new BlockingJob(rule2);
+		job1.schedule();
+		job1.barrier.waitForStatus(TestBarrier.STATUS_RUNNING);
+		job2.schedule();
+		job2.barrier.waitForStatus(TestBarrier.STATUS_RUNNING);
+		job1.barrier.setStatus(TestBarrier.STATUS_WAIT_FOR_DONE);
+		job2.barrier.setStatus(TestBarrier.STATUS_WAIT_FOR_DONE);
+		waitForCompletion(job1);
+		waitForCompletion(job2);
+	}
+
+	public void testKeyedConflicts() {
+		assertBlocked(new KeyedPathRule("/a"), new KeyedPathRule("/a"));
+		assertBlocked(new KeyedPathRule("/a"), new KeyedPathRule("/a/b"));
+		assertBlocked(new KeyedPathRule("/a/b"), new KeyedPathRule("/a"));
+		assertBlocked(new KeyedPathRule("/"), new KeyedPathRule("/a/b"));
+		assertNotBlocked(new KeyedPathRule("/a"), new KeyedPathRule("/c"));
+		assertNotBlocked(new KeyedPathRule("/a/b"), new KeyedPathRule("/a/c"));
+	}
+
+	public void testMixedConflicts() {
+		//rules without a key must still be checked against keyed rules and vice versa
+		assertBlocked(new PathRule("/a"), new KeyedPathRule("/a/b"));
+		assertBlocked(new KeyedPathRule("/a/b"), new PathRule("/a"));
+		assertNotBlocked(new PathRule("/a"), new KeyedPathRule("/c"));
+	}
+
+	public void testBlockedChain() {
+		//a job blocked behind another job must still block later conflicting jobs
+		BlockingJob first = new BlockingJob(new KeyedPathRule("/a"));
+		first.schedule();
+		first.barrier.waitForStatus(TestBarrier.STATUS_RUNNING);
+		BlockingJob second = new BlockingJob(new KeyedPathRule("/a/b"));
+		second.schedule();
+		sleep(100);
+		BlockingJob third = new BlockingJob(new KeyedPathRule("/a/b/c"));
+		third.schedule();
+		sleep(200);
+		assertEquals("1.0", Job.WAITING, second.getState());
+		assertEquals("1.1", Job.WAITING, third.getState());
+		first.barrier.setStatus(TestBarrier.STATUS_WAIT_FOR_DONE);
+		second.barrier.waitForStatus(TestBarrier.STATUS_RUNNING);
+		sleep(100);
+		assertEquals("2.0", Job.WAITING, third.getState());
+		second.barrier.setStatus(TestBarrier.STATUS_WAIT_FOR_DONE);
+		third.barrier.waitForStatus(TestBarrier.STATUS_RUNNING);
+		third.barrier.setStatus(TestBarrier.STATUS_WAIT_FOR_DONE);
+		waitForCompletion(first);
+		waitForCompletion(second);
+		waitForCompletion(third);
+	}
+
+	public void testBeginRule() {
+		//implicit jobs use the same index
+		final ISchedulingRule rule = new KeyedPathRule("/a");
+		BlockingJob blocking = new BlockingJob(new KeyedPathRule("/a/b"));
+		blocking.schedule();
+		blocking.barrier.waitForStatus(TestBarrier.STATUS_RUNNING);
+		final int[] status = new int[] {TestBarrier.STATUS_WAIT_FOR_START};
+		final TestBarrier barrier = new TestBarrier(status, 0);
+		Thread thread = new Thread() {
+			public void run() {
+				barrier.setStatus(TestBarrier.STATUS_START);
+				manager.beginRule(rule, null);
+				barrier.setStatus(TestBarrier.STATUS_RUNNING);
+				manager.endRule(rule);
+				barrier.setStatus(TestBarrier.STATUS_DONE);
+			}
+		};
+		thread.start();
+		barrier.waitForStatus(TestBarrier.STATUS_START);
+		sleep(200);
+		assertEquals("1.0", TestBarrier.STATUS_START, status[0]);
+		blocking.barrier.setStatus(TestBarrier.STATUS_WAIT_FOR_DONE);
+		barrier.waitForStatus(TestBarrier.STATUS_DONE);
+		waitForCompletion(blocking);
+	}
+}
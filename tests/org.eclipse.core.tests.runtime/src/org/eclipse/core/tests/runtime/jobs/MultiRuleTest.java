@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2008 IBM Corporation and others.
+ * Copyright (c) 2008, 2012 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -10,6 +10,7 @@
  *******************************************************************************/
 package org.eclipse.core.tests.runtime.jobs;
 
+import java.util.Arrays;
 import junit.framework.Test;
 import junit.framework.TestSuite;
 import org.eclipse.core.runtime.jobs.ISchedulingRule;
@@ -47,6 +48,86 @@ public class MultiRuleTest extends AbstractJobTest {
 
 	}
 
+	public void testCanonicalForm() {
+		ISchedulingRule keyed1 = new KeyedPathRule("/a/b");
+		ISchedulingRule keyed2 = new KeyedPathRule("/c");
+		ISchedulingRule plain1 = new PathRule("/d");
+		ISchedulingRule plain2 = new PathRule("/e");
+		MultiRule multi1 = new MultiRule(new ISchedulingRule[] {plain1, keyed1, plain2, keyed2, keyed1, plain1});
+		MultiRule multi2 = new MultiRule(new ISchedulingRule[] {keyed2, plain1, plain2, keyed1});
+
+		//duplicates are dropped
+		ISchedulingRule[] children = multi1.getChildren();
+		assertEquals("1.0", 4, children.length);
+		//keyed children come first, and the others keep their order
+		assertTrue("1.1", children[0] instanceof KeyedPathRule);
+		assertTrue("1.2", children[1] instanceof KeyedPathRule);
+		assertEquals("1.3", plain1, children[2]);
+		assertEquals("1.4", plain2, children[3]);
+		//the same children in a different order give the same children
+		assertTrue("1.5", Arrays.equals(children, multi2.getChildren()));
+		//combining a rule with its own children gives the same children
+		assertTrue("1.6", Arrays.equals(children, ((MultiRule) MultiRule.combine(multi1, keyed1)).getChildren()));
+		assertTrue("1.7", Arrays.equals(children, ((MultiRule) MultiRule.combine(multi2, multi1)).getChildren()));
+		//different keys with the same hash are ordered by their segments
+		ISchedulingRule keyed3 = new KeyedPathRule("/Aa");
+		ISchedulingRule keyed4 = new KeyedPathRule("/BB");
+		assertEquals("2.0", "Aa".hashCode(), "BB".hashCode());
+		children = new MultiRule(new ISchedulingRule[] {keyed3, keyed4}).getChildren();
+		assertTrue("2.1", Arrays.equals(children, new MultiRule(new ISchedulingRule[] {keyed4, keyed3}).getChildren()));
+	}
+
+	public void testConflictKey() {
+		MultiRule multi1 = new MultiRule(new ISchedulingRule[] {new KeyedPathRule("/a/b/c"), new KeyedPathRule("/a/b/d/e")});
+		MultiRule multi2 = new MultiRule(new ISchedulingRule[] {new KeyedPathRule("/a/b"), new KeyedPathRule("/c")});
+		MultiRule multi3 = new MultiRule(new ISchedulingRule[] {new KeyedPathRule("/a/b"), new PathRule("/a/b/c")});
+
+		assertTrue("1.0", Arrays.equals(new Object[] {"a", "b"}, multi1.getConflictKey()));
+		assertEquals("1.1", 0, multi2.getConflictKey().length);
+		assertNull("1.2", multi3.getConflictKey());
+		assertNull("1.3", new MultiRule(new ISchedulingRule[0]).getConflictKey());
+	}
+
+	/**
+	 * Tests that multi-rules with enough children to be indexed give the same
+	 * answers as checking each child.
+	 */
+	public void testManyChildren() {
+		ISchedulingRule[] children = new ISchedulingRule[200];
+		for (int i = 0; i < children.length; i++)
+			children[i] = new KeyedPathRule("/p" + (i % 10) + "/f" + i);
+		MultiRule multi1 = new MultiRule(children);
+		ISchedulingRule[] others = new ISchedulingRule[] {new KeyedPathRule("/"), new KeyedPathRule("/p3"), new KeyedPathRule("/p3/f13"), new KeyedPathRule("/p3/f13/x"), new KeyedPathRule("/p3/f14"), new KeyedPathRule("/q"), new KeyedPathRule("/p3/f1300"), new PathRule("/p4/f24/y"), new PathRule("/q/r")};
+		for (int i = 0; i < others.length; i++) {
+			boolean conflicting = false, contained = false;
+			for (int j = 0; j < children.length; j++) {
+				conflicting |= children[j].isConflicting(others[i]);
+				contained |= children[j].contains(others[i]);
+			}
+			assertEquals("1." + i, conflicting, multi1.isConflicting(others[i]));
+			assertEquals("2." + i, contained, multi1.contains(others[i]));
+		}
+
+		//multi-rules with many children on each side
+		ISchedulingRule[] disjoint = new ISchedulingRule[100];
+		ISchedulingRule[] overlapping = new ISchedulingRule[100];
+		for (int i = 0; i < disjoint.length; i++) {
+			disjoint[i] = new KeyedPathRule("/q" + i + "/f" + i);
+			overlapping[i] = new KeyedPathRule("/q" + i + "/f" + i);
+		}
+		overlapping[50] = new KeyedPathRule("/p7/f77/g");
+		MultiRule multi2 = new MultiRule(disjoint);
+		MultiRule multi3 = new MultiRule(overlapping);
+		assertTrue("3.0", !multi1.isConflicting(multi2));
+		assertTrue("3.1", !multi2.isConflicting(multi1));
+		assertTrue("3.2", multi1.isConflicting(multi3));
+		assertTrue("3.3", multi3.isConflicting(multi1));
+		assertTrue("3.4", multi1.contains(new MultiRule(new ISchedulingRule[] {overlapping[50], children[7]})));
+		assertTrue("3.5", !multi1.contains(multi3));
+		assertTrue("3.6", multi1.contains(multi1));
+		assertTrue("3.7", new MultiRule(children).contains(multi1));
+	}
+
 	public void testContains() {
 		ISchedulingRule child1 = new PathRule("/a");
 		ISchedulingRule child2 = new PathRule("/b/c");
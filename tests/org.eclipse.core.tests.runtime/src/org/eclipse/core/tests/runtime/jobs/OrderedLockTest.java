@@ -10,8 +10,7 @@
  *******************************************************************************/
 package org.eclipse.core.tests.runtime.jobs;
 
-import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.*;
 import junit.framework.TestCase;
 import org.eclipse.core.internal.jobs.LockManager;
 import org.eclipse.core.internal.jobs.OrderedLock;
@@ -90,6 +89,63 @@ public class OrderedLockTest extends TestCase {
 		assertTrue("Locks not removed from graph.", manager.isEmpty());
 	}
 
+	public void testLockDepth() throws InterruptedException {
+		LockManager manager = new LockManager();
+		final ILock lock = manager.newLock();
+		lock.acquire();
+		assertTrue("1.0", lock.acquire(0));
+		assertTrue("1.1", lock.acquire(100));
+		assertEquals("1.2", 3, lock.getDepth());
+		final boolean[] acquired = new boolean[] {true};
+		Thread t = new Thread() {
+			public void run() {
+				try {
+					acquired[0] = lock.acquire(0);
+				} catch (InterruptedException e) {
+					//ignore
+				}
+			}
+		};
+		t.start();
+		t.join();
+		assertTrue("1.3", !acquired[0]);
+		lock.release();
+		lock.release();
+		assertEquals("1.4", 1, lock.getDepth());
+		lock.release();
+		assertEquals("1.5", 0, lock.getDepth());
+		assertTrue("1.6", manager.isEmpty());
+	}
+
+	/**
+	 * Tests that waiting threads get the lock in the order they asked for it.
+	 */
+	public void testLockOrder() throws InterruptedException {
+		LockManager manager = new LockManager();
+		final ILock lock = manager.newLock();
+		final List order = Collections.synchronizedList(new ArrayList());
+		Thread[] threads = new Thread[3];
+		lock.acquire();
+		for (int i = 0; i < threads.length; i++) {
+			final Integer index = new Integer(i);
+			threads[i] = new Thread() {
+				public void run() {
+					lock.acquire();
+					order.add(index);
+					lock.release();
+				}
+			};
+			threads[i].start();
+			//make sure the thread is waiting before the next one starts
+			Thread.sleep(100);
+		}
+		lock.release();
+		for (int i = 0; i < threads.length; i++)
+			threads[i].join();
+		assertEquals("1.0", Arrays.asList(new Integer[] {new Integer(0), new Integer(1), new Integer(2)}), order);
+		assertTrue("1.1", manager.isEmpty());
+	}
+
 	public void testLockAcquireInterrupt() throws InterruptedException {
 		final TestBarrier barrier = new TestBarrier();
 		LockManager manager = new LockManager();
@@ -0,0 +1,337 @@
+/*******************************************************************************
+ * Copyright (c) 2012 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.core.tests.runtime.perf;
+
+import junit.framework.Test;
+import junit.framework.TestSuite;
+import org.eclipse.core.runtime.*;
+import org.eclipse.core.runtime.jobs.*;
+import org.eclipse.core.tests.harness.PerformanceTestRunner;
+import org.eclipse.core.tests.runtime.RuntimeTest;
+import org.eclipse.core.tests.runtime.jobs.IdentityRule;
+
+/**
+ * Measures the cost of the basic operations of the job manager, to hold
+ * changes to the scheduler against.
+ */
+public class JobPerformanceTest extends RuntimeTest {
+	private static final int JOB_COUNT = 1000;
+	private static final int INNER_LOOP = 1000;
+	private static final int OPERATIONS_PER_THREAD = 1000;
+
+	/**
+	 * A job that does nothing, so that only the cost of the job manager is measured.
+	 */
+	static class EmptyJob extends Job {
+		EmptyJob(Object family, ISchedulingRule rule) {
+			super("EmptyJob"); //$NON-NLS-1$
+			setSystem(true);
+			setFamilies(new Object[] {family});
+			setRule(rule);
+		}
+
+		protected IStatus run(IProgressMonitor monitor) {
+			return Status.OK_STATUS;
+		}
+	}
+
+	/**
+	 * Runs an operation on several threads at once. The threads are started
+	 * outside the timed loop, and wait until the operation is started.
+	 */
+	static abstract class ConcurrentRunner extends PerformanceTestRunner {
+		private final int threadCount;
+		private Thread[] threads;
+		private boolean started;
+
+		ConcurrentRunner(int threadCount) {
+			this.threadCount = threadCount;
+		}
+
+		/**
+		 * Implemented by subclasses to perform the work to be measured on
+		 * one of the threads.
+		 */
+		protected abstract void operation();
+
+		protected void setUp() {
+			started = false;
+			threads = new Thread[threadCount];
+			for (int i = 0; i < threadCount; i++) {
+				threads[i] = new Thread("JobPerformanceTest-" + i) { //$NON-NLS-1$
+					public void run() {
+						synchronized (ConcurrentRunner.this) {
+							while (!started) {
+								try {
+									ConcurrentRunner.this.wait();
+								} catch (InterruptedException e) {
+									return;
+								}
+							}
+						}
+						for (int j = 0; j < OPERATIONS_PER_THREAD; j++)
+							operation();
+					}
+				};
+				threads[i].start();
+			}
+		}
+
+		protected void test() {
+			synchronized (this) {
+				started = true;
+				notifyAll();
+			}
+			for (int i = 0; i < threads.length; i++) {
+				try {
+					threads[i].join();
+				} catch (InterruptedException e) {
+					fail("4.99", e);
+				}
+			}
+		}
+	}
+
+	public static Test suite() {
+		return new TestSuite(JobPerformanceTest.class);
+	}
+
+	public JobPerformanceTest() {
+		super();
+	}
+
+	public JobPerformanceTest(String testName) {
+		super(testName);
+	}
+
+	/**
+	 * Schedules JOB_COUNT jobs with the given rules, and waits until they are done.
+	 */
+	void scheduleAndJoin(ISchedulingRule[] rules) {
+		Object family = new Object();
+		for (int i = 0; i < JOB_COUNT; i++)
+			new EmptyJob(family, rules[i % rules.length]).schedule();
+		try {
+			Job.getJobManager().join(family, null);
+		} catch (InterruptedException e) {
+			fail("4.99", e);
+		}
+	}
+
+	/**
+	 * Time the round trip of beginRule and endRule on the current thread.
+	 */
+	public void testBeginEndRule() {
+		final IJobManager manager = Job.getJobManager();
+		final ISchedulingRule rule = new IdentityRule();
+		new PerformanceTestRunner() {
+			protected void test() {
+				manager.beginRule(rule, null);
+				manager.endRule(rule);
+			}
+		}.run(this, 10, INNER_LOOP * 10);
+	}
+
+	public void testBeginEndRule1Thread() {
+		runBeginEndRule(1);
+	}
+
+	public void testBeginEndRule8Threads() {
+		runBeginEndRule(8);
+	}
+
+	public void testBeginEndRule64Threads() {
+		runBeginEndRule(64);
+	}
+
+	/**
+	 * Time beginRule and endRule on several threads, where each thread uses
+	 * its own rule. The rules do not conflict, so this measures the contention
+	 * on the job manager itself.
+	 */
+	private void runBeginEndRule(int threadCount) {
+		final IJobManager manager = Job.getJobManager();
+		new ConcurrentRunner(threadCount) {
+			private final ThreadLocal rules = new ThreadLocal() {
+				protected Object initialValue() {
+					return new IdentityRule();
+				}
+			};
+
+			protected void operation() {
+				ISchedulingRule rule = (ISchedulingRule) rules.get();
+				manager.beginRule(rule, null);
+				manager.endRule(rule);
+			}
+		}.run(this, 10, 1);
+	}
+
+	/**
+	 * Time joining a family with no members while many unrelated jobs are sleeping.
+	 */
+	public void testJoinFamily() {
+		final IJobManager manager = Job.getJobManager();
+		final Object family = new Object();
+		final Job[] sleeping = new Job[JOB_COUNT];
+		new PerformanceTestRunner() {
+			protected void setUp() {
+				Object other = new Object();
+				for (int i = 0; i < sleeping.length; i++) {
+					sleeping[i] = new EmptyJob(other, null);
+					sleeping[i].schedule(1000000);
+				}
+			}
+
+			protected void tearDown() {
+				for (int i = 0; i < sleeping.length; i++)
+					sleeping[i].cancel();
+			}
+
+			protected void test() {
+				try {
+					manager.join(family, null);
+				} catch (InterruptedException e) {
+					fail("4.99", e);
+				}
+			}
+		}.run(this, 10, INNER_LOOP);
+	}
+
+	public void testLockContention1Thread() {
+		runLockContention(1);
+	}
+
+	public void testLockContention8Threads() {
+		runLockContention(8);
+	}
+
+	public void testLockContention64Threads() {
+		runLockContention(64);
+	}
+
+	/**
+	 * Time acquiring and releasing one ILock on several threads at once.
+	 */
+	private void runLockContention(int threadCount) {
+		final ILock lock = Job.getJobManager().newLock();
+		new ConcurrentRunner(threadCount) {
+			protected void operation() {
+				lock.acquire();
+				lock.release();
+			}
+		}.run(this, 10, 1);
+	}
+
+	/**
+	 * Time scheduling a job and waiting until it is done, one job at a time.
+	 */
+	public void testScheduleLatency() {
+		final Job job = new EmptyJob(this, null);
+		new PerformanceTestRunner() {
+			protected void test() {
+				job.schedule();
+				try {
+					job.join();
+				} catch (InterruptedException e) {
+					fail("4.99", e);
+				}
+			}
+		}.run(this, 10, INNER_LOOP / 10);
+	}
+
+	public void testSchedule1Thread() {
+		runSchedule(1);
+	}
+
+	public void testSchedule8Threads() {
+		runSchedule(8);
+	}
+
+	public void testSchedule64Threads() {
+		runSchedule(64);
+	}
+
+	/**
+	 * Time scheduling jobs without rules from several threads at once, and
+	 * waiting until all of them are done.
+	 */
+	private void runSchedule(int threadCount) {
+		final Object family = new Object();
+		new ConcurrentRunner(threadCount) {
+			protected void operation() {
+				new EmptyJob(family, null).schedule();
+			}
+
+			protected void test() {
+				super.test();
+				try {
+					Job.getJobManager().join(family, null);
+				} catch (InterruptedException e) {
+					fail("4.99", e);
+				}
+			}
+		}.run(this, 10, 1);
+	}
+
+	/**
+	 * Time running jobs that all conflict with each other.
+	 */
+	public void testThroughputConflictingRules() {
+		final ISchedulingRule[] rules = new ISchedulingRule[] {new IdentityRule()};
+		new PerformanceTestRunner() {
+			protected void test() {
+				scheduleAndJoin(rules);
+			}
+		}.run(this, 10, 1);
+	}
+
+	/**
+	 * Time running jobs whose rules are multi-rules that share one child, so
+	 * every job conflicts with every other job through that child.
+	 */
+	public void testThroughputMultiRule() {
+		ISchedulingRule shared = new IdentityRule();
+		final ISchedulingRule[] rules = new ISchedulingRule[10];
+		for (int i = 0; i < rules.length; i++)
+			rules[i] = MultiRule.combine(new IdentityRule(), shared);
+		new PerformanceTestRunner() {
+			protected void test() {
+				scheduleAndJoin(rules);
+			}
+		}.run(this, 10, 1);
+	}
+
+	/**
+	 * Time running jobs without rules.
+	 */
+	public void testThroughputNoRule() {
+		final ISchedulingRule[] rules = new ISchedulingRule[] {null};
+		new PerformanceTestRunner() {
+			protected void test() {
+				scheduleAndJoin(rules);
+			}
+		}.run(this, 10, 1);
+	}
+
+	/**
+	 * Time running jobs with rules that do not conflict with each other.
+	 */
+	public void testThroughputUnrelatedRules() {
+		final ISchedulingRule[] rules = new ISchedulingRule[JOB_COUNT];
+		for (int i = 0; i < rules.length; i++)
+			rules[i] = new IdentityRule();
+		new PerformanceTestRunner() {
+			protected void test() {
+				scheduleAndJoin(rules);
+			}
+		}.run(this, 10, 1);
+	}
+}